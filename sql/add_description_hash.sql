@@ -0,0 +1,3 @@
+-- Adds the description hash column to a table created by an earlier version of init.sql
+alter table jobs
+    add column description_hash bytea GENERATED ALWAYS AS (decode(md5(description), 'hex')) STORED;
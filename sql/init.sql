@@ -3,6 +3,8 @@ create table jobs(
     dep_code varchar(20) NOT NULL,
     dep_job varchar(100) NOT NULL,
     description varchar(255),
+    -- MD5 of the description, compared by sync instead of the description itself (sync.descriptionHash=true)
+    description_hash bytea GENERATED ALWAYS AS (decode(md5(description), 'hex')) STORED,
     UNIQUE (dep_code, dep_job)
 );
 
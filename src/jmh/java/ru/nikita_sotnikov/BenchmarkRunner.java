@@ -0,0 +1,22 @@
+package ru.nikita_sotnikov;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of "target/benchmarks.jar".
+ * Accepts the usual JMH command line options and always adds the GC profiler,
+ * so the allocation rate is reported for every benchmark (the "gc.alloc.rate.norm" column).
+ */
+public class BenchmarkRunner {
+    public static void main(String[] args) throws Exception {
+        Options options = new OptionsBuilder()
+                .parent(new CommandLineOptions(args))
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,99 @@
+package ru.nikita_sotnikov;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link JobKey#hashCode()} and {@link JobKey#equals(Object)} over all keys of generated jobs,
+ * and the lookups of a {@link HashMap} built on them compared with the lookups of a {@link JobIndex},
+ * which the hash engine uses instead.
+ * The probe keys are distinct objects equal to the stored ones, like the keys parsed from a file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class JobKeyBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    private int rows;
+
+    private JobKey[] keys;
+    private JobKey[] probes;
+    private Map<JobKey, Job> map;
+    private JobIndex index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        List<Job> jobs = JobGenerator.generate(rows, 42);
+        keys = new JobKey[rows];
+        probes = new JobKey[rows];
+        map = new HashMap<>();
+        index = new JobIndex(rows);
+        for(int i = 0; i < rows; i++){
+            Job job = jobs.get(i);
+            keys[i] = new JobKey(job.getDepCode(), job.getDepJob());
+            probes[i] = new JobKey(new String(job.getDepCode()), new String(job.getDepJob())); // Equal, but not the same strings
+            map.put(keys[i], job);
+            index.add(job);
+        }
+    }
+
+    @Benchmark
+    public int hashCodes() {
+        int sum = 0;
+        for(JobKey key : probes){
+            sum += key.hashCode();
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int equalKeys() {
+        int equal = 0;
+        for(int i = 0; i < keys.length; i++){
+            if(keys[i].equals(probes[i])){
+                equal++;
+            }
+        }
+        return equal;
+    }
+
+    @Benchmark
+    public int lookups() {
+        int found = 0;
+        for(JobKey probe : probes){
+            if(map.get(probe) != null){
+                found++;
+            }
+        }
+        return found;
+    }
+
+    @Benchmark
+    public int indexLookups() {
+        int found = 0;
+        for(JobKey probe : probes){
+            if(index.find(probe.depCode(), probe.depJob()) >= 0){
+                found++;
+            }
+        }
+        return found;
+    }
+}
@@ -0,0 +1,93 @@
+package ru.nikita_sotnikov;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the comparison loops of the hash engine, {@link SyncService#diff(JobIndex, JobIndex, boolean)},
+ * and of the columnar engine, {@link SyncService#diff(JobTable, JobTable)},
+ * for a file that differs from the table by the given share of jobs.
+ * The indexes and tables are built once, as the diffs leave them unchanged.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class SyncDiffBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    private int rows;
+
+    @Param({"0.01", "0.5"})
+    private double changeRatio;
+
+    @Param({"false", "true"})
+    private boolean hashed;
+
+    private List<Job> jobsInDB;
+    private List<Job> jobsInFile;
+    private JobIndex jobsFromDB;
+    private JobIndex jobsFromFile;
+    private JobTable tableFromDB;
+    private JobTable tableFromFile;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        jobsInDB = JobGenerator.generate(rows, 42);
+        for(int i = 0; i < jobsInDB.size(); i++){
+            Job job = jobsInDB.get(i);
+            job.setId(i + 1);
+            job.setDescriptionHash(JobHashes.hash(job.getDescription()));
+        }
+        jobsInFile = JobGenerator.change(jobsInDB, changeRatio, 43);
+        jobsFromDB = toIndex(jobsInDB);
+        jobsFromFile = toIndex(jobsInFile);
+        tableFromDB = toTable(jobsInDB, hashed);
+        tableFromFile = toTable(jobsInFile, false);
+    }
+
+    @Benchmark
+    public SyncService.Changes diff() {
+        return SyncService.diff(jobsFromFile, jobsFromDB, hashed);
+    }
+
+    @Benchmark
+    public SyncService.Changes diffColumnar() {
+        return SyncService.diff(tableFromFile, tableFromDB);
+    }
+
+    private static JobIndex toIndex(List<Job> jobs) {
+        JobIndex index = new JobIndex(jobs.size());
+        for(Job job : jobs){
+            index.add(job);
+        }
+        return index;
+    }
+
+    private static JobTable toTable(List<Job> jobs, boolean hashed) {
+        JobTable table = new JobTable(hashed, jobs.size());
+        for(Job job : jobs){
+            if(hashed){
+                table.addHashed(job.getId(), job.getDepCode(), job.getDepJob(), job.getDescriptionHash());
+            }
+            else{
+                table.add(job.getId(), job.getDepCode(), job.getDepJob(), job.getDescription());
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,78 @@
+package ru.nikita_sotnikov;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import javax.xml.transform.OutputKeys;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the export of generated jobs into a file: {@link XmlParser#saveToDocument(List)}
+ * with the serialization by a {@link Transformer}, as the DOM engine of {@link SaveService} does,
+ * and the {@link JobXmlWriter} used by the stream engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class XmlExportBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    private int rows;
+
+    private List<Job> jobs;
+    private Path file;
+    private XmlParser xmlParser;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        jobs = JobGenerator.generate(rows, 42);
+        file = Files.createTempFile("jobs-", ".xml");
+        xmlParser = new XmlParser();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public void saveDocument() throws Exception {
+        Transformer transformer = TransformerFactory.newInstance().newTransformer();
+        transformer.setOutputProperty(OutputKeys.INDENT, "yes");
+        try (OutputStream out = new FileOutputStream(file.toFile())) {
+            transformer.transform(new DOMSource(xmlParser.saveToDocument(jobs)), new StreamResult(out));
+        }
+    }
+
+    @Benchmark
+    public long saveStream() throws Exception {
+        try (JobXmlWriter writer = JobXmlWriter.create(file.toString(), true)) {
+            for(Job job : jobs){
+                writer.write(job);
+            }
+            return writer.getCount();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package ru.nikita_sotnikov;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@link XmlParser#parse(String)} of a generated file with every parsing engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx8g")
+public class XmlParserBenchmark {
+    @Param({"10000", "100000", "1000000"})
+    private int rows;
+
+    @Param({"DOM", "STAX", "PARALLEL", "MAPPED"})
+    private XmlParser.Engine engine;
+
+    private Path file;
+    private XmlParser xmlParser;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        file = Files.createTempFile("jobs-", ".xml");
+        JobGenerator.writeXml(JobGenerator.generate(rows, 42), file);
+        xmlParser = new XmlParser(engine, new ParallelJobParser(Runtime.getRuntime().availableProcessors(), 1024 * 1024));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public JobIndex parse() throws Exception {
+        return xmlParser.parse(file.toString());
+    }
+}
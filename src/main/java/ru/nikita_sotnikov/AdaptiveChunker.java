@@ -0,0 +1,61 @@
+package ru.nikita_sotnikov;
+
+/**
+ * Chooses the size of the next batch from the latency of the previous ones.
+ * The size grows while batches finish faster than the target latency and shrinks
+ * when they are slower, by at most a factor of two per batch, within the configured bounds.
+ */
+public class AdaptiveChunker {
+    private final int minSize;
+    private final int maxSize;
+    private final long targetNanos;
+    private int size;
+
+    /**
+     * Constructs a new AdaptiveChunker.
+     *
+     * @param initialSize The size of the first batch.
+     * @param minSize The minimum batch size.
+     * @param maxSize The maximum batch size.
+     * @param targetMillis The desired duration of a single batch in milliseconds.
+     */
+    public AdaptiveChunker(int initialSize, int minSize, int maxSize, long targetMillis) {
+        this.minSize = Math.max(1, minSize);
+        this.maxSize = Math.max(this.minSize, maxSize);
+        this.targetNanos = targetMillis * 1_000_000;
+        this.size = clamp(initialSize);
+    }
+
+    /**
+     * Returns the size of the next batch.
+     *
+     * @return The number of rows to be sent in the next batch.
+     */
+    public int nextSize() {
+        return size;
+    }
+
+    /**
+     * Adjusts the batch size to the measured duration of a batch.
+     *
+     * @param batchSize The number of rows in the measured batch.
+     * @param nanos The duration of the batch in nanoseconds.
+     */
+    public void record(int batchSize, long nanos) {
+        if(batchSize < size){
+            return; // The last, incomplete batch says nothing about the chosen size
+        }
+        double factor = nanos <= 0 ? 2.0 : Math.clamp((double) targetNanos / nanos, 0.5, 2.0);
+        size = clamp((int) Math.min(Integer.MAX_VALUE, Math.round(size * factor)));
+    }
+
+    /**
+     * Restricts the size to the configured bounds.
+     *
+     * @param value The desired size.
+     * @return The size within [minSize, maxSize].
+     */
+    private int clamp(int value) {
+        return Math.clamp(value, minSize, maxSize);
+    }
+}
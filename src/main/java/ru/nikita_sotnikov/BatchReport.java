@@ -0,0 +1,64 @@
+package ru.nikita_sotnikov;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Collects the sizes and durations of the batches sent to the database during a synchronization.
+ */
+public class BatchReport {
+    private final List<Chunk> chunks = new ArrayList<>();
+
+    /**
+     * A single batch sent to the database.
+     *
+     * @param operation The operation performed by the batch: "insert", "update" or "delete".
+     * @param size The number of rows in the batch.
+     * @param nanos The duration of the batch in nanoseconds, including its commit if it was committed separately.
+     */
+    public record Chunk(String operation, int size, long nanos) {
+        @Override
+        public String toString() {
+            return String.format("%d rows/%d ms", size, nanos / 1_000_000);
+        }
+    }
+
+    /**
+     * Adds a batch to the report.
+     *
+     * @param operation The operation performed by the batch.
+     * @param size The number of rows in the batch.
+     * @param nanos The duration of the batch in nanoseconds.
+     */
+    public synchronized void add(String operation, int size, long nanos) {
+        chunks.add(new Chunk(operation, size, nanos));
+    }
+
+    /**
+     * Returns the batches added to the report.
+     *
+     * @return A copy of the list of batches in the order they were sent.
+     */
+    public synchronized List<Chunk> getChunks() {
+        return List.copyOf(chunks);
+    }
+
+    /**
+     * Returns a one-line summary of the batches: their number and total time,
+     * and for each operation the size and duration of every batch.
+     *
+     * @return The summary of the report.
+     */
+    @Override
+    public synchronized String toString() {
+        long totalMillis = chunks.stream().mapToLong(Chunk::nanos).sum() / 1_000_000;
+        String operations = chunks.stream()
+                .collect(Collectors.groupingBy(Chunk::operation, LinkedHashMap::new, Collectors.toList()))
+                .entrySet().stream()
+                .map(e -> e.getKey() + " " + e.getValue())
+                .collect(Collectors.joining(", "));
+        return String.format("Batches: %d, time: %d ms%s", chunks.size(), totalMillis, operations.isEmpty() ? "" : ", " + operations);
+    }
+}
@@ -0,0 +1,363 @@
+package ru.nikita_sotnikov;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Service class responsible for synchronizing the database table with several XML files in one run.
+ * <p>
+ * Each file is synchronized within the scope of the departments it contains: the rows of the table
+ * with the department codes of the file are made to match the file, and the rows of the other departments
+ * are left unchanged, so a department missing in all files is not deleted. A department may be present in one file only:
+ * the departments of all files are scanned before any file is synchronized, and the files sharing a department are rejected.
+ * The files are processed in parallel by a bounded pool of workers sharing the connection pool,
+ * each file in its own transaction, so a failed file does not affect the others.
+ * The changes are computed as by the hash engine of {@link SyncService} and applied row by row.
+ * </p>
+ */
+public class BatchSyncService {
+    private static final Logger log = LoggerFactory.getLogger(BatchSyncService.class);
+    private static final String GLOB_CHARACTERS = "*?[{";
+    private static final String DIRECTORY_GLOB = "*.{xml,xml.gz,jbin,jbin.gz}";
+
+    private final XmlParser xmlParser;
+    private final DBOperations dbOperations;
+    private final int workers;
+    private final Metrics metrics;
+
+    /**
+     * The result of the synchronization of a single file.
+     *
+     * @param fileName The name of the XML file.
+     * @param departments The number of departments in the file.
+     * @param inserted The number of inserted rows.
+     * @param updated The number of updated rows.
+     * @param deleted The number of deleted rows.
+     * @param total The number of jobs in the file.
+     * @param nanos The duration of the synchronization of the file.
+     * @param error The error of the synchronization, or {@code null} if it succeeded.
+     */
+    public record FileResult(String fileName, int departments, long inserted, long updated, long deleted, long total,
+                             long nanos, Exception error) {
+        /**
+         * Returns whether the synchronization of the file failed.
+         *
+         * @return {@code true} if there is an error.
+         */
+        public boolean failed() {
+            return error != null;
+        }
+
+        @Override
+        public String toString() {
+            if(failed()){
+                return String.format("%s: error: %s", fileName, error.getMessage());
+            }
+            return String.format("%s: inserted: %d, updated: %d, deleted: %d, total: %d, departments: %d, time: %d ms.",
+                    fileName, inserted, updated, deleted, total, departments, nanos / 1_000_000);
+        }
+    }
+
+    /**
+     * Constructs a new BatchSyncService.
+     *
+     * @param xmlParser An instance of {@link XmlParser} to parse XML files.
+     * @param dbOperations An instance of {@link DBOperations} to interact with the database.
+     * @param workers The number of files synchronized at the same time.
+     * @param metrics The {@link Metrics} receiving the durations of the files and the numbers of processed jobs.
+     */
+    public BatchSyncService(XmlParser xmlParser, DBOperations dbOperations, int workers, Metrics metrics) {
+        this.xmlParser = xmlParser;
+        this.dbOperations = dbOperations;
+        this.workers = Math.max(1, workers);
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns whether the arguments of the "sync" command name several files:
+     * there is more than one argument, or the argument is a directory or a glob pattern.
+     *
+     * @param arguments The file arguments of the command.
+     * @return {@code true} if the files are synchronized with this service.
+     */
+    public static boolean isBatch(List<String> arguments) {
+        if(arguments.size() != 1){
+            return true;
+        }
+        String argument = arguments.getFirst();
+        return isGlob(argument) || Files.isDirectory(Path.of(argument));
+    }
+
+    /**
+     * Resolves the arguments into the list of the files to synchronize.
+     * A directory stands for its XML and binary job files ("*.xml", "*.jbin" and their "*.gz" variants), and a glob pattern in the file name,
+     * such as {@code ./in/job-*.xml}, for the matching files of its directory; both are sorted by name.
+     * Other arguments are taken as file names. A file named twice is synchronized once.
+     *
+     * @param arguments The file arguments of the command.
+     * @return The files in the order of the arguments.
+     * @throws IOException If a directory cannot be read.
+     * @throws IllegalArgumentException If the directory part of a pattern contains glob characters, or no file is found.
+     */
+    public static List<Path> resolveFiles(List<String> arguments) throws IOException {
+        Map<Path, Path> files = new LinkedHashMap<>(); // By the normalized absolute path
+        for(String argument : arguments){
+            List<Path> matched = new ArrayList<>();
+            if(isGlob(argument)){
+                int separator = Math.max(argument.lastIndexOf('/'), argument.lastIndexOf('\\'));
+                String directory = separator < 0 ? "." : argument.substring(0, separator + 1);
+                if(isGlob(directory)){
+                    throw new IllegalArgumentException("Glob patterns are supported in the file name only: " + argument);
+                }
+                list(Path.of(directory), argument.substring(separator + 1), matched);
+            }
+            else if(Files.isDirectory(Path.of(argument))){
+                list(Path.of(argument), DIRECTORY_GLOB, matched);
+            }
+            else{
+                matched.add(Path.of(argument));
+            }
+
+            for(Path file : matched){
+                files.putIfAbsent(file.toAbsolutePath().normalize(), file);
+            }
+        }
+
+        if(files.isEmpty()){
+            throw new IllegalArgumentException("No files to synchronize in " + arguments);
+        }
+        return new ArrayList<>(files.values());
+    }
+
+    /**
+     * Synchronizes the database table with the files named by the arguments.
+     * The result of every file is printed to the console in the order of the files,
+     * followed by a summary line.
+     *
+     * @param arguments The file arguments of the command, see {@link #resolveFiles(List)}.
+     * @return The {@link FileResult}s in the order of the files.
+     * @throws IllegalStateException If any file fails; it is thrown after all files are processed.
+     * @throws Exception If the files cannot be resolved or the workers are interrupted.
+     */
+    public List<FileResult> sync(List<String> arguments) throws Exception {
+        List<Path> files = resolveFiles(arguments);
+        int threads = Math.min(workers, files.size());
+        log.info("Start synchronization from {} files on {} workers", files.size(), threads);
+
+        long start = System.nanoTime();
+        List<FileResult> results = new ArrayList<>();
+        try (ExecutorService pool = Executors.newFixedThreadPool(threads)) {
+            List<Future<Set<String>>> scans = new ArrayList<>();
+            for(Path file : files){
+                scans.add(pool.submit(() -> scanDepCodes(file)));
+            }
+            List<Set<String>> depCodes = new ArrayList<>(files.size());
+            List<Exception> errors = new ArrayList<>(files.size());
+            for(Future<Set<String>> scan : scans){
+                try{
+                    depCodes.add(scan.get());
+                    errors.add(null);
+                }
+                catch(ExecutionException e){
+                    depCodes.add(Set.of());
+                    errors.add(e.getCause() instanceof Exception cause ? cause : e);
+                }
+            }
+            rejectSharedDepartments(files, depCodes, errors);
+
+            List<Future<FileResult>> tasks = new ArrayList<>();
+            for(int i = 0; i < files.size(); i++){
+                Path file = files.get(i);
+                Set<String> fileDepCodes = depCodes.get(i);
+                Exception error = errors.get(i);
+                if(error != null){
+                    log.error("Failed to synchronize file '{}'", file, error);
+                    tasks.add(CompletableFuture.completedFuture(new FileResult(file.toString(), fileDepCodes.size(), 0, 0, 0, 0, 0, error)));
+                }
+                else{
+                    tasks.add(pool.submit(() -> syncFile(file, fileDepCodes)));
+                }
+            }
+            for(Future<FileResult> task : tasks){
+                results.add(task.get());
+            }
+        }
+        long nanos = System.nanoTime() - start;
+        metrics.recordPhase("sync", "files", nanos);
+
+        long failed = 0, inserted = 0, updated = 0, deleted = 0, total = 0;
+        for(FileResult result : results){
+            System.out.println(result);
+            if(result.failed()){
+                failed++;
+                continue;
+            }
+            inserted += result.inserted();
+            updated += result.updated();
+            deleted += result.deleted();
+            total += result.total();
+        }
+
+        String resultInfo = String.format("Files: %d, failed: %d. Inserted: %d, updated: %d, deleted: %d, total: %d. Time: %d ms.",
+                results.size(), failed, inserted, updated, deleted, total, nanos / 1_000_000);
+        log.info(resultInfo);
+        System.out.println(resultInfo);
+
+        if(failed > 0){
+            throw new IllegalStateException(String.format("%d of %d files failed to synchronize.", failed, results.size()));
+        }
+        return results;
+    }
+
+    /**
+     * Reads the department codes of a single file, streaming its jobs.
+     *
+     * @param file The job file.
+     * @return The department codes of the file in the order of their first occurrence.
+     * @throws Exception If the file cannot be read or is invalid.
+     */
+    private Set<String> scanDepCodes(Path file) throws Exception {
+        Set<String> depCodes = new LinkedHashSet<>();
+        try (JobReader reader = xmlParser.openReader(file.toString())) {
+            Job job = new Job();
+            while(reader.read(job)){
+                depCodes.add(job.getDepCode());
+            }
+        }
+        return depCodes;
+    }
+
+    /**
+     * Rejects every file sharing a department with another file, so that no department is synchronized
+     * from two files and the result does not depend on the order in which the files are processed.
+     * Files that failed to be scanned are left as they are.
+     *
+     * @param files The files.
+     * @param depCodes The department codes of every file.
+     * @param errors The errors of every file, {@code null} if there is none; the errors of rejected files are set.
+     */
+    private static void rejectSharedDepartments(List<Path> files, List<Set<String>> depCodes, List<Exception> errors) {
+        Map<String, List<Integer>> owners = new HashMap<>(); // The indexes of the files of every department
+        for(int i = 0; i < files.size(); i++){
+            for(String depCode : depCodes.get(i)){
+                owners.computeIfAbsent(depCode, _ -> new ArrayList<>(1)).add(i);
+            }
+        }
+
+        for(int i = 0; i < files.size(); i++){
+            if(errors.get(i) != null){
+                continue;
+            }
+            for(String depCode : depCodes.get(i)){
+                List<Integer> fileIndexes = owners.get(depCode);
+                if(fileIndexes.size() > 1){
+                    int other = fileIndexes.get(fileIndexes.getFirst() == i ? 1 : 0);
+                    errors.set(i, new IllegalArgumentException(String.format("Department '%s' is also in file '%s', a department must be in one file only.",
+                            depCode, files.get(other))));
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Synchronizes the departments of a single file in its own transaction.
+     * The departments of the file were scanned and belong to no other file,
+     * so two files never change the same department.
+     *
+     * @param file The job file.
+     * @param scannedDepCodes The department codes found by the scan of the file.
+     * @return The {@link FileResult}, with the error if the synchronization failed.
+     */
+    private FileResult syncFile(Path file, Set<String> scannedDepCodes) {
+        String fileName = file.toString();
+        long start = System.nanoTime();
+        int departments = scannedDepCodes.size();
+        try{
+            log.info("Start synchronization from file '{}'", fileName);
+
+            JobIndex jobsFromFile = xmlParser.parse(fileName);
+            metrics.countBytes("sync", "read", Files.size(file));
+            List<String> depCodes = jobsFromFile.depCodes();
+            if(!scannedDepCodes.containsAll(depCodes)){
+                throw new IllegalStateException("File '" + fileName + "' has changed during the synchronization.");
+            }
+
+            JobIndex jobsFromDB = dbOperations.getJobMap(depCodes);
+            SyncService.Changes changes = SyncService.diff(jobsFromFile, jobsFromDB, dbOperations.isDescriptionHashed());
+
+            BatchReport report = dbOperations.refreshDB(changes.insertList(), changes.updateList(), changes.deleteList(), true);
+            for(BatchReport.Chunk chunk : report.getChunks()){
+                metrics.recordBatch(chunk.operation(), chunk.nanos());
+            }
+
+            long inserted = changes.insertList().size(), updated = changes.updateList().size(), deleted = changes.deleteList().size();
+            metrics.countRows("sync", "parsed", changes.total());
+            metrics.countRows("sync", "loaded", jobsFromDB.size());
+            metrics.countRows("sync", "inserted", inserted);
+            metrics.countRows("sync", "updated", updated);
+            metrics.countRows("sync", "deleted", deleted);
+
+            FileResult result = new FileResult(fileName, departments, inserted, updated, deleted, changes.total(), System.nanoTime() - start, null);
+            log.info(result.toString());
+            return result;
+        }
+        catch(Exception e){
+            log.error("Failed to synchronize file '{}'", fileName, e);
+            return new FileResult(fileName, departments, 0, 0, 0, 0, System.nanoTime() - start, e);
+        }
+    }
+
+    /**
+     * Lists the files of the directory matching the glob, sorted by name.
+     *
+     * @param directory The directory.
+     * @param glob The glob pattern of the file names.
+     * @param files The list receiving the files.
+     * @throws IOException If the directory cannot be read.
+     */
+    private static void list(Path directory, String glob, List<Path> files) throws IOException {
+        List<Path> matched = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, glob)) {
+            for(Path file : stream){
+                if(Files.isRegularFile(file)){
+                    matched.add(file);
+                }
+            }
+        }
+        matched.sort(null);
+        files.addAll(matched);
+    }
+
+    /**
+     * Returns whether the argument contains glob characters.
+     *
+     * @param argument The argument.
+     * @return {@code true} if the argument is a glob pattern.
+     */
+    private static boolean isGlob(String argument) {
+        for(int i = 0; i < argument.length(); i++){
+            if(GLOB_CHARACTERS.indexOf(argument.charAt(i)) >= 0){
+                return true;
+            }
+        }
+        return false;
+    }
+}
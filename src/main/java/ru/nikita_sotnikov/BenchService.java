@@ -0,0 +1,234 @@
+package ru.nikita_sotnikov;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+/**
+ * Service class measuring end-to-end "sync" and "save" runs, including the database work.
+ * For every dataset size it generates an XML file with {@link JobGenerator} and a changed copy of it,
+ * and runs them through {@link SyncService} and {@link SaveService} against an emptied table:
+ * <ol>
+ * <li>"sync-initial": synchronization of the generated file into the empty table;</li>
+ * <li>"sync-changes": synchronization of the changed file;</li>
+ * <li>"sync-unchanged": synchronization of the same changed file again;</li>
+ * <li>"save": export of the table into a file.</li>
+ * </ol>
+ * The duration, throughput and peak heap usage of every phase are written to a JSON file.
+ */
+public class BenchService {
+    private static final Logger log = LoggerFactory.getLogger(BenchService.class);
+    private static final long SEED = 42;
+
+    private final SyncService syncService;
+    private final SaveService saveService;
+    private final DBOperations dbOperations;
+    private final List<Integer> sizes;
+    private final double changeRatio;
+    private final Map<String, String> settings;
+
+    /**
+     * The measurement of a single phase.
+     *
+     * @param rows The number of jobs in the generated file.
+     * @param phase The name of the phase.
+     * @param nanos The duration of the phase in nanoseconds.
+     * @param peakHeapBytes The peak heap usage during the phase.
+     */
+    public record Result(int rows, String phase, long nanos, long peakHeapBytes) {
+        /**
+         * Returns the throughput of the phase.
+         *
+         * @return The number of jobs processed per second.
+         */
+        public double rowsPerSecond() {
+            return nanos == 0 ? 0 : rows * 1e9 / nanos;
+        }
+    }
+
+    /**
+     * Constructs a new BenchService.
+     *
+     * @param syncService The {@link SyncService} whose synchronization is measured.
+     * @param saveService The {@link SaveService} whose export is measured.
+     * @param dbOperations The {@link DBOperations} used to empty the table before each dataset.
+     * @param sizes The numbers of jobs in the generated datasets.
+     * @param changeRatio The share of jobs changed between the generated file and its changed copy.
+     * @param settings The settings of the measured services, written to the results.
+     */
+    public BenchService(SyncService syncService, SaveService saveService, DBOperations dbOperations,
+                        List<Integer> sizes, double changeRatio, Map<String, String> settings) {
+        this.syncService = syncService;
+        this.saveService = saveService;
+        this.dbOperations = dbOperations;
+        this.sizes = sizes;
+        this.changeRatio = changeRatio;
+        this.settings = settings;
+    }
+
+    /**
+     * Runs all datasets and writes the results to the specified file.
+     * The table is emptied before each dataset.
+     *
+     * @param resultFile The name of the JSON file for the results.
+     * @throws Exception If an error occurs during generation, synchronization, saving or writing the results.
+     */
+    public void run(String resultFile) throws Exception {
+        List<Result> results = new ArrayList<>();
+        Path directory = Files.createTempDirectory("job-bench-");
+
+        try {
+            for(int rows : sizes){
+                log.info("Benchmark of {} jobs with {} changed", rows, changeRatio);
+
+                Path file = directory.resolve("jobs-" + rows + ".xml");
+                Path changedFile = directory.resolve("jobs-" + rows + "-changed.xml");
+                Path savedFile = directory.resolve("jobs-" + rows + "-saved.xml");
+                List<Job> jobs = JobGenerator.generate(rows, SEED);
+                JobGenerator.writeXml(jobs, file);
+                JobGenerator.writeXml(JobGenerator.change(jobs, changeRatio, SEED + 1), changedFile);
+                jobs = null; // Not kept in the heap during the measurements
+
+                dbOperations.clearJobs();
+
+                results.add(measure(rows, "sync-initial", () -> syncService.sync(file.toString())));
+                results.add(measure(rows, "sync-changes", () -> syncService.sync(changedFile.toString())));
+                results.add(measure(rows, "sync-unchanged", () -> syncService.sync(changedFile.toString())));
+                results.add(measure(rows, "save", () -> saveService.save(savedFile.toString())));
+
+                Files.delete(file);
+                Files.delete(changedFile);
+                Files.delete(savedFile);
+            }
+        }
+        finally {
+            deleteDirectory(directory);
+        }
+
+        writeResults(Path.of(resultFile), results);
+
+        String resultInfo = String.format("Benchmark results saved to file '%s'.", resultFile);
+        log.info(resultInfo);
+        System.out.println(resultInfo);
+    }
+
+    /**
+     * An action measured as a phase.
+     */
+    @FunctionalInterface
+    private interface Phase {
+        void run() throws Exception;
+    }
+
+    /**
+     * Runs the phase measuring its duration and the peak heap usage.
+     *
+     * @param rows The number of jobs in the dataset.
+     * @param name The name of the phase.
+     * @param phase The action of the phase.
+     * @return The {@link Result} of the phase.
+     * @throws Exception If the phase fails.
+     */
+    private Result measure(int rows, String name, Phase phase) throws Exception {
+        System.gc();
+        Metrics.resetPeakHeap();
+
+        long start = System.nanoTime();
+        phase.run();
+        long nanos = System.nanoTime() - start;
+
+        long peakHeapBytes = Metrics.peakHeapBytes();
+
+        Result result = new Result(rows, name, nanos, peakHeapBytes);
+        String resultInfo = String.format(Locale.ROOT, "Benchmark %d jobs, %s: %d ms, %.0f rows/s, peak heap %d MB.",
+                rows, name, nanos / 1_000_000, result.rowsPerSecond(), peakHeapBytes / (1024 * 1024));
+        log.info(resultInfo);
+        System.out.println(resultInfo);
+
+        return result;
+    }
+
+    /**
+     * Writes the results together with the environment and the settings as JSON.
+     *
+     * @param path The path of the result file.
+     * @param results The results of all phases.
+     * @throws IOException If the file cannot be written.
+     */
+    private void writeResults(Path path, List<Result> results) throws IOException {
+        try (Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            out.write("{\n");
+            out.write("  \"timestamp\": " + quote(Instant.now().toString()) + ",\n");
+            out.write("  \"javaVersion\": " + quote(System.getProperty("java.version")) + ",\n");
+            out.write("  \"availableProcessors\": " + Runtime.getRuntime().availableProcessors() + ",\n");
+            out.write("  \"maxHeapBytes\": " + Runtime.getRuntime().maxMemory() + ",\n");
+            out.write("  \"changeRatio\": " + changeRatio + ",\n");
+            out.write("  \"settings\": {" + settings.entrySet().stream()
+                    .map(e -> "\n    " + quote(e.getKey()) + ": " + quote(e.getValue()))
+                    .collect(Collectors.joining(",")) + (settings.isEmpty() ? "" : "\n  ") + "},\n");
+            out.write("  \"results\": [");
+            for(int i = 0; i < results.size(); i++){
+                Result result = results.get(i);
+                out.write(i == 0 ? "\n" : ",\n");
+                out.write(String.format(Locale.ROOT,
+                        "    {\"rows\": %d, \"phase\": %s, \"millis\": %.3f, \"rowsPerSecond\": %.1f, \"peakHeapBytes\": %d}",
+                        result.rows(), quote(result.phase()), result.nanos() / 1e6, result.rowsPerSecond(), result.peakHeapBytes()));
+            }
+            out.write(results.isEmpty() ? "]\n" : "\n  ]\n");
+            out.write("}\n");
+        }
+    }
+
+    /**
+     * Deletes the temporary directory with the files left in it, logging the files that cannot be deleted.
+     *
+     * @param directory The path of the directory.
+     */
+    private static void deleteDirectory(Path directory) {
+        try (var files = Files.list(directory)) {
+            for(Path file : files.toList()){
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(directory);
+        }
+        catch(IOException e){
+            log.warn("Failed to delete temporary directory '{}'", directory, e);
+        }
+    }
+
+    /**
+     * Quotes a value as a JSON string.
+     *
+     * @param value The value.
+     * @return The JSON string literal.
+     */
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for(char c : value.toCharArray()){
+            switch(c){
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                default -> {
+                    if(c < 0x20){
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    }
+                    else{
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
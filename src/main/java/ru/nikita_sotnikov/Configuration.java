@@ -1,15 +1,21 @@
 package ru.nikita_sotnikov;
 
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
 import org.springframework.jdbc.core.JdbcTemplate;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
-import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import org.springframework.transaction.support.TransactionTemplate;
 
 import javax.sql.DataSource;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
+import java.util.TreeMap;
 
 /**
  * Centralized configuration class for the application.
@@ -17,9 +23,13 @@ import java.util.Properties;
  * and providing configured instances of various services and components
  * such as {@link DataSource}, {@link JdbcTemplate}, {@link TransactionTemplate},
  * {@link DBOperations}, {@link XmlParser}, {@link SyncService}, and {@link SaveService}.
+ * The configuration owns the connection pool and must be closed when the application finishes.
  */
-public class Configuration {
-    private DataSource dataSource;
+public class Configuration implements AutoCloseable {
+    private static final String DRIVER_PROPERTY_PREFIX = "dataSource.property.";
+    private static final String BENCH_PROPERTY_PREFIX = "bench.";
+
+    private HikariDataSource dataSource;
     private JdbcTemplate jdbcTemplate;
     private Properties properties;
     private DBOperations dbOperations;
@@ -28,7 +38,11 @@ public class Configuration {
     private XmlParser xmlParser;
 
     private SyncService syncService;
+    private BatchSyncService batchSyncService;
     private SaveService saveService;
+    private ConvertService convertService;
+    private BenchService benchService;
+    private Metrics metrics;
 
     /**
      * Private constructor to prevent direct instantiation.
@@ -50,6 +64,44 @@ public class Configuration {
         return config;
     }
 
+    /**
+     * Creates the configuration used by the "bench" command.
+     * It has the same properties, except that every property with the "bench." prefix
+     * overrides the property with the rest of the name, e.g. "bench.dataSource.url" overrides "dataSource.url"
+     * and "bench.sync.engine" overrides "sync.engine". The benchmark empties the table,
+     * so it requires its own database set by "bench.dataSource.url".
+     *
+     * @return A new {@link Configuration} for the benchmark, which must be closed separately.
+     * @throws IllegalStateException If the "bench.dataSource.url" property is not set.
+     */
+    public Configuration forBenchmark(){
+        if(properties.getProperty(BENCH_PROPERTY_PREFIX + "dataSource.url", "").isBlank()){
+            throw new IllegalStateException("Property 'bench.dataSource.url' is not set, the benchmark needs a separate database.");
+        }
+
+        Configuration config = new Configuration();
+        config.properties = new Properties();
+        config.properties.putAll(properties);
+        for(String name : properties.stringPropertyNames()){
+            if(name.startsWith(BENCH_PROPERTY_PREFIX)){
+                config.properties.setProperty(name.substring(BENCH_PROPERTY_PREFIX.length()), properties.getProperty(name));
+            }
+        }
+
+        return config;
+    }
+
+    /**
+     * Overrides a property, e.g. with a command-line option.
+     * It affects only the services created after the call.
+     *
+     * @param name The name of the property.
+     * @param value The new value of the property.
+     */
+    public void setProperty(String name, String value){
+        properties.setProperty(name, value);
+    }
+
     /**
      * Loads properties from a specified file located in the classpath.
      *
@@ -74,20 +126,33 @@ public class Configuration {
 
     /**
      * Returns a singleton instance of {@link DataSource}.
-     * If the instance does not exist, it is created using properties loaded from the configuration file.
+     * If the instance does not exist, it is created as a HikariCP connection pool using properties
+     * loaded from the configuration file. Every property with the "dataSource.property." prefix
+     * is passed to the JDBC driver as a connection property, e.g. "reWriteBatchedInserts",
+     * "prepareThreshold", "preparedStatementCacheQueries" or "defaultRowFetchSize" of the PostgreSQL driver.
      *
      * @return The configured {@link DataSource} instance.
      */
     public DataSource getDataSource() {
         if(dataSource == null){
-            DriverManagerDataSource dataSource = new DriverManagerDataSource();
+            HikariConfig config = new HikariConfig();
+
+            config.setPoolName("job-statistic");
+            config.setDriverClassName(properties.getProperty("dataSource.driverClassName"));
+            config.setJdbcUrl(properties.getProperty("dataSource.url"));
+            config.setUsername(properties.getProperty("dataSource.username"));
+            config.setPassword(properties.getProperty("dataSource.password"));
+            config.setMaximumPoolSize(getIntProperty("dataSource.pool.maximumPoolSize", 10));
+            config.setMinimumIdle(getIntProperty("dataSource.pool.minimumIdle", 1));
+            config.setConnectionTimeout(getIntProperty("dataSource.pool.connectionTimeout", 30000));
 
-            dataSource.setDriverClassName(properties.getProperty("dataSource.driverClassName"));
-            dataSource.setUrl(properties.getProperty("dataSource.url"));
-            dataSource.setUsername(properties.getProperty("dataSource.username"));
-            dataSource.setPassword(properties.getProperty("dataSource.password"));
+            for(String name : properties.stringPropertyNames()){
+                if(name.startsWith(DRIVER_PROPERTY_PREFIX)){
+                    config.addDataSourceProperty(name.substring(DRIVER_PROPERTY_PREFIX.length()), properties.getProperty(name));
+                }
+            }
 
-            this.dataSource = dataSource;
+            this.dataSource = new HikariDataSource(config);
         }
 
         return dataSource;
@@ -124,58 +189,296 @@ public class Configuration {
     /**
      * Returns a singleton instance of {@link DBOperations}.
      * If the instance does not exist, it is created using the configured {@link JdbcTemplate}
-     * and {@link TransactionTemplate}.
+     * and {@link TransactionTemplate}, with the batch settings from the "sync.batch.*" properties.
+     * Descriptions are compared by the "description_hash" column if "sync.descriptionHash" is true,
+     * and the rows are sent as arrays if "sync.dml" is "array".
      *
      * @return The configured {@link DBOperations} instance.
      */
     public DBOperations getDbOperations(){
         if(dbOperations == null){
-            dbOperations = new DBOperations(getJdbcTemplate(), getTransactionTemplate());
+            dbOperations = createDbOperations(getBatchSettings(getIntProperty("dataSource.pool.maximumPoolSize", 10)));
         }
 
         return dbOperations;
     }
 
+    /**
+     * Creates a new instance of {@link DBOperations} with the given batch settings, see {@link #getDbOperations()}.
+     *
+     * @param batchSettings The {@link DBOperations.BatchSettings} of the instance.
+     * @return The new {@link DBOperations} instance.
+     */
+    private DBOperations createDbOperations(DBOperations.BatchSettings batchSettings) {
+        return new DBOperations(getJdbcTemplate(), getTransactionTemplate(), batchSettings,
+                Boolean.parseBoolean(properties.getProperty("sync.descriptionHash", "false")),
+                getEnumProperty("sync.dml", DBOperations.DmlMode.BATCH));
+    }
+
+    /**
+     * Creates the settings of the batches sent by {@link DBOperations#refreshDB(java.util.List, java.util.List, java.util.List)}.
+     * The lists are sent as single batches in one transaction unless "sync.batch.mode" is "chunked".
+     * They are split into "sync.partitions" partitions applied in parallel (1 by default, not more than the given number
+     * of connections), by the key set by "sync.partition.by" (department by default).
+     *
+     * @param connections The number of connections available to the partitions of a single refresh.
+     * @return The configured {@link DBOperations.BatchSettings}.
+     */
+    private DBOperations.BatchSettings getBatchSettings(int connections) {
+        int partitions = Math.max(1, Math.min(getIntProperty("sync.partitions", 1), connections));
+        DBOperations.PartitionKey partitionKey = getEnumProperty("sync.partition.by", DBOperations.PartitionKey.DEPARTMENT);
+
+        if(!"chunked".equalsIgnoreCase(properties.getProperty("sync.batch.mode", "single").trim())){
+            return new DBOperations.BatchSettings(false, 0, 0, 0, 0, false, partitions, partitionKey);
+        }
+
+        return new DBOperations.BatchSettings(true,
+                getIntProperty("sync.batch.initialSize", 1000),
+                getIntProperty("sync.batch.minSize", 100),
+                getIntProperty("sync.batch.maxSize", 50000),
+                getIntProperty("sync.batch.targetMillis", 500),
+                Boolean.parseBoolean(properties.getProperty("sync.batch.commitPerChunk", "false")),
+                partitions, partitionKey);
+    }
+
     /**
      * Returns a singleton instance of {@link SaveService}.
      * If the instance does not exist, it is created using the configured {@link DBOperations}
-     * and {@link XmlParser}.
+     * and {@link XmlParser}, with the export engine set by the "save.engine" property (DOM by default),
+     * the settings of the parallel engine (see {@link #getParallelSettings()}) and the compression level of "*.gz" files set by "save.gzip.level" (the fastest level by default).
      *
      * @return The configured {@link SaveService} instance.
      */
     public SaveService getSaveService() {
         if(saveService == null){
-            saveService = new SaveService(getDbOperations(), getXmlParser());
+            saveService = new SaveService(getDbOperations(), getXmlParser(),
+                    getEnumProperty("save.engine", SaveService.Engine.DOM),
+                    Boolean.parseBoolean(properties.getProperty("save.indent", "true")),
+                    getIntProperty("save.fetchSize", 10000),
+                    getIntProperty("save.gzip.level", FileStreams.DEFAULT_GZIP_LEVEL), getFileFormat(), getParallelSettings(), getMetrics());
         }
 
         return saveService;
     }
 
+    /**
+     * Creates the {@link SaveService.ParallelSettings} of the parallel export engine from the properties:
+     * "save.parallel.connections" (the number of processors by default, but fewer than the connections of the pool,
+     * since one more connection holds the shared snapshot), "save.parallel.segmentSize" (20000 jobs by default)
+     * and "save.parallel.parts" (false by default).
+     *
+     * @return The configured {@link SaveService.ParallelSettings}.
+     */
+    private SaveService.ParallelSettings getParallelSettings() {
+        int connections = Math.max(1, Math.min(getIntProperty("save.parallel.connections", Runtime.getRuntime().availableProcessors()),
+                getIntProperty("dataSource.pool.maximumPoolSize", 10) - 1));
+        return new SaveService.ParallelSettings(connections,
+                Math.max(1, getIntProperty("save.parallel.segmentSize", SaveService.ParallelSettings.DEFAULT.segmentSize())),
+                Boolean.parseBoolean(properties.getProperty("save.parallel.parts", "false")));
+    }
+
+    /**
+     * Returns a singleton instance of {@link ConvertService}, which writes XML files with the indentation
+     * set by the "save.indent" property and "*.gz" files with the compression level set by "save.gzip.level".
+     *
+     * @return The configured {@link ConvertService} instance.
+     */
+    public ConvertService getConvertService() {
+        if(convertService == null){
+            convertService = new ConvertService(Boolean.parseBoolean(properties.getProperty("save.indent", "true")),
+                    getIntProperty("save.gzip.level", FileStreams.DEFAULT_GZIP_LEVEL), getMetrics());
+        }
+
+        return convertService;
+    }
+
+    /**
+     * Returns the {@link JobFormat} of the files read by "sync" and written by "save", set by the "file.format" property:
+     * "xml", "binary", or "auto" (the default) to choose the format of every file by its name.
+     *
+     * @return The format of the files, or {@code null} if it is chosen by the file name.
+     * @throws IllegalArgumentException If the property value is not a supported format.
+     */
+    public JobFormat getFileFormat() {
+        String value = properties.getProperty("file.format", "auto").trim();
+        return value.isEmpty() || value.equalsIgnoreCase("auto") ? null : getEnumProperty("file.format", JobFormat.XML);
+    }
+
     /**
      * Returns a singleton instance of {@link SyncService}.
      * If the instance does not exist, it is created using the configured {@link XmlParser}
-     * and {@link DBOperations}.
+     * and {@link DBOperations}, with the engine set by the "sync.engine" property (hash by default)
+     * and the share of changed rows that triggers a table reload set by "sync.reload.threshold" (disabled by default).
      *
      * @return The configured {@link SyncService} instance.
      */
     public SyncService getSyncService() {
         if(syncService == null){
-            syncService = new SyncService(getXmlParser(), getDbOperations());
+            MergeSyncEngine mergeSyncEngine = new MergeSyncEngine(getDbOperations(),
+                    new ExternalJobSorter(getIntProperty("sync.merge.chunkSize", 100000), getFileFormat()),
+                    getIntProperty("sync.fetchSize", 10000));
+            IncrementalSyncEngine incrementalSyncEngine = new IncrementalSyncEngine(getXmlParser(), getDbOperations(),
+                    Path.of(properties.getProperty("sync.snapshot.file", "jobs.snapshot")));
+            syncService = new SyncService(getXmlParser(), getDbOperations(),
+                    getEnumProperty("sync.engine", SyncService.Engine.HASH), mergeSyncEngine, incrementalSyncEngine,
+                    getDoubleProperty("sync.reload.threshold", 1.0), getMetrics());
         }
 
         return syncService;
     }
 
+    /**
+     * Returns a singleton instance of {@link BatchSyncService}.
+     * If the instance does not exist, it is created using the configured {@link XmlParser} and {@link DBOperations},
+     * with the number of files synchronized at the same time set by "sync.files.workers" (4 by default),
+     * but not more than the connections of the pool. The files are refreshed by their own {@link DBOperations},
+     * whose "sync.partitions" are limited to the connections of the pool divided by the workers,
+     * so that the partitions of all files refreshed at the same time never wait for a connection.
+     *
+     * @return The configured {@link BatchSyncService} instance.
+     */
+    public BatchSyncService getBatchSyncService() {
+        if(batchSyncService == null){
+            int poolSize = getIntProperty("dataSource.pool.maximumPoolSize", 10);
+            int workers = Math.max(1, Math.min(getIntProperty("sync.files.workers", 4), poolSize));
+            DBOperations fileOperations = createDbOperations(getBatchSettings(poolSize / workers));
+            batchSyncService = new BatchSyncService(getXmlParser(), fileOperations, workers, getMetrics());
+        }
+
+        return batchSyncService;
+    }
+
+    /**
+     * Returns a singleton instance of {@link BenchService}.
+     * If the instance does not exist, it is created using the configured {@link SyncService},
+     * {@link SaveService} and {@link DBOperations}, with the dataset sizes set by the comma-separated
+     * "bench.rows" property and the share of changed jobs set by "bench.changeRatio".
+     * The "parser.*", "sync.*" and "save.*" properties are recorded in the results.
+     *
+     * @return The configured {@link BenchService} instance.
+     */
+    public BenchService getBenchService() {
+        if(benchService == null){
+            List<Integer> sizes = Arrays.stream(properties.getProperty("bench.rows", "10000,100000").split(","))
+                    .map(String::trim)
+                    .map(Integer::parseInt)
+                    .toList();
+            Map<String, String> settings = new TreeMap<>();
+            for(String name : properties.stringPropertyNames()){
+                if(name.startsWith("parser.") || name.startsWith("sync.") || name.startsWith("save.")){
+                    settings.put(name, properties.getProperty(name));
+                }
+            }
+            benchService = new BenchService(getSyncService(), getSaveService(), getDbOperations(),
+                    sizes, getDoubleProperty("bench.changeRatio", 0.01), settings);
+        }
+
+        return benchService;
+    }
+
+    /**
+     * Returns a singleton instance of {@link Metrics} shared by the services of this configuration.
+     *
+     * @return The {@link Metrics} of the current run.
+     */
+    public Metrics getMetrics() {
+        if(metrics == null){
+            metrics = new Metrics();
+        }
+        return metrics;
+    }
+
+    /**
+     * Returns the file the metrics of a command are written to: "job_statistic_&lt;command&gt;.prom"
+     * (or ".json" if "metrics.format" is json) in the directory set by the "metrics.directory" property.
+     * Every command has its own file, so a run of one command does not hide the metrics of another.
+     *
+     * @param command The name of the command.
+     * @return The path of the metrics file, or {@code null} if "metrics.directory" is not set.
+     */
+    public Path getMetricsPath(String command) {
+        String directory = properties.getProperty("metrics.directory", "");
+        if(directory.isBlank()){
+            return null;
+        }
+        return Path.of(directory.trim(), "job_statistic_" + command + (getMetricsFormat() == Metrics.Format.JSON ? ".json" : ".prom"));
+    }
+
+    /**
+     * Returns the format of the metrics files set by the "metrics.format" property (Prometheus by default).
+     *
+     * @return The {@link Metrics.Format} of the metrics files.
+     */
+    public Metrics.Format getMetricsFormat() {
+        return getEnumProperty("metrics.format", Metrics.Format.PROMETHEUS);
+    }
+
     /**
      * Returns a singleton instance of {@link XmlParser}.
-     * If the instance does not exist, it is created.
+     * If the instance does not exist, it is created with the engine set by the "parser.engine" property
+     * (DOM by default).
      *
      * @return The configured {@link XmlParser} instance.
      */
     private XmlParser getXmlParser() {
         if(xmlParser == null){
-            xmlParser = new XmlParser();
+            ParallelJobParser parallelJobParser = new ParallelJobParser(
+                    getIntProperty("parser.parallelism", Runtime.getRuntime().availableProcessors()),
+                    getIntProperty("parser.parallel.minSegmentSize", 8 * 1024 * 1024));
+            xmlParser = new XmlParser(getEnumProperty("parser.engine", XmlParser.Engine.DOM), parallelJobParser, getFileFormat());
         }
         return xmlParser;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the value of an integer property.
+     *
+     * @param name The name of the property.
+     * @param defaultValue The value returned when the property is not set.
+     * @return The integer value of the property.
+     * @throws NumberFormatException If the property value is not an integer.
+     */
+    private int getIntProperty(String name, int defaultValue) {
+        String value = properties.getProperty(name);
+        return value == null || value.isBlank() ? defaultValue : Integer.parseInt(value.trim());
+    }
+
+    /**
+     * Returns the value of a floating-point property.
+     *
+     * @param name The name of the property.
+     * @param defaultValue The value returned when the property is not set.
+     * @return The numeric value of the property.
+     * @throws NumberFormatException If the property value is not a number.
+     */
+    private double getDoubleProperty(String name, double defaultValue) {
+        String value = properties.getProperty(name);
+        return value == null || value.isBlank() ? defaultValue : Double.parseDouble(value.trim());
+    }
+
+    /**
+     * Returns the value of an enum property, ignoring the case of the configured value.
+     *
+     * @param name The name of the property.
+     * @param defaultValue The value returned when the property is not set.
+     * @return The enum constant named by the property.
+     * @throws IllegalArgumentException If the property value does not name a constant of the enum.
+     */
+    private <E extends Enum<E>> E getEnumProperty(String name, E defaultValue) {
+        String value = properties.getProperty(name);
+        if(value == null || value.isBlank()){
+            return defaultValue;
+        }
+        return Enum.valueOf(defaultValue.getDeclaringClass(), value.trim().toUpperCase());
+    }
+
+    /**
+     * Closes the connection pool, if it was created.
+     */
+    @Override
+    public void close() {
+        if(dataSource != null){
+            dataSource.close();
+        }
+    }
+}
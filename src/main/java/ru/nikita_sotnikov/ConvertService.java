@@ -0,0 +1,94 @@
+package ru.nikita_sotnikov;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+
+/**
+ * Service class responsible for converting job files between the XML and the binary format,
+ * e.g. to inspect a binary file received from another environment.
+ * The formats of both files are chosen by their names, see {@link JobFormat#of(String, JobFormat)},
+ * and the jobs are streamed from one file to the other, so the memory used does not depend on the size of the files.
+ */
+public class ConvertService {
+    private static final Logger log = LoggerFactory.getLogger(ConvertService.class);
+
+    private final boolean indent;
+    private final int gzipLevel;
+    private final Metrics metrics;
+
+    /**
+     * Constructs a new ConvertService.
+     *
+     * @param indent Whether XML files are written with indentation.
+     * @param gzipLevel The gzip compression level from 0 to 9 of files named "*.gz".
+     * @param metrics The {@link Metrics} receiving the duration of the conversion and the numbers of converted jobs and bytes.
+     */
+    public ConvertService(boolean indent, int gzipLevel, Metrics metrics) {
+        this.indent = indent;
+        this.gzipLevel = gzipLevel;
+        this.metrics = metrics;
+    }
+
+    /**
+     * Converts the source job file into the target file. Every job is validated as in {@link XmlParser},
+     * but duplicate natural keys are not checked. The jobs are written to a temporary file next to the target,
+     * which replaces the target only when the conversion succeeds, so an incomplete file is never left behind
+     * and an existing target is kept if the conversion fails.
+     * A brief summary of the operation is printed to the console.
+     *
+     * @param source The name of the file to be converted.
+     * @param target The name of the file to be written.
+     * @return The number of converted jobs.
+     * @throws IllegalArgumentException If the source and the target are the same file.
+     * @throws Exception If the source cannot be read or is invalid, or the target cannot be written.
+     */
+    public long convert(String source, String target) throws Exception {
+        if(Path.of(source).toAbsolutePath().normalize().equals(Path.of(target).toAbsolutePath().normalize())){
+            throw new IllegalArgumentException("The source and the target of the conversion are the same file: " + source);
+        }
+
+        JobFormat from = JobFormat.of(source, null);
+        JobFormat to = JobFormat.of(target, null);
+        log.info("Converting file '{}' ({}) to file '{}' ({})", source, from, target, to);
+
+        long count;
+        long start = System.nanoTime();
+        Path targetPath = Path.of(target);
+        Path temporary = targetPath.resolveSibling(".tmp-" + targetPath.getFileName()); // Keeps the extensions that select the compression
+        try (JobReader reader = from.openReader(source)) {
+            try{
+                try (JobWriter writer = to.createWriter(temporary.toString(), indent, gzipLevel)) {
+                    Job job = new Job();
+                    while(reader.read(job)){
+                        writer.write(job);
+                    }
+                    count = writer.getCount();
+                }
+                Files.move(temporary, targetPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch(Exception e){
+                Files.deleteIfExists(temporary);
+                throw e;
+            }
+        }
+        long nanos = System.nanoTime() - start;
+
+        long read = Files.size(Path.of(source));
+        long written = Files.size(Path.of(target));
+        metrics.recordPhase("convert", "convert", nanos);
+        metrics.countRows("convert", "converted", count);
+        metrics.countBytes("convert", "read", read);
+        metrics.countBytes("convert", "written", written);
+
+        String resultInfo = String.format("Converted file '%s' (%s, %d bytes) to file '%s' (%s, %d bytes). %d jobs converted in %d ms.",
+                source, from, read, target, to, written, count, nanos / 1_000_000);
+        log.info(resultInfo);
+        System.out.println(resultInfo);
+
+        return count;
+    }
+}
@@ -1,17 +1,43 @@
 package ru.nikita_sotnikov;
 
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.NestedRuntimeException;
 import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+import org.springframework.jdbc.core.ConnectionCallback;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.SqlProvider;
+import org.springframework.transaction.TransactionDefinition;
 import org.springframework.transaction.TransactionException;
 import org.springframework.transaction.support.TransactionTemplate;
+import org.xml.sax.SAXException;
 
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.HexFormat;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * Provides database operations for managing {@link Job} objects.
@@ -21,9 +47,278 @@ import java.util.Map;
 public class DBOperations {
     private static final Logger log = LoggerFactory.getLogger(DBOperations.class);
     private final String TABLE_NAME = "jobs";
+    private final String STAGING_TABLE_NAME = "jobs_staging";
+    private final String RELOAD_TABLE_NAME = "jobs_reload";
+    private static final int COPY_BUFFER_SIZE = 64 * 1024;
+    private static final int DESCRIBED_KEYS = 5;
 
     private final JdbcTemplate jdbcTemplate;
     private final TransactionTemplate transactionTemplate;
+    private final BatchSettings batchSettings;
+    private final boolean descriptionHash;
+    private final DmlMode dmlMode;
+
+    /**
+     * The way {@link #insertJobs(List)}, {@link #updateJobs(List)} and {@link #deleteJobs(List)} send the rows.
+     */
+    public enum DmlMode {
+        /**
+         * One statement per row, sent in a JDBC batch.
+         */
+        BATCH,
+        /**
+         * One statement per list, with the values bound as SQL arrays and expanded by {@code unnest} or {@code ANY}
+         * on the server; the inserted jobs get the IDs assigned by the database.
+         */
+        ARRAY
+    }
+
+    /**
+     * Settings of the batches sent by {@link #refreshDB(List, List, List)}.
+     *
+     * @param chunked Whether the lists are split into chunks sized by an {@link AdaptiveChunker};
+     * otherwise each list is sent as a single batch.
+     * @param initialSize The size of the first chunk.
+     * @param minSize The minimum chunk size.
+     * @param maxSize The maximum chunk size.
+     * @param targetMillis The desired duration of a single chunk in milliseconds.
+     * @param commitPerChunk Whether each chunk is committed in its own transaction;
+     * otherwise all chunks are applied in a single transaction.
+     * @param partitions The number of partitions the lists are split into, applied in parallel
+     * on separate connections, each in its own transaction; 1 applies the lists as a whole.
+     * @param partitionKey The {@link PartitionKey} assigning the jobs to the partitions.
+     */
+    public record BatchSettings(boolean chunked, int initialSize, int minSize, int maxSize, long targetMillis, boolean commitPerChunk,
+                                int partitions, PartitionKey partitionKey) {
+        /**
+         * Each list is sent as a single batch within a single transaction.
+         */
+        public static final BatchSettings SINGLE = new BatchSettings(false, 0, 0, 0, 0, false, 1, PartitionKey.DEPARTMENT);
+    }
+
+    /**
+     * The part of the natural key that assigns a job to a partition of {@link #refreshDB(List, List, List)}.
+     */
+    public enum PartitionKey {
+        /**
+         * The department code, so all changes of a department are committed together.
+         */
+        DEPARTMENT,
+        /**
+         * The whole natural key, which spreads the changes evenly even over few large departments.
+         */
+        KEY
+    }
+
+    /**
+     * Operation applied to a chunk of jobs.
+     */
+    @FunctionalInterface
+    private interface ChunkOperation {
+        void apply(List<Job> chunk);
+    }
+
+    /**
+     * Numbers of rows changed by a synchronization performed on the database side.
+     *
+     * @param inserted The number of inserted rows.
+     * @param updated The number of rows with an updated description.
+     * @param deleted The number of deleted rows.
+     * @param total The number of jobs loaded into the staging table.
+     */
+    public record RefreshCounts(int inserted, int updated, int deleted, long total) {}
+
+    /**
+     * Order-independent checksum of the table content, used to detect changes made outside of the synchronization.
+     *
+     * @param count The number of rows.
+     * @param sum The sum of the row hashes, see {@link JobHashes#rowHash(Job)}.
+     */
+    public record TableChecksum(long count, BigInteger sum) {}
+
+    /**
+     * Durations of the phases of {@link #reloadDB(List, List, List)}.
+     *
+     * @param loadNanos The time spent copying the rows into the new table.
+     * @param indexNanos The time spent building the indexes of the new table.
+     * @param swapNanos The time spent replacing the table and committing.
+     */
+    public record ReloadTimings(long loadNanos, long indexNanos, long swapNanos) {
+        @Override
+        public String toString() {
+            return String.format("load: %d ms, index: %d ms, swap: %d ms", loadNanos / 1_000_000, indexNanos / 1_000_000, swapNanos / 1_000_000);
+        }
+    }
+
+    /**
+     * An inclusive range of job IDs read by {@link #forEachJobInRanges(int, int, int, int, RangeHandler)}.
+     *
+     * @param from The first ID of the range.
+     * @param to The last ID of the range.
+     */
+    public record IdRange(int from, int to) {}
+
+    /**
+     * Callback that reads the jobs of the ID ranges of {@link #forEachJobInRanges(int, int, int, int, RangeHandler)}.
+     */
+    public interface RangeHandler {
+        /**
+         * Called once before the ranges are read.
+         *
+         * @param ranges The number of ranges; 0 if the table is empty.
+         * @throws Exception If the reading cannot be started; no range is read.
+         */
+        void start(int ranges) throws Exception;
+
+        /**
+         * Reads the jobs of a single range in the order of their IDs. It is called concurrently on several threads,
+         * and the ranges are handed out in increasing order, so a range is never handled before the ranges preceding it are started.
+         *
+         * @param range The index of the range.
+         * @param jobs The {@link JobReader} of the jobs of the range, valid only during the call.
+         * @throws Exception If the jobs cannot be handled; no more ranges are read.
+         */
+        void handle(int range, JobReader jobs) throws Exception;
+
+        /**
+         * Called once if the reading fails, before the failure is thrown, so that the handler can release the ranges
+         * waiting for others: after a failure some of the ranges are never handled, even those already handed out.
+         * It may be called concurrently with {@link #handle(int, JobReader)}. Does nothing by default.
+         *
+         * @param cause The first failure.
+         */
+        default void abort(Throwable cause) {
+        }
+    }
+
+    /**
+     * Callback that receives jobs read from the database one at a time.
+     */
+    @FunctionalInterface
+    public interface JobHandler {
+        /**
+         * Handles a single job read from the database.
+         *
+         * @param job The {@link Job} mapped from the current row.
+         * @throws Exception If the job cannot be handled; the reading is stopped.
+         */
+        void handle(Job job) throws Exception;
+    }
+
+    /**
+     * Binds the parameters of a query.
+     */
+    @FunctionalInterface
+    private interface ParameterBinder {
+        void bind(Connection con, PreparedStatement ps) throws SQLException;
+    }
+
+    /**
+     * Handle to cancel a load running in another thread, such as {@link #getJobMap(Cancellation)}.
+     * Cancelling aborts the running query on the server with {@link java.sql.Statement#cancel()}
+     * and stops the reading of the fetched rows; the load then fails with an exception.
+     * A handle is used for a single load.
+     */
+    public static final class Cancellation {
+        private static final String QUERY_CANCELED = "57014"; // SQLSTATE of a query canceled on user request
+
+        private PreparedStatement statement;
+        private volatile boolean cancelled;
+
+        /**
+         * Cancels the load. Loads that have not started yet fail as soon as they start.
+         */
+        public synchronized void cancel() {
+            cancelled = true;
+            if(statement != null){
+                try{
+                    statement.cancel();
+                }
+                catch(SQLException e){
+                    log.warn("Failed to cancel query", e);
+                }
+            }
+        }
+
+        /**
+         * Returns the creator of the statement of the query, which registers the statement for cancellation.
+         *
+         * @param sql The query.
+         * @return The {@link PreparedStatementCreator} of the query.
+         */
+        private PreparedStatementCreator query(String sql) {
+            return new Query(sql, (con, ps) -> {});
+        }
+
+        /**
+         * Returns the creator of the statement of the query with parameters, which registers the statement for cancellation.
+         *
+         * @param sql The query.
+         * @param binder The {@link ParameterBinder} of the query.
+         * @return The {@link PreparedStatementCreator} of the query.
+         */
+        private PreparedStatementCreator query(String sql, ParameterBinder binder) {
+            return new Query(sql, binder);
+        }
+
+        /**
+         * Prepares the statement of the query and registers it for cancellation.
+         *
+         * @param con The connection of the query.
+         * @param sql The query.
+         * @return The prepared statement.
+         * @throws SQLException If the load is cancelled or the statement cannot be prepared.
+         */
+        private synchronized PreparedStatement prepare(Connection con, String sql) throws SQLException {
+            check();
+            statement = con.prepareStatement(sql);
+            return statement;
+        }
+
+        /**
+         * Unregisters the statement, which is closed after the query.
+         */
+        private synchronized void finish() {
+            statement = null;
+        }
+
+        /**
+         * Checks that the load is not cancelled.
+         *
+         * @throws SQLException If the load is cancelled.
+         */
+        private void check() throws SQLException {
+            if(cancelled){
+                throw new SQLException("Load is cancelled", QUERY_CANCELED);
+            }
+        }
+
+        /**
+         * Creator of the statement of a cancellable query.
+         * It provides the SQL to the exceptions of {@link JdbcTemplate}, as a plain query does.
+         */
+        private final class Query implements PreparedStatementCreator, SqlProvider {
+            private final String sql;
+            private final ParameterBinder binder;
+
+            Query(String sql, ParameterBinder binder) {
+                this.sql = sql;
+                this.binder = binder;
+            }
+
+            @Override
+            public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+                PreparedStatement ps = prepare(con, sql);
+                binder.bind(con, ps);
+                return ps;
+            }
+
+            @Override
+            public String getSql() {
+                return sql;
+            }
+        }
+    }
 
     /**
      * Constructs a new DBOperations instance with the given {@link JdbcTemplate} and {@link TransactionTemplate}.
@@ -32,30 +327,70 @@ public class DBOperations {
      * @param transactionTemplate The {@link TransactionTemplate} to manage transactions.
      */
     public DBOperations(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate) {
+        this(jdbcTemplate, transactionTemplate, BatchSettings.SINGLE, false, DmlMode.BATCH);
+    }
+
+    /**
+     * Constructs a new DBOperations instance with the given {@link JdbcTemplate}, {@link TransactionTemplate},
+     * settings of the batches and the way descriptions are compared.
+     *
+     * @param jdbcTemplate The {@link JdbcTemplate} to use for database interactions.
+     * @param transactionTemplate The {@link TransactionTemplate} to manage transactions.
+     * @param batchSettings The {@link BatchSettings} used by {@link #refreshDB(List, List, List)}.
+     * @param descriptionHash Whether the jobs loaded for comparison carry the "description_hash" column
+     * instead of the description.
+     * @param dmlMode The {@link DmlMode} of the inserts, updates and deletes.
+     */
+    public DBOperations(JdbcTemplate jdbcTemplate, TransactionTemplate transactionTemplate, BatchSettings batchSettings, boolean descriptionHash,
+                        DmlMode dmlMode) {
         this.jdbcTemplate = jdbcTemplate;
         this.transactionTemplate = transactionTemplate;
+        this.batchSettings = batchSettings;
+        this.descriptionHash = descriptionHash;
+        this.dmlMode = dmlMode;
+    }
+
+    /**
+     * Returns whether the jobs loaded for comparison by {@link #getJobMap()} and {@link #forEachJobByKey(int, JobHandler)}
+     * carry the description hash instead of the description, see {@link JobHashes#sameDescription(Job, Job, boolean)}.
+     *
+     * @return {@code true} if descriptions are compared by hash.
+     */
+    public boolean isDescriptionHashed() {
+        return descriptionHash;
     }
 
     /**
      * Inserts a list of {@link Job} objects into the database.
-     * The `id` field is auto-generated by the database.
+     * The `id` field is auto-generated by the database; in the {@link DmlMode#ARRAY} mode it is set on the inserted jobs.
      *
      * @param insertList A list of {@link Job} objects to be inserted.
      */
     public void insertJobs(List<Job> insertList) {
-        jdbcTemplate.batchUpdate("INSERT INTO " + TABLE_NAME + " (dep_code, dep_job, description) VALUES (?, ?, ?)", new BatchPreparedStatementSetter() {
-            @Override
-            public void setValues(PreparedStatement ps, int i) throws SQLException {
-                ps.setString(1, insertList.get(i).getDepCode());
-                ps.setString(2, insertList.get(i).getDepJob());
-                ps.setString(3, insertList.get(i).getDescription());
-            }
+        JobEvents.BatchEvent event = new JobEvents.BatchEvent();
+        event.begin();
 
-            @Override
-            public int getBatchSize() {
-                return insertList.size();
-            }
-        });
+        if(dmlMode == DmlMode.ARRAY){
+            insertArray(insertList);
+        }
+        else{
+            jdbcTemplate.batchUpdate("INSERT INTO " + TABLE_NAME + " (dep_code, dep_job, description) VALUES (?, ?, ?)", new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setString(1, insertList.get(i).getDepCode());
+                    ps.setString(2, insertList.get(i).getDepJob());
+                    ps.setString(3, insertList.get(i).getDescription());
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return insertList.size();
+                }
+            });
+        }
+
+        event.end();
+        JobEvents.commitBatch(event, "insert", insertList.size(), () -> JobEvents.estimateBytes(insertList));
     }
 
     /**
@@ -65,18 +400,29 @@ public class DBOperations {
      * @param updateList A list of {@link Job} objects to be updated.
      */
     public void updateJobs(List<Job> updateList) {
-        jdbcTemplate.batchUpdate("UPDATE " + TABLE_NAME + " SET description=? WHERE id=?", new BatchPreparedStatementSetter() {
-            @Override
-            public void setValues(PreparedStatement ps, int i) throws SQLException {
-                ps.setString(1, updateList.get(i).getDescription());
-                ps.setInt(2, updateList.get(i).getId());
-            }
+        JobEvents.BatchEvent event = new JobEvents.BatchEvent();
+        event.begin();
 
-            @Override
-            public int getBatchSize() {
-                return updateList.size();
-            }
-        });
+        if(dmlMode == DmlMode.ARRAY){
+            updateArray(updateList);
+        }
+        else{
+            jdbcTemplate.batchUpdate("UPDATE " + TABLE_NAME + " SET description=? WHERE id=?", new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setString(1, updateList.get(i).getDescription());
+                    ps.setInt(2, updateList.get(i).getId());
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return updateList.size();
+                }
+            });
+        }
+
+        event.end();
+        JobEvents.commitBatch(event, "update", updateList.size(), () -> JobEvents.estimateBytes(updateList));
     }
 
     /**
@@ -86,36 +432,214 @@ public class DBOperations {
      * @param deleteList A list of {@link Job} objects to be deleted.
      */
     public void deleteJobs(List<Job> deleteList) {
-        jdbcTemplate.batchUpdate("DELETE FROM " + TABLE_NAME + " WHERE id = ?", new BatchPreparedStatementSetter() {
-            @Override
-            public void setValues(PreparedStatement ps, int i) throws SQLException {
-                ps.setInt(1, deleteList.get(i).getId());
-            }
+        JobEvents.BatchEvent event = new JobEvents.BatchEvent();
+        event.begin();
 
-            @Override
-            public int getBatchSize() {
-                return deleteList.size();
+        if(dmlMode == DmlMode.ARRAY){
+            deleteArray(deleteList);
+        }
+        else{
+            jdbcTemplate.batchUpdate("DELETE FROM " + TABLE_NAME + " WHERE id = ?", new BatchPreparedStatementSetter() {
+                @Override
+                public void setValues(PreparedStatement ps, int i) throws SQLException {
+                    ps.setInt(1, deleteList.get(i).getId());
+                }
+
+                @Override
+                public int getBatchSize() {
+                    return deleteList.size();
+                }
+            });
+        }
+
+        event.end();
+        JobEvents.commitBatch(event, "delete", deleteList.size(), () -> (long) deleteList.size() * Integer.BYTES); // Only the IDs are sent
+    }
+
+    /**
+     * Inserts the jobs with a single statement, binding each column as an array,
+     * and sets the IDs returned by the database on the jobs.
+     * The returned rows are matched to the jobs by position, falling back to the natural key
+     * if the database returns them in another order.
+     *
+     * @param insertList A list of {@link Job} objects to be inserted.
+     */
+    private void insertArray(List<Job> insertList) {
+        if(insertList.isEmpty()){
+            return;
+        }
+
+        String[] depCodes = new String[insertList.size()];
+        String[] depJobs = new String[insertList.size()];
+        String[] descriptions = new String[insertList.size()];
+        for(int i = 0; i < insertList.size(); i++){
+            Job job = insertList.get(i);
+            depCodes[i] = job.getDepCode();
+            depJobs[i] = job.getDepJob();
+            descriptions[i] = job.getDescription();
+        }
+
+        int[] row = new int[1];
+        JobIndex[] byKey = new JobIndex[1]; // Built only if the rows are returned out of order
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("INSERT INTO " + TABLE_NAME + " (dep_code, dep_job, description) " +
+                    "SELECT dep_code, dep_job, description FROM unnest(?, ?, ?) AS u(dep_code, dep_job, description) RETURNING id, dep_code, dep_job");
+            ps.setArray(1, con.createArrayOf("varchar", depCodes));
+            ps.setArray(2, con.createArrayOf("varchar", depJobs));
+            ps.setArray(3, con.createArrayOf("varchar", descriptions));
+            return ps;
+        }, (ResultSet rs) -> {
+            String depCode = rs.getString("dep_code");
+            String depJob = rs.getString("dep_job");
+            Job job = row[0] < insertList.size() ? insertList.get(row[0]++) : null;
+            if(job == null || !job.getDepCode().equals(depCode) || !job.getDepJob().equals(depJob)){
+                if(byKey[0] == null){
+                    byKey[0] = new JobIndex(insertList.size());
+                    insertList.forEach(byKey[0]::add);
+                }
+                job = byKey[0].get(depCode, depJob);
             }
+            job.setId(rs.getInt("id"));
+        });
+    }
+
+    /**
+     * Updates the descriptions of the jobs with a single statement joining the table with the arrays of IDs and descriptions.
+     *
+     * @param updateList A list of {@link Job} objects to be updated.
+     */
+    private void updateArray(List<Job> updateList) {
+        if(updateList.isEmpty()){
+            return;
+        }
+
+        Integer[] ids = new Integer[updateList.size()];
+        String[] descriptions = new String[updateList.size()];
+        for(int i = 0; i < updateList.size(); i++){
+            ids[i] = updateList.get(i).getId();
+            descriptions[i] = updateList.get(i).getDescription();
+        }
+
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement("UPDATE " + TABLE_NAME + " j SET description = u.description " +
+                    "FROM unnest(?, ?) AS u(id, description) WHERE j.id = u.id");
+            ps.setArray(1, con.createArrayOf("int4", ids));
+            ps.setArray(2, con.createArrayOf("varchar", descriptions));
+            return ps;
         });
     }
 
     /**
-     * Retrieves all {@link Job} objects from the database and returns them as a {@link Map}.
-     * The map's keys are {@link JobKey} objects (composed of `depCode` and `depJob`),
-     * and the values are the corresponding {@link Job} objects.
+     * Deletes the jobs with a single statement matching the array of their IDs.
+     *
+     * @param deleteList A list of {@link Job} objects to be deleted.
+     */
+    private void deleteArray(List<Job> deleteList) {
+        if(deleteList.isEmpty()){
+            return;
+        }
+
+        Integer[] ids = new Integer[deleteList.size()];
+        for(int i = 0; i < deleteList.size(); i++){
+            ids[i] = deleteList.get(i).getId();
+        }
+
+        jdbcTemplate.update(con -> {
+            PreparedStatement ps = con.prepareStatement("DELETE FROM " + TABLE_NAME + " WHERE id = ANY(?)");
+            ps.setArray(1, con.createArrayOf("int4", ids));
+            return ps;
+        });
+    }
+
+    /**
+     * Removes all jobs from the table and restarts the ID sequence.
+     */
+    public void clearJobs() {
+        jdbcTemplate.execute("TRUNCATE " + TABLE_NAME + " RESTART IDENTITY");
+        log.info("Cleared table '{}'", TABLE_NAME);
+    }
+
+    /**
+     * Retrieves all {@link Job} objects from the database and returns them as a {@link JobIndex}
+     * by their natural key (`depCode` and `depJob`).
+     * The rows are added to the index as they are read, without an intermediate list.
+     * If descriptions are compared by hash, the jobs carry the description hash instead of the description.
+     *
+     * @return A {@link JobIndex} of {@link Job} objects representing the current state of the database.
+     */
+    public JobIndex getJobMap(){
+        return getJobMap(new Cancellation());
+    }
+
+    /**
+     * Retrieves all {@link Job} objects from the database as {@link #getJobMap()} does,
+     * allowing another thread to cancel the load.
+     *
+     * @param cancellation The {@link Cancellation} of the load.
+     * @return A {@link JobIndex} of {@link Job} objects representing the current state of the database.
+     */
+    public JobIndex getJobMap(Cancellation cancellation){
+        if(descriptionHash){
+            return loadIndex(cancellation.query("SELECT " + comparedColumns() + " FROM " + TABLE_NAME), new JobMapper(true), "job hashes", cancellation);
+        }
+        return loadIndex(cancellation.query("SELECT * FROM " + TABLE_NAME), new JobMapper(), "jobs", cancellation);
+    }
+
+    /**
+     * Retrieves the {@link Job} objects of the given departments from the database as {@link #getJobMap()} does.
      *
-     * @return A map of {@link JobKey} to {@link Job} objects representing the current state of the database.
+     * @param depCodes The department codes.
+     * @return A {@link JobIndex} of the {@link Job} objects of the departments.
      */
-    public Map<JobKey, Job> getJobMap(){
-        List<Job> result = getJobList();
+    public JobIndex getJobMap(Collection<String> depCodes){
+        Cancellation cancellation = new Cancellation();
+        String[] codes = depCodes.toArray(new String[0]);
+        ParameterBinder binder = (con, ps) -> ps.setArray(1, con.createArrayOf("varchar", codes));
+        if(descriptionHash){
+            return loadIndex(cancellation.query("SELECT " + comparedColumns() + " FROM " + TABLE_NAME + " WHERE dep_code = ANY(?)", binder),
+                    new JobMapper(true), "department job hashes", cancellation);
+        }
+        return loadIndex(cancellation.query("SELECT * FROM " + TABLE_NAME + " WHERE dep_code = ANY(?)", binder),
+                new JobMapper(), "department jobs", cancellation);
+    }
 
-        Map<JobKey, Job> jobsFromDB = new HashMap<>();
+    /**
+     * Retrieves all jobs from the database into a columnar {@link JobTable}, without a {@link Job} object per row.
+     * If descriptions are compared by hash, the table holds the description hashes instead of the descriptions.
+     *
+     * @return A {@link JobTable} representing the current state of the database.
+     */
+    public JobTable getJobTable(){
+        return getJobTable(new Cancellation());
+    }
 
-        for(Job job : result){
-            jobsFromDB.put(new JobKey(job.getDepCode(), job.getDepJob()), job);
+    /**
+     * Retrieves all jobs from the database as {@link #getJobTable()} does, allowing another thread to cancel the load.
+     *
+     * @param cancellation The {@link Cancellation} of the load.
+     * @return A {@link JobTable} representing the current state of the database.
+     */
+    public JobTable getJobTable(Cancellation cancellation){
+        JobEvents.LoadEvent event = new JobEvents.LoadEvent();
+        event.begin();
+
+        JobMapper mapper = new JobMapper(descriptionHash);
+        JobTable jobs = new JobTable(descriptionHash);
+        try{
+            jdbcTemplate.query(cancellation.query("SELECT " + comparedColumns() + " FROM " + TABLE_NAME), (ResultSet rs) -> {
+                cancellation.check();
+                mapper.addRow(rs, jobs);
+            });
         }
+        finally{
+            cancellation.finish();
+        }
+
+        event.end();
+        JobEvents.commitLoad(event, "job table", jobs.size(), jobs::estimateBytes);
+        log.info("Loaded {} jobs into job table from database", jobs.size());
 
-        return jobsFromDB;
+        return jobs;
     }
 
     /**
@@ -124,30 +648,611 @@ public class DBOperations {
      * @return A list of all {@link Job} objects currently in the database.
      */
     public List<Job> getJobList(){
+        JobEvents.LoadEvent event = new JobEvents.LoadEvent();
+        event.begin();
         List<Job> jobs = jdbcTemplate.query("SELECT * FROM " + TABLE_NAME, new JobMapper());
+        event.end();
+        JobEvents.commitLoad(event, "jobs", jobs.size(), () -> JobEvents.estimateBytes(jobs));
 
         log.info("Loaded {} jobs from database", jobs.size());
 
         return jobs;
     }
 
+    /**
+     * Reads all {@link Job} objects from the database with a server-side cursor and passes them
+     * to the handler one at a time, so the table is never held in memory as a whole.
+     *
+     * @param fetchSize The number of rows fetched from the server in one round-trip.
+     * @param handler The {@link JobHandler} receiving the jobs.
+     * @return The number of jobs read.
+     * @throws Exception If the query fails or the handler throws an exception.
+     */
+    public long forEachJob(int fetchSize, JobHandler handler) throws Exception {
+        return forEachJob("SELECT * FROM " + TABLE_NAME, new JobMapper(), fetchSize, handler);
+    }
+
+    /**
+     * Reads all {@link Job} objects from the database ordered by their natural key, as defined by
+     * {@link JobKey#JOB_ORDER}, and passes them to the handler one at a time.
+     * The "C" collation makes the database order independent of its locale.
+     * If descriptions are compared by hash, the jobs carry the description hash instead of the description.
+     *
+     * @param fetchSize The number of rows fetched from the server in one round-trip.
+     * @param handler The {@link JobHandler} receiving the jobs.
+     * @return The number of jobs read.
+     * @throws Exception If the query fails or the handler throws an exception.
+     */
+    public long forEachJobByKey(int fetchSize, JobHandler handler) throws Exception {
+        return forEachJob("SELECT " + comparedColumns() + " FROM " + TABLE_NAME + " ORDER BY dep_code COLLATE \"C\", dep_job COLLATE \"C\"",
+                new JobMapper(descriptionHash), fetchSize, handler);
+    }
+
+    /**
+     * Retrieves the ID, natural key and description hash of all jobs, computing the hash on the database side,
+     * so the descriptions are not transferred and the "description_hash" column is not required.
+     *
+     * @return A {@link JobIndex} of {@link Job} objects with the description hash instead of the description.
+     */
+    public JobIndex getJobHashMap(){
+        Cancellation cancellation = new Cancellation();
+        return loadIndex(cancellation.query("SELECT id, dep_code, dep_job, decode(md5(description), 'hex') AS description_hash FROM " + TABLE_NAME),
+                new JobMapper(true), "computed job hashes", cancellation);
+    }
+
+    /**
+     * Computes the {@link TableChecksum} of the table on the database side.
+     * Only the count and the sum are transferred, whatever the size of the table.
+     *
+     * @return The current checksum of the table.
+     */
+    public TableChecksum getTableChecksum(){
+        return jdbcTemplate.queryForObject("SELECT count(*), coalesce(sum(('x' || left(md5(id || '|' || dep_code || '|' || dep_job || '|' || " +
+                "coalesce(md5(description), '')), 16))::bit(64)::bigint), 0) FROM " + TABLE_NAME,
+                (rs, _) -> new TableChecksum(rs.getLong(1), rs.getBigDecimal(2).toBigIntegerExact()));
+    }
+
+    /**
+     * Sets the IDs assigned by the database to the given jobs, looking them up by natural key.
+     * The IDs of the jobs missing in the table are left unchanged. If all jobs already have IDs,
+     * as the jobs inserted in the {@link DmlMode#ARRAY} mode, nothing is loaded.
+     *
+     * @param jobs The jobs whose IDs are loaded.
+     */
+    public void loadIds(List<Job> jobs){
+        if(jobs.stream().allMatch(job -> job.getId() != 0)){
+            return;
+        }
+
+        JobIndex byKey = new JobIndex(jobs.size());
+        String[] depCodes = new String[jobs.size()];
+        String[] depJobs = new String[jobs.size()];
+        for(int i = 0; i < jobs.size(); i++){
+            Job job = jobs.get(i);
+            byKey.add(job);
+            depCodes[i] = job.getDepCode();
+            depJobs[i] = job.getDepJob();
+        }
+
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("SELECT j.id, j.dep_code, j.dep_job FROM " + TABLE_NAME +
+                    " j JOIN unnest(?, ?) AS k(dep_code, dep_job) ON j.dep_code = k.dep_code AND j.dep_job = k.dep_job");
+            ps.setArray(1, con.createArrayOf("varchar", depCodes));
+            ps.setArray(2, con.createArrayOf("varchar", depJobs));
+            return ps;
+        }, (ResultSet rs) -> {
+            Job job = byKey.get(rs.getString("dep_code"), rs.getString("dep_job"));
+            if(job != null){
+                job.setId(rs.getInt("id"));
+            }
+        });
+    }
+
+    /**
+     * Applies a {@link SyncPlan} in a single transaction, provided that the table is still in the base state of the plan.
+     * The rows to be updated and deleted are locked with {@code SELECT ... FOR UPDATE} if they still have
+     * the IDs, the natural keys and the description hashes recorded by the plan, and the jobs to be inserted
+     * must still be missing in the table. Then the changes are applied in the {@link DmlMode} of the operations,
+     * without chunks or partitions, so the locks are held only while the prepared changes are sent.
+     *
+     * @param plan The {@link SyncPlan} to be applied.
+     * @return The {@link RefreshCounts} of the applied changes.
+     * @throws IllegalStateException If the table has left the base state of the plan; nothing is changed then.
+     */
+    public RefreshCounts applyPlan(SyncPlan plan){
+        SyncService.Changes changes = plan.changes();
+        List<Job> based = new ArrayList<>(changes.updateList().size() + changes.deleteList().size());
+        based.addAll(changes.updateList());
+        based.addAll(changes.deleteList());
+
+        log.info("Start transaction");
+        RefreshCounts counts = transactionTemplate.execute(_ -> {
+            checkBaseStates(based);
+            checkMissing(changes.insertList());
+
+            insertJobs(changes.insertList());
+            updateJobs(changes.updateList());
+            deleteJobs(changes.deleteList());
+            JobEvents.recordCommit("apply", changes.insertList().size() + based.size());
+
+            return new RefreshCounts(changes.insertList().size(), changes.updateList().size(), changes.deleteList().size(), changes.total());
+        });
+        log.info("Transaction successful");
+
+        return counts;
+    }
+
+    /**
+     * Locks the rows of the jobs that are still in their base state and checks that all of them are.
+     *
+     * @param jobs The jobs with the IDs, the natural keys and the description hashes of the base state.
+     * @throws IllegalStateException If any row has been changed or deleted.
+     */
+    private void checkBaseStates(List<Job> jobs) {
+        if(jobs.isEmpty()){
+            return;
+        }
+
+        HexFormat hex = HexFormat.of();
+        Integer[] ids = new Integer[jobs.size()];
+        String[] depCodes = new String[jobs.size()];
+        String[] depJobs = new String[jobs.size()];
+        String[] hashes = new String[jobs.size()];
+        for(int i = 0; i < jobs.size(); i++){
+            Job job = jobs.get(i);
+            ids[i] = job.getId();
+            depCodes[i] = job.getDepCode();
+            depJobs[i] = job.getDepJob();
+            hashes[i] = job.getDescriptionHash() == null ? null : hex.formatHex(job.getDescriptionHash());
+        }
+
+        Set<Integer> locked = new HashSet<>();
+        jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("SELECT j.id FROM " + TABLE_NAME + " j JOIN unnest(?, ?, ?, ?) AS b(id, dep_code, dep_job, hash) " +
+                    "ON j.id = b.id AND j.dep_code = b.dep_code AND j.dep_job = b.dep_job AND md5(j.description) IS NOT DISTINCT FROM b.hash FOR UPDATE OF j");
+            ps.setArray(1, con.createArrayOf("int4", ids));
+            ps.setArray(2, con.createArrayOf("varchar", depCodes));
+            ps.setArray(3, con.createArrayOf("varchar", depJobs));
+            ps.setArray(4, con.createArrayOf("text", hashes));
+            return ps;
+        }, (ResultSet rs) -> {
+            locked.add(rs.getInt(1));
+        });
+
+        if(locked.size() != jobs.size()){
+            List<JobKey> changed = new ArrayList<>();
+            for(Job job : jobs){
+                if(!locked.contains(job.getId())){
+                    changed.add(new JobKey(job.getDepCode(), job.getDepJob()));
+                }
+            }
+            throw new IllegalStateException(String.format("Plan is out of date: %d of %d rows to be updated or deleted have been changed since the plan was computed, %s.",
+                    changed.size(), jobs.size(), describeKeys(changed)));
+        }
+    }
+
+    /**
+     * Checks that the jobs to be inserted are still missing in the table.
+     *
+     * @param jobs The jobs to be inserted.
+     * @throws IllegalStateException If any job is already in the table.
+     */
+    private void checkMissing(List<Job> jobs) {
+        if(jobs.isEmpty()){
+            return;
+        }
+
+        String[] depCodes = new String[jobs.size()];
+        String[] depJobs = new String[jobs.size()];
+        for(int i = 0; i < jobs.size(); i++){
+            depCodes[i] = jobs.get(i).getDepCode();
+            depJobs[i] = jobs.get(i).getDepJob();
+        }
+
+        List<JobKey> present = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("SELECT j.dep_code, j.dep_job FROM " + TABLE_NAME +
+                    " j JOIN unnest(?, ?) AS k(dep_code, dep_job) ON j.dep_code = k.dep_code AND j.dep_job = k.dep_job");
+            ps.setArray(1, con.createArrayOf("varchar", depCodes));
+            ps.setArray(2, con.createArrayOf("varchar", depJobs));
+            return ps;
+        }, (rs, _) -> new JobKey(rs.getString("dep_code"), rs.getString("dep_job")));
+
+        if(!present.isEmpty()){
+            throw new IllegalStateException(String.format("Plan is out of date: %d of %d jobs to be inserted have been added since the plan was computed, %s.",
+                    present.size(), jobs.size(), describeKeys(present)));
+        }
+    }
+
+    /**
+     * Describes the first natural keys of the list for an error message.
+     *
+     * @param keys The natural keys.
+     * @return The description of at most {@value #DESCRIBED_KEYS} keys.
+     */
+    private static String describeKeys(List<JobKey> keys) {
+        StringBuilder description = new StringBuilder(keys.size() == 1 ? "job" : "jobs");
+        for(int i = 0; i < Math.min(keys.size(), DESCRIBED_KEYS); i++){
+            description.append(i == 0 ? " " : ", ").append(String.format("depCode='%s' depJob='%s'", keys.get(i).depCode(), keys.get(i).depJob()));
+        }
+        if(keys.size() > DESCRIBED_KEYS){
+            description.append(" and ").append(keys.size() - DESCRIBED_KEYS).append(" more");
+        }
+        return description.toString();
+    }
+
+    /**
+     * Reads the jobs selected by the query into a {@link JobIndex}.
+     *
+     * @param query The query selecting the jobs, created by the cancellation.
+     * @param mapper The {@link JobMapper} matching the selected columns.
+     * @param source The name of the loaded data, used in the log and the JFR event.
+     * @param cancellation The {@link Cancellation} of the load.
+     * @return The {@link JobIndex} of the jobs.
+     */
+    private JobIndex loadIndex(PreparedStatementCreator query, JobMapper mapper, String source, Cancellation cancellation) {
+        JobEvents.LoadEvent event = new JobEvents.LoadEvent();
+        event.begin();
+
+        JobIndex jobs = new JobIndex();
+        try{
+            jdbcTemplate.query(query, (ResultSet rs) -> {
+                cancellation.check();
+                jobs.add(mapper.mapRow(rs, jobs.size()));
+            });
+        }
+        finally{
+            cancellation.finish();
+        }
+
+        event.end();
+        JobEvents.commitLoad(event, source, jobs.size(), () -> JobEvents.estimateBytes(jobs));
+        log.info("Loaded {} {} from database", jobs.size(), source);
+
+        return jobs;
+    }
+
+    /**
+     * Returns the columns loaded to compare the table with an XML file.
+     *
+     * @return The select list with either the description or its hash.
+     */
+    private String comparedColumns() {
+        return descriptionHash ? "id, dep_code, dep_job, description_hash" : "id, dep_code, dep_job, description";
+    }
+
+    /**
+     * Executes the query with a server-side cursor and passes the mapped jobs to the handler.
+     * The cursor is only used by the PostgreSQL driver within a transaction,
+     * so the reading is performed inside one.
+     *
+     * @param sql The query selecting the jobs.
+     * @param mapper The {@link JobMapper} matching the selected columns.
+     * @param fetchSize The number of rows fetched from the server in one round-trip.
+     * @param handler The {@link JobHandler} receiving the jobs.
+     * @return The number of jobs read.
+     * @throws Exception If the query fails or the handler throws an exception.
+     */
+    private long forEachJob(String sql, JobMapper mapper, int fetchSize, JobHandler handler) throws Exception {
+        JobEvents.LoadEvent event = new JobEvents.LoadEvent();
+        boolean measured = event.isEnabled();
+        long[] bytes = new long[1];
+        event.begin();
+
+        try{
+            Long count = transactionTemplate.execute(_ -> jdbcTemplate.query(con -> {
+                PreparedStatement ps = con.prepareStatement(sql);
+                ps.setFetchSize(fetchSize);
+                return ps;
+            }, (ResultSet rs) -> {
+                long rows = 0;
+                while(rs.next()){
+                    try{
+                        Job job = mapper.mapRow(rs, (int) rows);
+                        if(measured){
+                            bytes[0] += JobEvents.estimateBytes(job);
+                        }
+                        handler.handle(job);
+                    }
+                    catch(SQLException | RuntimeException e){
+                        throw e;
+                    }
+                    catch(Exception e){
+                        throw new CallbackException(e);
+                    }
+                    rows++;
+                }
+                return rows;
+            }));
+
+            event.end();
+            JobEvents.commitLoad(event, "cursor", count == null ? 0 : count, () -> bytes[0]);
+            log.info("Read {} jobs from database", count);
+
+            return count == null ? 0 : count;
+        }
+        catch(CallbackException e){
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * Reads all {@link Job} objects from the database in ID ranges on several connections at once, e.g. to export a large table
+     * on several cores. All connections read the same exported snapshot of the table (see {@code pg_export_snapshot()}),
+     * so the ranges are consistent with each other as if they were read by a single query, whatever is changed meanwhile.
+     * <p>
+     * The table is split into ranges of consecutive IDs with about the same number of jobs, at least {@code minRanges} ranges
+     * of at most {@code maxRangeSize} jobs each, and every range is read with a server-side cursor ordered by ID.
+     * The connections take the ranges in increasing order, one at a time, each connection in its own read-only transaction.
+     * If a range fails, the remaining ranges are not read.
+     * </p>
+     * Besides the reading connections, one more connection splits the table and holds the exported snapshot until all ranges are read.
+     *
+     * @param connections The number of connections reading the ranges.
+     * @param fetchSize The number of rows fetched from the server in one round-trip.
+     * @param minRanges The minimum number of ranges, unless the table has fewer jobs.
+     * @param maxRangeSize The maximum number of jobs in a range.
+     * @param handler The {@link RangeHandler} reading the jobs of every range.
+     * @return The number of jobs read.
+     * @throws Exception If a query fails or the handler throws an exception; the first failure is thrown.
+     */
+    public long forEachJobInRanges(int connections, int fetchSize, int minRanges, int maxRangeSize, RangeHandler handler) throws Exception {
+        JobEvents.LoadEvent event = new JobEvents.LoadEvent();
+        LongAdder bytes = event.isEnabled() ? new LongAdder() : null;
+        event.begin();
+
+        TransactionTemplate snapshotTemplate = new TransactionTemplate(transactionTemplate.getTransactionManager());
+        snapshotTemplate.setIsolationLevel(TransactionDefinition.ISOLATION_REPEATABLE_READ); // All queries see the snapshot, as required to import it
+        snapshotTemplate.setReadOnly(true);
+
+        try{
+            Long count = snapshotTemplate.execute(_ -> {
+                // The exported snapshot is the snapshot of this transaction and stays valid while it is open
+                String snapshot = jdbcTemplate.queryForObject("SELECT pg_export_snapshot()", String.class);
+                List<IdRange> ranges = splitIds(minRanges, maxRangeSize);
+
+                try{
+                    handler.start(ranges.size());
+                }
+                catch(RuntimeException e){
+                    throw e;
+                }
+                catch(Exception e){
+                    throw new CallbackException(e);
+                }
+
+                log.info("Reading {} ID ranges on {} connections from snapshot {}", ranges.size(), Math.min(connections, ranges.size()), snapshot);
+                return readRanges(snapshotTemplate, snapshot, ranges, connections, fetchSize, handler, bytes);
+            });
+
+            event.end();
+            JobEvents.commitLoad(event, "ranges", count == null ? 0 : count, () -> bytes == null ? 0 : bytes.sum());
+            log.info("Read {} jobs from database", count);
+
+            return count == null ? 0 : count;
+        }
+        catch(CallbackException e){
+            throw (Exception) e.getCause();
+        }
+    }
+
+    /**
+     * Splits the table into ranges of consecutive IDs with the same number of jobs, except for the last range,
+     * by numbering the IDs in a single scan of the primary key. The first and the last range are open-ended,
+     * so together the ranges cover all IDs.
+     *
+     * @param minRanges The minimum number of ranges, unless the table has fewer jobs.
+     * @param maxRangeSize The maximum number of jobs in a range.
+     * @return The ranges in increasing order; no ranges if the table is empty.
+     */
+    private List<IdRange> splitIds(int minRanges, int maxRangeSize) {
+        Long rows = jdbcTemplate.queryForObject("SELECT count(*) FROM " + TABLE_NAME, Long.class);
+        if(rows == null || rows == 0){
+            return List.of();
+        }
+
+        long count = Math.min(rows, Math.max(minRanges, (rows + maxRangeSize - 1) / maxRangeSize));
+        long step = (rows + count - 1) / count;
+        List<Integer> starts = jdbcTemplate.queryForList("SELECT id FROM (SELECT id, row_number() OVER (ORDER BY id) AS n FROM " + TABLE_NAME +
+                ") ids WHERE (n - 1) % ? = 0 ORDER BY id", Integer.class, step);
+
+        List<IdRange> ranges = new ArrayList<>(starts.size());
+        for(int i = 0; i < starts.size(); i++){
+            ranges.add(new IdRange(i == 0 ? Integer.MIN_VALUE : starts.get(i),
+                    i == starts.size() - 1 ? Integer.MAX_VALUE : starts.get(i + 1) - 1));
+        }
+        return ranges;
+    }
+
+    /**
+     * Reads the ranges on a pool of connections that import the snapshot.
+     *
+     * @param snapshotTemplate The {@link TransactionTemplate} of the read-only repeatable read transactions of the connections.
+     * @param snapshot The identifier of the exported snapshot.
+     * @param ranges The ID ranges.
+     * @param connections The number of connections.
+     * @param fetchSize The number of rows fetched from the server in one round-trip.
+     * @param handler The {@link RangeHandler} reading the jobs of every range.
+     * @param bytes The estimated size of the read jobs, if it is measured; otherwise {@code null}.
+     * @return The number of jobs read.
+     */
+    private long readRanges(TransactionTemplate snapshotTemplate, String snapshot, List<IdRange> ranges, int connections, int fetchSize,
+                            RangeHandler handler, LongAdder bytes) {
+        int workers = Math.min(connections, ranges.size());
+        AtomicInteger next = new AtomicInteger();
+        AtomicBoolean failed = new AtomicBoolean();
+        LongAdder rows = new LongAdder();
+
+        List<Throwable> errors = new ArrayList<>();
+        try (ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, workers))) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for(int i = 0; i < workers; i++){
+                tasks.add(pool.submit(() -> {
+                    try{
+                        snapshotTemplate.executeWithoutResult(_ -> {
+                            jdbcTemplate.execute("SET TRANSACTION SNAPSHOT '" + snapshot + "'");
+                            // A range is handed out only while nothing failed, so after a failure no more ranges are started
+                            for(int range; !failed.get() && (range = next.getAndIncrement()) < ranges.size(); ){
+                                rows.add(readRange(ranges.get(range), range, fetchSize, handler, bytes));
+                            }
+                        });
+                    }
+                    catch(RuntimeException | Error e){
+                        // The other connections stop after their current range; the handler releases the ranges waiting for it
+                        if(failed.compareAndSet(false, true)){
+                            handler.abort(e);
+                        }
+                        throw e;
+                    }
+                }));
+            }
+
+            for(Future<?> task : tasks){
+                try{
+                    task.get();
+                }
+                catch(ExecutionException e){
+                    if(errors.stream().noneMatch(error -> error == e.getCause())){
+                        errors.add(e.getCause());
+                    }
+                }
+            }
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            if(failed.compareAndSet(false, true)){
+                handler.abort(e);
+            }
+            throw new IllegalStateException("Reading of ID ranges is interrupted", e);
+        }
+
+        if(!errors.isEmpty()){
+            RuntimeException error = errors.getFirst() instanceof RuntimeException runtime ? runtime : new IllegalStateException(errors.getFirst());
+            errors.stream().skip(1).forEach(error::addSuppressed);
+            throw error;
+        }
+
+        return rows.sum();
+    }
+
+    /**
+     * Reads the jobs of a single ID range with a server-side cursor and passes them to the handler.
+     *
+     * @param range The ID range.
+     * @param index The index of the range.
+     * @param fetchSize The number of rows fetched from the server in one round-trip.
+     * @param handler The {@link RangeHandler} reading the jobs.
+     * @param bytes The estimated size of the read jobs, if it is measured; otherwise {@code null}.
+     * @return The number of jobs read.
+     */
+    private long readRange(IdRange range, int index, int fetchSize, RangeHandler handler, LongAdder bytes) {
+        JobMapper mapper = new JobMapper();
+        Long count = jdbcTemplate.query(con -> {
+            PreparedStatement ps = con.prepareStatement("SELECT * FROM " + TABLE_NAME + " WHERE id BETWEEN ? AND ? ORDER BY id");
+            ps.setFetchSize(fetchSize);
+            ps.setInt(1, range.from());
+            ps.setInt(2, range.to());
+            return ps;
+        }, (ResultSet rs) -> {
+            long[] rows = new long[1];
+            JobReader jobs = new JobReader() {
+                @Override
+                public Job read() throws SQLException {
+                    if(!rs.next()){
+                        return null;
+                    }
+                    Job job = mapper.mapRow(rs, (int) rows[0]++);
+                    if(bytes != null){
+                        bytes.add(JobEvents.estimateBytes(job));
+                    }
+                    return job;
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+
+            try{
+                handler.handle(index, jobs);
+            }
+            catch(SQLException | RuntimeException e){
+                throw e;
+            }
+            catch(Exception e){
+                throw new CallbackException(e);
+            }
+            return rows[0];
+        });
+        return count == null ? 0 : count;
+    }
+
     /**
      * Refreshes the database by performing insertions, updates, and deletions in a single transaction.
      * If any operation within the transaction fails, the entire transaction is rolled back,
      * ensuring data consistency.
+     * <p>
+     * In the chunked mode the lists are sent in chunks sized by an {@link AdaptiveChunker}.
+     * If the chunks are committed separately, a failure rolls back only the failed chunk
+     * and stops the refresh; the chunks committed before it stay in the database.
+     * </p>
+     * With several partitions the refresh is performed by {@link #refreshPartitioned(List, List, List)}.
      *
      * @param insertList A list of {@link Job} objects to be inserted.
      * @param updateList A list of {@link Job} objects to be updated.
      * @param deleteList A list of {@link Job} objects to be deleted.
+     * @return The {@link BatchReport} with the sizes and durations of the sent batches.
      */
-    public void refreshDB(List<Job> insertList, List<Job> updateList, List<Job> deleteList) {
+    public BatchReport refreshDB(List<Job> insertList, List<Job> updateList, List<Job> deleteList) {
+        return refreshDB(insertList, updateList, deleteList, false);
+    }
+
+    /**
+     * Refreshes the database as {@link #refreshDB(List, List, List)} does, optionally rethrowing a transaction error
+     * of a single partition after it is logged, as errors of several partitions always are, so that the caller
+     * can tell a rolled back refresh from a successful one.
+     *
+     * @param insertList A list of {@link Job} objects to be inserted.
+     * @param updateList A list of {@link Job} objects to be updated.
+     * @param deleteList A list of {@link Job} objects to be deleted.
+     * @param rethrow Whether a transaction error is thrown after it is logged, rather than only logged.
+     * @return The {@link BatchReport} with the sizes and durations of the sent batches.
+     * @throws TransactionException If the refresh fails and {@code rethrow} is set.
+     */
+    public BatchReport refreshDB(List<Job> insertList, List<Job> updateList, List<Job> deleteList, boolean rethrow) {
+        if(batchSettings.partitions() > 1){
+            return refreshPartitioned(insertList, updateList, deleteList);
+        }
+
+        BatchReport report = new BatchReport();
+
+        if(batchSettings.chunked() && batchSettings.commitPerChunk()){
+            log.info("Start chunked refresh with a commit per chunk");
+
+            try{
+                applyChunked("insert", insertList, this::insertJobs, report);
+                applyChunked("update", updateList, this::updateJobs, report);
+                applyChunked("delete", deleteList, this::deleteJobs, report);
+
+                log.info("Chunked refresh successful");
+            }
+            catch(TransactionException e){
+                log.error("Transaction error, the refresh is stopped after {} committed chunks.", report.getChunks().size(), e);
+                if(rethrow){
+                    throw e;
+                }
+            }
+
+            return report;
+        }
+
         log.info("Start transaction");
 
         try{
             transactionTemplate.execute(_ -> {
-                insertJobs(insertList);
-                updateJobs(updateList);
-                deleteJobs(deleteList);
+                applyChunked("insert", insertList, this::insertJobs, report);
+                applyChunked("update", updateList, this::updateJobs, report);
+                applyChunked("delete", deleteList, this::deleteJobs, report);
+                JobEvents.recordCommit("refresh", insertList.size() + updateList.size() + deleteList.size());
 
                 return null;
             });
@@ -156,6 +1261,445 @@ public class DBOperations {
         }
         catch(TransactionException e){
             log.error("Transaction error.", e);
+            if(rethrow){
+                throw e;
+            }
+        }
+
+        return report;
+    }
+
+    /**
+     * Refreshes the database in partitions applied in parallel on separate connections, so the changes
+     * are spread over several database backends. The jobs are assigned to the partitions by the
+     * {@link PartitionKey}; the rows of different partitions are disjoint, so the transactions do not block each other.
+     * Each partition is applied in its own transaction, or with a commit per chunk if the batch settings say so.
+     * <p>
+     * A failed partition is rolled back, while the other partitions are still applied and committed.
+     * Once all partitions are done, the failures are logged and reported together, one line per partition.
+     * </p>
+     *
+     * @param insertList A list of {@link Job} objects to be inserted.
+     * @param updateList A list of {@link Job} objects to be updated.
+     * @param deleteList A list of {@link Job} objects to be deleted.
+     * @return The {@link BatchReport} with the sizes and durations of the batches of all partitions.
+     * @throws IllegalStateException If any partition fails, with the first failure as the cause
+     * and the others as suppressed exceptions.
+     */
+    private BatchReport refreshPartitioned(List<Job> insertList, List<Job> updateList, List<Job> deleteList) {
+        int partitions = batchSettings.partitions();
+        List<List<Job>> inserts = partition(insertList, partitions);
+        List<List<Job>> updates = partition(updateList, partitions);
+        List<List<Job>> deletes = partition(deleteList, partitions);
+
+        log.info("Start refresh in {} partitions by {}", partitions, batchSettings.partitionKey());
+
+        BatchReport report = new BatchReport();
+        List<Exception> errors = new ArrayList<>();
+        List<String> failures = new ArrayList<>();
+        try (ExecutorService pool = Executors.newFixedThreadPool(partitions)) {
+            List<Future<?>> tasks = new ArrayList<>();
+            for(int i = 0; i < partitions; i++){
+                int partition = i;
+                tasks.add(pool.submit(() -> refreshPartition(partition, inserts.get(partition), updates.get(partition), deletes.get(partition), report)));
+            }
+
+            for(int i = 0; i < partitions; i++){
+                try{
+                    tasks.get(i).get();
+                }
+                catch(ExecutionException e){
+                    Exception error = e.getCause() instanceof Exception cause ? cause : e;
+                    String failure = String.format("partition %d of %d (%d inserts, %d updates, %d deletes): %s",
+                            i + 1, partitions, inserts.get(i).size(), updates.get(i).size(), deletes.get(i).size(), failureMessage(error));
+                    log.error("Failed {}", failure, error);
+                    errors.add(error);
+                    failures.add(failure);
+                }
+            }
+        }
+        catch(InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Partitioned refresh is interrupted", e);
+        }
+
+        if(!errors.isEmpty()){
+            IllegalStateException exception = new IllegalStateException(String.format("%d of %d partitions failed and were rolled back%s:%n%s",
+                    errors.size(), partitions, errors.size() < partitions ? ", the others are committed" : "",
+                    String.join(System.lineSeparator(), failures)), errors.getFirst());
+            errors.stream().skip(1).forEach(exception::addSuppressed);
+            throw exception;
+        }
+
+        log.info("Partitioned refresh successful");
+
+        return report;
+    }
+
+    /**
+     * Returns the message of the most specific cause of a failure, as the messages of the batch exceptions
+     * of the driver repeat the whole statement. The first error of a failed batch is taken from the next exception.
+     *
+     * @param error The failure.
+     * @return The short message of the failure.
+     */
+    private static String failureMessage(Exception error) {
+        Throwable cause = error instanceof NestedRuntimeException nested ? nested.getMostSpecificCause() : error;
+        if(cause instanceof SQLException sqlException && sqlException.getNextException() != null){
+            cause = sqlException.getNextException();
+        }
+        return cause.getMessage();
+    }
+
+    /**
+     * Applies the changes of a single partition in its own transaction,
+     * or with a commit per chunk if the batch settings say so.
+     *
+     * @param partition The index of the partition.
+     * @param insertList The jobs of the partition to be inserted.
+     * @param updateList The jobs of the partition to be updated.
+     * @param deleteList The jobs of the partition to be deleted.
+     * @param report The {@link BatchReport} receiving the batches, shared by the partitions.
+     */
+    private void refreshPartition(int partition, List<Job> insertList, List<Job> updateList, List<Job> deleteList, BatchReport report) {
+        if(batchSettings.chunked() && batchSettings.commitPerChunk()){
+            applyChunked("insert", insertList, this::insertJobs, report);
+            applyChunked("update", updateList, this::updateJobs, report);
+            applyChunked("delete", deleteList, this::deleteJobs, report);
+            return;
+        }
+
+        transactionTemplate.executeWithoutResult(_ -> {
+            applyChunked("insert", insertList, this::insertJobs, report);
+            applyChunked("update", updateList, this::updateJobs, report);
+            applyChunked("delete", deleteList, this::deleteJobs, report);
+            JobEvents.recordCommit("partition " + (partition + 1), insertList.size() + updateList.size() + deleteList.size());
+        });
+        log.debug("Committed partition {}", partition + 1);
+    }
+
+    /**
+     * Splits the jobs into partitions by the {@link PartitionKey} of the batch settings,
+     * keeping their order within each partition.
+     *
+     * @param jobs The jobs.
+     * @param partitions The number of partitions.
+     * @return The lists of the jobs of every partition.
+     */
+    private List<List<Job>> partition(List<Job> jobs, int partitions) {
+        List<List<Job>> parts = new ArrayList<>(partitions);
+        for(int i = 0; i < partitions; i++){
+            parts.add(new ArrayList<>(jobs.size() / partitions + 1));
+        }
+
+        for(Job job : jobs){
+            int hash = job.getDepCode().hashCode();
+            if(batchSettings.partitionKey() == PartitionKey.KEY){
+                hash = 31 * hash + job.getDepJob().hashCode();
+            }
+            hash *= 0x9E3779B9; // Mixes the bits, so that similar keys land in different partitions
+            parts.get(Math.floorMod(hash ^ (hash >>> 16), partitions)).add(job);
+        }
+        return parts;
+    }
+
+    /**
+     * Applies the operation to the list, as a single batch or in adaptively sized chunks,
+     * and records every batch in the report.
+     *
+     * @param name The name of the operation used in the report.
+     * @param jobs The jobs the operation is applied to.
+     * @param operation The operation sending a batch of jobs.
+     * @param report The {@link BatchReport} receiving the batches.
+     */
+    private void applyChunked(String name, List<Job> jobs, ChunkOperation operation, BatchReport report) {
+        if(!batchSettings.chunked()){
+            long start = System.nanoTime();
+            operation.apply(jobs);
+            if(!jobs.isEmpty()){
+                report.add(name, jobs.size(), System.nanoTime() - start);
+            }
+            return;
+        }
+
+        AdaptiveChunker chunker = new AdaptiveChunker(batchSettings.initialSize(), batchSettings.minSize(),
+                batchSettings.maxSize(), batchSettings.targetMillis());
+
+        for(int from = 0; from < jobs.size(); ){
+            List<Job> chunk = jobs.subList(from, Math.min(jobs.size(), from + chunker.nextSize()));
+
+            long start = System.nanoTime();
+            if(batchSettings.commitPerChunk()){
+                transactionTemplate.executeWithoutResult(_ -> {
+                    operation.apply(chunk);
+                    JobEvents.recordCommit(name + " chunk", chunk.size());
+                });
+            }
+            else{
+                operation.apply(chunk);
+            }
+            long nanos = System.nanoTime() - start;
+
+            log.debug("Applied {} chunk of {} jobs in {} ms", name, chunk.size(), nanos / 1_000_000);
+            report.add(name, chunk.size(), nanos);
+            chunker.record(chunk.size(), nanos);
+            from += chunk.size();
+        }
+    }
+
+    /**
+     * Applies the changes by rebuilding the table instead of changing it row by row.
+     * Within a single transaction a new copy of the table is created without indexes, filled with the kept rows
+     * and the changed jobs, indexed after the load and swapped in place of the old table.
+     * The surviving rows keep their IDs and the new rows continue the ID sequence of the old table.
+     * If any operation within the transaction fails, the entire transaction is rolled back
+     * and the old table stays unchanged.
+     * <p>
+     * The table is locked against writes for the whole reload; objects that depend on the table
+     * (views, foreign keys, grants) are not recreated, as the schema in "sql/init.sql" has none.
+     * </p>
+     *
+     * @param insertList A list of {@link Job} objects to be inserted.
+     * @param updateList A list of {@link Job} objects to be updated, with the IDs of their rows.
+     * @param deleteList A list of {@link Job} objects to be deleted, with the IDs of their rows.
+     * @return The {@link ReloadTimings} of the reload.
+     * @throws TransactionException If the reload fails.
+     */
+    public ReloadTimings reloadDB(List<Job> insertList, List<Job> updateList, List<Job> deleteList) {
+        log.info("Start transaction");
+
+        try{
+            long start = System.nanoTime();
+            long[] marks = new long[2]; // Ends of the load and of the indexing
+            transactionTemplate.executeWithoutResult(_ -> {
+                jdbcTemplate.execute("LOCK TABLE " + TABLE_NAME + " IN EXCLUSIVE MODE");
+                String sequence = jdbcTemplate.queryForObject("SELECT pg_get_serial_sequence('" + TABLE_NAME + "', 'id')", String.class);
+
+                jdbcTemplate.execute("CREATE TABLE " + RELOAD_TABLE_NAME + " (LIKE " + TABLE_NAME +
+                        " INCLUDING DEFAULTS INCLUDING IDENTITY INCLUDING GENERATED INCLUDING STORAGE)");
+                jdbcTemplate.queryForObject("SELECT setval(pg_get_serial_sequence('" + RELOAD_TABLE_NAME + "', 'id'), nextval(?::regclass))", Long.class, sequence);
+
+                Integer[] removedIds = new Integer[updateList.size() + deleteList.size()];
+                for(int i = 0; i < updateList.size(); i++){
+                    removedIds[i] = updateList.get(i).getId();
+                }
+                for(int i = 0; i < deleteList.size(); i++){
+                    removedIds[updateList.size() + i] = deleteList.get(i).getId();
+                }
+                int kept = jdbcTemplate.update(con -> {
+                    PreparedStatement ps = con.prepareStatement("INSERT INTO " + RELOAD_TABLE_NAME + " (id, dep_code, dep_job, description) " +
+                            "SELECT id, dep_code, dep_job, description FROM " + TABLE_NAME + " j WHERE NOT EXISTS (SELECT 1 FROM unnest(?) AS r(id) WHERE r.id = j.id)");
+                    ps.setArray(1, con.createArrayOf("int4", removedIds));
+                    return ps;
+                });
+                jdbcTemplate.execute((ConnectionCallback<Long>) con -> copyJobs(con.unwrap(PGConnection.class), RELOAD_TABLE_NAME, JobReader.of(updateList), true));
+                jdbcTemplate.execute((ConnectionCallback<Long>) con -> copyJobs(con.unwrap(PGConnection.class), RELOAD_TABLE_NAME, JobReader.of(insertList), false));
+                log.info("Loaded {} kept, {} updated and {} inserted jobs into new table", kept, updateList.size(), insertList.size());
+                marks[0] = System.nanoTime();
+
+                jdbcTemplate.execute("ALTER TABLE " + RELOAD_TABLE_NAME + " ADD CONSTRAINT " + RELOAD_TABLE_NAME + "_pkey PRIMARY KEY (id), " +
+                        "ADD CONSTRAINT " + RELOAD_TABLE_NAME + "_dep_code_dep_job_key UNIQUE (dep_code, dep_job)");
+                jdbcTemplate.execute("ANALYZE " + RELOAD_TABLE_NAME);
+                marks[1] = System.nanoTime();
+
+                String newSequence = jdbcTemplate.queryForObject("SELECT pg_get_serial_sequence('" + RELOAD_TABLE_NAME + "', 'id')", String.class);
+                jdbcTemplate.execute("DROP TABLE " + TABLE_NAME);
+                jdbcTemplate.execute("ALTER TABLE " + RELOAD_TABLE_NAME + " RENAME TO " + TABLE_NAME);
+                jdbcTemplate.execute("ALTER TABLE " + TABLE_NAME + " RENAME CONSTRAINT " + RELOAD_TABLE_NAME + "_pkey TO " + TABLE_NAME + "_pkey");
+                jdbcTemplate.execute("ALTER TABLE " + TABLE_NAME + " RENAME CONSTRAINT " + RELOAD_TABLE_NAME + "_dep_code_dep_job_key TO " + TABLE_NAME + "_dep_code_dep_job_key");
+                jdbcTemplate.execute("ALTER SEQUENCE " + newSequence + " RENAME TO " + sequence.substring(sequence.lastIndexOf('.') + 1));
+                JobEvents.recordCommit("reload", kept + updateList.size() + insertList.size());
+            });
+            ReloadTimings timings = new ReloadTimings(marks[0] - start, marks[1] - marks[0], System.nanoTime() - marks[1]);
+
+            log.info("Transaction successful, reloaded table: {}", timings);
+
+            return timings;
+        }
+        catch(TransactionException e){
+            log.error("Transaction error.", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Refreshes the database from a stream of jobs without loading the table into the application.
+     * Within a single transaction the jobs are copied into a temporary staging table
+     * with {@code COPY FROM STDIN}, and the table is then brought in line with it by three set-based statements:
+     * deletion of the rows missing in the staging table, update of the changed descriptions
+     * and insertion of the new natural keys.
+     * If any operation within the transaction fails, the entire transaction is rolled back.
+     *
+     * @param jobs The {@link JobReader} providing the jobs of the XML file.
+     * @return The {@link RefreshCounts} of the changed rows.
+     * @throws Exception If the jobs cannot be read, duplicate natural keys are found,
+     * or a database operation fails.
+     */
+    public RefreshCounts refreshFromStaging(JobReader jobs) throws Exception {
+        log.info("Start transaction");
+
+        try{
+            RefreshCounts counts = transactionTemplate.execute(_ -> {
+                jdbcTemplate.execute("CREATE TEMP TABLE " + STAGING_TABLE_NAME +
+                        " (dep_code varchar(20) NOT NULL, dep_job varchar(100) NOT NULL, description varchar(255)) ON COMMIT DROP");
+
+                long total = jdbcTemplate.execute((ConnectionCallback<Long>) con -> copyToStaging(con.unwrap(PGConnection.class), jobs));
+                log.info("Copied {} jobs into staging table", total);
+
+                jdbcTemplate.execute("ANALYZE " + STAGING_TABLE_NAME);
+                checkStagingDuplicates();
+
+                int deleted = jdbcTemplate.update("DELETE FROM " + TABLE_NAME + " j WHERE NOT EXISTS (SELECT 1 FROM " + STAGING_TABLE_NAME +
+                        " s WHERE s.dep_code = j.dep_code AND s.dep_job = j.dep_job)");
+                int updated = jdbcTemplate.update("UPDATE " + TABLE_NAME + " j SET description = s.description FROM " + STAGING_TABLE_NAME +
+                        " s WHERE s.dep_code = j.dep_code AND s.dep_job = j.dep_job AND j.description IS DISTINCT FROM s.description");
+                int inserted = jdbcTemplate.update("INSERT INTO " + TABLE_NAME + " (dep_code, dep_job, description) SELECT dep_code, dep_job, description FROM " +
+                        STAGING_TABLE_NAME + " ON CONFLICT (dep_code, dep_job) DO NOTHING");
+                JobEvents.recordCommit("staging", inserted + updated + deleted);
+
+                return new RefreshCounts(inserted, updated, deleted, total);
+            });
+
+            log.info("Transaction successful");
+
+            return counts;
+        }
+        catch(CallbackException e){
+            throw (Exception) e.getCause();
+        }
+        catch(TransactionException e){
+            log.error("Transaction error.", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Streams the jobs into the staging table in the text format of the {@code COPY} command.
+     *
+     * @param connection The PostgreSQL connection of the current transaction.
+     * @param jobs The {@link JobReader} providing the jobs.
+     * @return The number of copied rows.
+     * @throws SQLException If the copy fails.
+     */
+    private long copyToStaging(PGConnection connection, JobReader jobs) throws SQLException {
+        return copyJobs(connection, STAGING_TABLE_NAME, jobs, false);
+    }
+
+    /**
+     * Streams the jobs into a table in the text format of the {@code COPY} command.
+     *
+     * @param connection The PostgreSQL connection of the current transaction.
+     * @param table The name of the table.
+     * @param jobs The {@link JobReader} providing the jobs.
+     * @param withId Whether the IDs of the jobs are copied; otherwise the table assigns them.
+     * @return The number of copied rows.
+     * @throws SQLException If the copy fails.
+     */
+    private long copyJobs(PGConnection connection, String table, JobReader jobs, boolean withId) throws SQLException {
+        CopyIn copyIn = connection.getCopyAPI().copyIn("COPY " + table + (withId ? " (id, " : " (") + "dep_code, dep_job, description) FROM STDIN");
+        try{
+            CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+            CharBuffer row = CharBuffer.allocate(1024); // Enough for the longest escaped row allowed by XmlParser.checkJob
+            ByteBuffer buffer = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+
+            Job job;
+            while((job = jobs.read()) != null){
+                row.clear();
+                if(withId){
+                    row.put(Integer.toString(job.getId())).put('\t');
+                }
+                appendCopyValue(row, job.getDepCode()).put('\t');
+                appendCopyValue(row, job.getDepJob()).put('\t');
+                appendCopyValue(row, job.getDescription()).put('\n');
+                row.flip();
+
+                CoderResult result;
+                while((result = encoder.encode(row, buffer, false)).isOverflow()){
+                    copyIn.writeToCopy(buffer.array(), 0, buffer.position());
+                    buffer.clear();
+                }
+                if(result.isError()){
+                    result.throwException();
+                }
+            }
+            copyIn.writeToCopy(buffer.array(), 0, buffer.position());
+
+            return copyIn.endCopy();
+        }
+        catch(SQLException | RuntimeException e){
+            cancelCopy(copyIn);
+            throw e;
+        }
+        catch(Exception e){
+            cancelCopy(copyIn);
+            throw new CallbackException(e);
+        }
+    }
+
+    /**
+     * Appends a value to the row in the text format of the {@code COPY} command,
+     * escaping the delimiters and writing {@code \N} for {@code null}.
+     *
+     * @param row The buffer of the current row.
+     * @param value The value of the column.
+     * @return The same buffer.
+     */
+    private static CharBuffer appendCopyValue(CharBuffer row, String value) {
+        if(value == null){
+            return row.put("\\N");
+        }
+        for(int i = 0; i < value.length(); i++){
+            char c = value.charAt(i);
+            switch(c){
+                case '\\' -> row.put("\\\\");
+                case '\t' -> row.put("\\t");
+                case '\n' -> row.put("\\n");
+                case '\r' -> row.put("\\r");
+                default -> row.put(c);
+            }
+        }
+        return row;
+    }
+
+    /**
+     * Cancels the copy operation after a failure, keeping the original exception.
+     *
+     * @param copyIn The copy operation in progress.
+     */
+    private static void cancelCopy(CopyIn copyIn) {
+        try{
+            if(copyIn.isActive()){
+                copyIn.cancelCopy();
+            }
+        }
+        catch(SQLException e){
+            log.warn("Failed to cancel copy", e);
+        }
+    }
+
+    /**
+     * Checks that the staging table has no duplicate natural keys.
+     *
+     * @throws CallbackException Carrying a {@link SAXException} with the same message as in {@link XmlParser},
+     * if a duplicate natural key is found.
+     */
+    private void checkStagingDuplicates() {
+        List<JobKey> duplicates = jdbcTemplate.query("SELECT dep_code, dep_job FROM " + STAGING_TABLE_NAME +
+                        " GROUP BY dep_code, dep_job HAVING count(*) > 1 LIMIT 1",
+                (rs, _) -> new JobKey(rs.getString("dep_code"), rs.getString("dep_job")));
+
+        if(!duplicates.isEmpty()){
+            JobKey key = duplicates.getFirst();
+            throw new CallbackException(new SAXException(String.format("Duplicate jobKey: depCode='%s', depJob='%s'.", key.depCode(), key.depJob())));
+        }
+    }
+
+    /**
+     * Carries a checked exception through the Spring JDBC and transaction callbacks.
+     */
+    private static class CallbackException extends RuntimeException {
+        CallbackException(Exception cause) {
+            super(cause);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,282 @@
+package ru.nikita_sotnikov;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.SAXException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Provides the jobs of a job file (XML or binary, see {@link JobFormat}) ordered by {@link JobKey#JOB_ORDER}.
+ * If the file is already sorted, it is streamed as is. Otherwise the jobs are sorted
+ * in chunks of bounded size, the sorted chunks (runs) are spilled to temporary files
+ * and merged while reading, so memory does not depend on the size of the file.
+ * <p>
+ * Duplicate natural keys are reported with the same message as in {@link XmlParser}.
+ * </p>
+ */
+public class ExternalJobSorter {
+    private static final Logger log = LoggerFactory.getLogger(ExternalJobSorter.class);
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final int chunkSize;
+    private final JobFormat format;
+
+    /**
+     * Constructs a new ExternalJobSorter that chooses the format of the files by their names.
+     *
+     * @param chunkSize The maximum number of jobs sorted in memory at once.
+     */
+    public ExternalJobSorter(int chunkSize) {
+        this(chunkSize, null);
+    }
+
+    /**
+     * Constructs a new ExternalJobSorter.
+     *
+     * @param chunkSize The maximum number of jobs sorted in memory at once.
+     * @param format The {@link JobFormat} of the files, or {@code null} to choose it by the file name.
+     */
+    public ExternalJobSorter(int chunkSize, JobFormat format) {
+        this.chunkSize = chunkSize;
+        this.format = format;
+    }
+
+    /**
+     * Opens the jobs of the specified XML file in sorted order.
+     * The whole file is validated before this method returns.
+     *
+     * @param fileName The path to the XML file.
+     * @return A {@link JobReader} returning the jobs ordered by their natural key.
+     * @throws Exception If the file cannot be read, its format is invalid,
+     * or duplicate natural keys are found.
+     */
+    public JobReader open(String fileName) throws Exception {
+        if(isSorted(fileName)){
+            log.info("File '{}' is sorted by natural key", fileName);
+            return new CheckedReader(JobFormat.of(fileName, format).openReader(fileName));
+        }
+
+        log.info("File '{}' is not sorted by natural key, sorting in chunks of {} jobs", fileName, chunkSize);
+
+        List<Path> runs = new ArrayList<>();
+        try (JobReader reader = JobFormat.of(fileName, format).openReader(fileName)) {
+            List<Job> chunk = new ArrayList<>(chunkSize);
+            Job job;
+            while((job = reader.read()) != null){
+                chunk.add(job);
+                if(chunk.size() == chunkSize){
+                    runs.add(spill(chunk));
+                    chunk.clear();
+                }
+            }
+            if(!chunk.isEmpty()){
+                runs.add(spill(chunk));
+            }
+        }
+        catch(Exception e){
+            deleteAll(runs);
+            throw e;
+        }
+
+        log.info("Spilled {} sorted runs", runs.size());
+
+        return new CheckedReader(new RunMerger(runs));
+    }
+
+    /**
+     * Reads the whole file once, validating it and checking whether the jobs are already sorted.
+     *
+     * @param fileName The path to the XML file.
+     * @return {@code true} if the jobs in the file are ordered by their natural key.
+     * @throws Exception If the file cannot be read, its format is invalid,
+     * or adjacent jobs have the same natural key.
+     */
+    private boolean isSorted(String fileName) throws Exception {
+        boolean sorted = true;
+
+        try (JobReader reader = JobFormat.of(fileName, format).openReader(fileName)) {
+            Job previous = null;
+            Job job;
+            while((job = reader.read()) != null){
+                if(previous != null){
+                    int order = JobKey.JOB_ORDER.compare(previous, job);
+                    if(order == 0){
+                        throw duplicate(job);
+                    }
+                    sorted &= order < 0;
+                }
+                previous = job;
+            }
+        }
+
+        return sorted;
+    }
+
+    /**
+     * Sorts the chunk and writes it to a new temporary file.
+     *
+     * @param chunk The jobs to be sorted and written.
+     * @return The path of the temporary file with the sorted run.
+     * @throws IOException If the file cannot be written.
+     */
+    private Path spill(List<Job> chunk) throws IOException {
+        chunk.sort(JobKey.JOB_ORDER);
+
+        Path run = Files.createTempFile("jobs-", ".run");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(run), BUFFER_SIZE))) {
+            for(Job job : chunk){
+                out.writeUTF(job.getDepCode());
+                out.writeUTF(job.getDepJob());
+                out.writeBoolean(job.getDescription() != null);
+                if(job.getDescription() != null){
+                    out.writeUTF(job.getDescription());
+                }
+            }
+        }
+        catch(IOException e){
+            Files.deleteIfExists(run);
+            throw e;
+        }
+
+        return run;
+    }
+
+    /**
+     * Creates the exception reported for a duplicate natural key.
+     *
+     * @param job The job whose key is duplicated.
+     * @return The {@link SAXException} with the same message as in {@link XmlParser}.
+     */
+    private static SAXException duplicate(Job job) {
+        return new SAXException(String.format("Duplicate jobKey: depCode='%s', depJob='%s'.", job.getDepCode(), job.getDepJob()));
+    }
+
+    /**
+     * Deletes the temporary run files, logging the files that cannot be deleted.
+     *
+     * @param runs The paths of the run files.
+     */
+    private static void deleteAll(List<Path> runs) {
+        for(Path run : runs){
+            try {
+                Files.deleteIfExists(run);
+            }
+            catch(IOException e){
+                log.warn("Failed to delete temporary file '{}'", run, e);
+            }
+        }
+    }
+
+    /**
+     * Checks the order of the jobs returned by the wrapped reader
+     * and reports duplicates that end up next to each other after sorting.
+     */
+    private static class CheckedReader implements JobReader {
+        private final JobReader reader;
+        private Job previous;
+
+        CheckedReader(JobReader reader) {
+            this.reader = reader;
+        }
+
+        @Override
+        public Job read() throws Exception {
+            Job job = reader.read();
+            if(job != null && previous != null){
+                int order = JobKey.JOB_ORDER.compare(previous, job);
+                if(order == 0){
+                    throw duplicate(job);
+                }
+                else if(order > 0){
+                    throw new IllegalStateException("Jobs are not sorted by natural key.");
+                }
+            }
+            previous = job;
+            return job;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Merges sorted runs into a single sorted stream, deleting the run files on close.
+     */
+    private static class RunMerger implements JobReader {
+        private final List<Path> runs;
+        private final List<DataInputStream> inputs = new ArrayList<>();
+        private final PriorityQueue<Head> heads = new PriorityQueue<>((a, b) -> JobKey.JOB_ORDER.compare(a.job, b.job));
+
+        /**
+         * The current job of a run and the stream it was read from.
+         */
+        private record Head(Job job, DataInputStream input) {}
+
+        RunMerger(List<Path> runs) throws IOException {
+            this.runs = runs;
+            try {
+                for(Path run : runs){
+                    DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), BUFFER_SIZE));
+                    inputs.add(input);
+                    advance(input);
+                }
+            }
+            catch(IOException e){
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public Job read() throws IOException {
+            Head head = heads.poll();
+            if(head == null){
+                return null;
+            }
+            advance(head.input);
+            return head.job;
+        }
+
+        /**
+         * Reads the next job of the run and puts it into the queue.
+         *
+         * @param input The stream of the run.
+         * @throws IOException If the run cannot be read.
+         */
+        private void advance(DataInputStream input) throws IOException {
+            Job job = new Job();
+            try {
+                job.setDepCode(input.readUTF());
+            }
+            catch(EOFException e){
+                return; // The run is exhausted
+            }
+            job.setDepJob(input.readUTF());
+            if(input.readBoolean()){
+                job.setDescription(input.readUTF());
+            }
+            heads.add(new Head(job, input));
+        }
+
+        @Override
+        public void close() throws IOException {
+            for(DataInputStream input : inputs){
+                input.close();
+            }
+            deleteAll(runs);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package ru.nikita_sotnikov;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Opens job files for reading and writing, compressing them transparently with gzip.
+ * A file is read as gzip if it starts with the gzip magic bytes, whatever its name,
+ * and written as gzip if its name ends with ".gz". The data is compressed and decompressed
+ * while it is streamed, so no temporary files are created.
+ */
+public final class FileStreams {
+    /**
+     * The compression level of written gzip files: the fastest level, which still compresses
+     * the repetitive XML of the jobs several times at a fraction of the CPU time of the default level.
+     */
+    public static final int DEFAULT_GZIP_LEVEL = Deflater.BEST_SPEED;
+
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final int GZIP_MAGIC = 0x8B1F; // The first two bytes of a gzip file, little-endian
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int COMPRESSED_BUFFER_SIZE = 256 * 1024;
+
+    private FileStreams() {
+    }
+
+    /**
+     * Opens the file for buffered reading, decompressing it if it is compressed with gzip.
+     *
+     * @param fileName The path to the file.
+     * @return The stream of the uncompressed content.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static InputStream openInput(String fileName) throws IOException {
+        InputStream in = new BufferedInputStream(Files.newInputStream(Path.of(fileName)), COMPRESSED_BUFFER_SIZE);
+        try{
+            in.mark(2);
+            int magic = readMagic(in);
+            in.reset();
+            if(magic != GZIP_MAGIC){
+                return in;
+            }
+            // GZIPInputStream inflates into the caller's array, so small reads of the parser are buffered once more
+            return new BufferedInputStream(new GZIPInputStream(in, BUFFER_SIZE), BUFFER_SIZE);
+        }
+        catch(IOException e){
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Creates (or truncates) the file and opens it for buffered writing through a {@link FileChannel},
+     * compressing the content with gzip if the file name ends with ".gz".
+     *
+     * @param fileName The path to the file.
+     * @param bufferSize The size of the buffer of the written content.
+     * @param gzipLevel The compression level from 0 to 9, used if the file is compressed.
+     * @return The stream to write the uncompressed content to.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static OutputStream openOutput(String fileName, int bufferSize, int gzipLevel) throws IOException {
+        FileChannel channel = FileChannel.open(Path.of(fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        OutputStream out = Channels.newOutputStream(channel);
+        if(!isCompressed(fileName)){
+            return new BufferedOutputStream(out, bufferSize);
+        }
+
+        try{
+            // Each write to GZIPOutputStream is a call to the native deflater, so the content is buffered before it
+            return new BufferedOutputStream(compress(out, gzipLevel), bufferSize);
+        }
+        catch(IOException e){
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Checks whether the file is written compressed with gzip, i.e. its name ends with ".gz".
+     *
+     * @param fileName The path to the file.
+     * @return {@code true} if the file is compressed.
+     */
+    public static boolean isCompressed(String fileName) {
+        return fileName.toLowerCase(Locale.ROOT).endsWith(GZIP_EXTENSION);
+    }
+
+    /**
+     * Opens a stream compressing the content with gzip into the given stream as a single gzip member.
+     * Members compressed separately can be concatenated into one file, which is read as their concatenated content.
+     *
+     * @param out The stream receiving the compressed content; it is closed together with the returned stream.
+     * @param gzipLevel The compression level from 0 to 9.
+     * @return The stream to write the uncompressed content to, unbuffered.
+     * @throws IOException If the gzip header cannot be written.
+     */
+    public static OutputStream compress(OutputStream out, int gzipLevel) throws IOException {
+        return new GZIPOutputStream(out, COMPRESSED_BUFFER_SIZE) {
+            {
+                def.setLevel(gzipLevel);
+            }
+        };
+    }
+
+    /**
+     * Reads the first two bytes of the stream as a little-endian number.
+     *
+     * @param in The stream.
+     * @return The number, or -1 if the stream is shorter than two bytes.
+     * @throws IOException If the stream cannot be read.
+     */
+    private static int readMagic(InputStream in) throws IOException {
+        int first = in.read();
+        int second = in.read();
+        return first < 0 || second < 0 ? -1 : first | (second << 8);
+    }
+}
@@ -0,0 +1,111 @@
+package ru.nikita_sotnikov;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Computes the synchronization changes against the {@link JobSnapshot} of the last successful synchronization
+ * instead of the whole table.
+ * <p>
+ * The snapshot is trusted only if the checksum of the table still matches the one recorded in it;
+ * otherwise the table was changed outside of the synchronization (or the snapshot is missing)
+ * and the changes are computed against the IDs and description hashes loaded from the table.
+ * If the snapshot is valid and the fingerprint of the file is unchanged, there is nothing to synchronize.
+ * </p>
+ */
+public class IncrementalSyncEngine {
+    private static final Logger log = LoggerFactory.getLogger(IncrementalSyncEngine.class);
+
+    private final XmlParser xmlParser;
+    private final DBOperations dbOperations;
+    private final Path snapshotPath;
+
+    /**
+     * The changes computed for a file and the state of the table expected after they are applied.
+     *
+     * @param changes The {@link SyncService.Changes} to be applied to the database.
+     * @param fileDigest The fingerprint of the XML file.
+     * @param jobs The jobs of the XML file by natural key; the jobs present in the table carry their IDs.
+     */
+    public record Plan(SyncService.Changes changes, byte[] fileDigest, JobIndex jobs) {}
+
+    /**
+     * Constructs a new IncrementalSyncEngine.
+     *
+     * @param xmlParser An instance of {@link XmlParser} to parse XML files.
+     * @param dbOperations An instance of {@link DBOperations} to interact with the database.
+     * @param snapshotPath The path of the snapshot file.
+     */
+    public IncrementalSyncEngine(XmlParser xmlParser, DBOperations dbOperations, Path snapshotPath) {
+        this.xmlParser = xmlParser;
+        this.dbOperations = dbOperations;
+        this.snapshotPath = snapshotPath;
+    }
+
+    /**
+     * Computes the jobs to be inserted, updated and deleted to make the table match the XML file.
+     *
+     * @param fileName The name of the XML file.
+     * @return The {@link Plan} with the changes, or {@code null} if the file and the table are unchanged
+     * since the last synchronization.
+     * @throws Exception If an error occurs during XML parsing or database operations,
+     * or if duplicate natural keys are found in the XML file.
+     */
+    public Plan diff(String fileName) throws Exception {
+        byte[] fileDigest = JobSnapshot.fingerprint(fileName);
+        JobSnapshot snapshot = JobSnapshot.load(snapshotPath);
+        DBOperations.TableChecksum checksum = dbOperations.getTableChecksum();
+
+        JobIndex jobsFromDB;
+        if(snapshot != null && snapshot.checksum().equals(checksum)){
+            if(Arrays.equals(snapshot.fileDigest(), fileDigest)){
+                log.info("File '{}' and the table are unchanged since the last synchronization", fileName);
+                return null;
+            }
+            jobsFromDB = snapshot.jobs();
+        }
+        else{
+            if(snapshot != null){
+                log.warn("Table was changed outside of the synchronization, the snapshot is stale");
+            }
+            log.info("Loading job hashes from database for a full synchronization");
+            jobsFromDB = dbOperations.getJobHashMap();
+        }
+
+        JobIndex jobsFromFile = xmlParser.parse(fileName);
+        SyncService.Changes changes = SyncService.diff(jobsFromFile, jobsFromDB, true);
+
+        return new Plan(changes, fileDigest, jobsFromFile);
+    }
+
+    /**
+     * Records the applied plan as the new snapshot.
+     * The snapshot is saved only if the table matches the expected state exactly,
+     * so a failed or partially applied refresh makes the next synchronization a full one.
+     *
+     * @param plan The {@link Plan} whose changes were applied to the database.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public void complete(Plan plan) throws IOException {
+        dbOperations.loadIds(plan.changes().insertList()); // IDs of the inserted rows are assigned by the database
+
+        for(Job job : plan.jobs()){
+            job.setDescriptionHash(JobHashes.hash(job.getDescription()));
+            job.setDescription(null);
+        }
+
+        DBOperations.TableChecksum expected = JobSnapshot.checksum(plan.jobs());
+        DBOperations.TableChecksum actual = dbOperations.getTableChecksum();
+        if(!expected.equals(actual)){
+            log.warn("Table does not match the synchronized file, the snapshot is discarded");
+            JobSnapshot.delete(snapshotPath);
+            return;
+        }
+
+        new JobSnapshot(plan.fileDigest(), actual, plan.jobs()).save(snapshotPath);
+    }
+}
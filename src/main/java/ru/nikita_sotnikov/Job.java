@@ -13,6 +13,7 @@ public class Job{
     private String depCode;
     private String depJob;
     private String description;
+    private byte[] descriptionHash;
 
     /**
      * Default constructor for creating a new Job instance.
@@ -91,4 +92,23 @@ public class Job{
     public void setDescription(String description) {
         this.description = description;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the MD5 hash of the description, as stored in the database.
+     * It is only loaded instead of the description when the synchronization compares hashes.
+     *
+     * @return The hash of the description, or {@code null} if the description is {@code null} or not loaded.
+     */
+    public byte[] getDescriptionHash() {
+        return descriptionHash;
+    }
+
+    /**
+     * Sets the MD5 hash of the description.
+     *
+     * @param descriptionHash The hash of the description.
+     */
+    public void setDescriptionHash(byte[] descriptionHash) {
+        this.descriptionHash = descriptionHash;
+    }
+}
@@ -0,0 +1,258 @@
+package ru.nikita_sotnikov;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/**
+ * Streaming reader of binary job files written by {@link JobBinaryWriter}.
+ * The jobs are decoded one at a time from a single buffer, and the fields are validated
+ * the same way as in {@link XmlParser}. The number of jobs and the checksum are verified
+ * when the end record is read, so a truncated or damaged file is reported as an error.
+ */
+public class JobBinaryReader implements JobReader {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_STRING_LENGTH = 64 * 1024; // Far more than the columns allow, guards against damaged lengths
+
+    private final InputStream input;
+    private final CRC32C checksum = new CRC32C();
+    private final List<String> dictionary = new ArrayList<>();
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private int limit;
+    private int checked; // The bytes of the buffer before this position are added to the checksum
+    private long count;
+    private boolean finished;
+
+    /**
+     * Constructs a new JobBinaryReader over the given stream and checks the header.
+     * The stream is closed together with the reader.
+     *
+     * @param input The stream with the binary content.
+     * @throws IOException If the stream cannot be read or does not start with the header of a supported version.
+     */
+    public JobBinaryReader(InputStream input) throws IOException {
+        this.input = input;
+        require(5);
+        if(readInt() != JobBinaryWriter.MAGIC || buffer[position++] != JobBinaryWriter.VERSION){
+            throw new IOException("Invalid binary job file: the header is not of a supported version.");
+        }
+    }
+
+    /**
+     * Opens the specified binary job file for streaming reading, decompressing it if it is compressed with gzip,
+     * see {@link FileStreams#openInput(String)}.
+     *
+     * @param fileName The path to the binary job file.
+     * @return A new {@link JobBinaryReader} positioned at the first job.
+     * @throws IOException If the file cannot be opened or its header is invalid.
+     */
+    public static JobBinaryReader open(String fileName) throws IOException {
+        InputStream in = FileStreams.openInput(fileName);
+        try {
+            return new JobBinaryReader(in);
+        }
+        catch (IOException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next job record.
+     *
+     * @return The next validated {@link Job}, or {@code null} if the end record is read.
+     * @throws Exception If the file is damaged or the job fields are invalid.
+     */
+    @Override
+    public Job read() throws Exception {
+        Job job = new Job();
+        return read(job) ? job : null;
+    }
+
+    /**
+     * Reads the next job record into the given job,
+     * so that a single {@link Job} object can be reused for all records.
+     *
+     * @param job The job whose fields are replaced with the fields of the record.
+     * @return {@code true} if a job is read; {@code false} if the end record is read.
+     * @throws Exception If the file is damaged or the job fields are invalid.
+     */
+    @Override
+    public boolean read(Job job) throws Exception {
+        if(finished){
+            return false;
+        }
+
+        byte tag = readByte();
+        if(tag == JobBinaryWriter.END){
+            finish();
+            return false;
+        }
+        if(tag != JobBinaryWriter.JOB){
+            throw new IOException("Invalid binary job file: unknown record " + tag + " after " + count + " jobs.");
+        }
+
+        int code = readVarInt();
+        String depCode;
+        if(code == dictionary.size()){
+            depCode = readString(readVarInt());
+            dictionary.add(depCode);
+        }
+        else if(code < dictionary.size()){
+            depCode = dictionary.get(code);
+        }
+        else{
+            throw new IOException("Invalid binary job file: unknown department code " + code + " after " + count + " jobs.");
+        }
+
+        job.setId(0);
+        job.setDepCode(depCode);
+        job.setDepJob(readString(readVarInt()));
+        int descriptionLength = readVarInt();
+        job.setDescription(descriptionLength == 0 ? null : readString(descriptionLength - 1));
+        job.setDescriptionHash(null);
+        XmlParser.checkJob(job); // Validate job fields based on database column constraints
+
+        count++;
+        return true;
+    }
+
+    /**
+     * Closes the underlying stream.
+     *
+     * @throws IOException If the stream cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        input.close();
+    }
+
+    /**
+     * Reads the end record and the checksum and checks that nothing follows them.
+     *
+     * @throws IOException If the number of jobs or the checksum does not match, or there is data after the end record.
+     */
+    private void finish() throws IOException {
+        long expectedCount = readVarLong();
+        if(expectedCount != count){
+            throw new IOException("Invalid binary job file: " + count + " jobs read, but " + expectedCount + " written.");
+        }
+
+        checksum.update(buffer, checked, position - checked);
+        checked = position;
+        require(4);
+        if(readInt() != (int) checksum.getValue()){
+            throw new IOException("Invalid binary job file: checksum mismatch.");
+        }
+        if(position < limit || input.read() >= 0){
+            throw new IOException("Invalid binary job file: data after the end record.");
+        }
+        finished = true;
+    }
+
+    /**
+     * Makes sure that the buffer holds at least the given number of unread bytes,
+     * adding the read bytes to the checksum and reading more from the stream if needed.
+     *
+     * @param length The number of bytes.
+     * @throws IOException If the stream ends before the bytes, or cannot be read.
+     */
+    private void require(int length) throws IOException {
+        if(limit - position >= length){
+            return;
+        }
+
+        checksum.update(buffer, checked, position - checked);
+        System.arraycopy(buffer, position, buffer, 0, limit - position);
+        limit -= position;
+        position = 0;
+        checked = 0;
+
+        while(limit < length){
+            int read = input.read(buffer, limit, buffer.length - limit);
+            if(read < 0){
+                throw new EOFException("Invalid binary job file: unexpected end of file after " + count + " jobs.");
+            }
+            limit += read;
+        }
+    }
+
+    /**
+     * Decodes a UTF-8 string of the given length.
+     *
+     * @param length The length of the string in bytes.
+     * @return The string.
+     * @throws IOException If the length is invalid or the stream ends before the string.
+     */
+    private String readString(int length) throws IOException {
+        if(length > MAX_STRING_LENGTH){
+            throw new IOException("Invalid binary job file: string of " + length + " bytes after " + count + " jobs.");
+        }
+        require(length);
+        String value = new String(buffer, position, length, StandardCharsets.UTF_8);
+        position += length;
+        return value;
+    }
+
+    /**
+     * Reads a single byte.
+     *
+     * @return The byte.
+     * @throws IOException If the stream ends.
+     */
+    private byte readByte() throws IOException {
+        if(position == limit){
+            require(1);
+        }
+        return buffer[position++];
+    }
+
+    /**
+     * Decodes an unsigned LEB128 varint that fits into an int.
+     *
+     * @return The value.
+     * @throws IOException If the varint is too long or the stream ends.
+     */
+    private int readVarInt() throws IOException {
+        long value = readVarLong();
+        if(value > Integer.MAX_VALUE){
+            throw new IOException("Invalid binary job file: number out of range after " + count + " jobs.");
+        }
+        return (int) value;
+    }
+
+    /**
+     * Decodes an unsigned LEB128 varint.
+     *
+     * @return The value.
+     * @throws IOException If the varint is too long or the stream ends.
+     */
+    private long readVarLong() throws IOException {
+        long value = 0;
+        for(int shift = 0; shift < Long.SIZE; shift += 7){
+            byte b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if(b >= 0){
+                return value;
+            }
+        }
+        throw new IOException("Invalid binary job file: malformed number after " + count + " jobs.");
+    }
+
+    /**
+     * Decodes a big-endian int; the bytes must be in the buffer.
+     *
+     * @return The value.
+     */
+    private int readInt() {
+        int value = (buffer[position] & 0xFF) << 24 | (buffer[position + 1] & 0xFF) << 16
+                | (buffer[position + 2] & 0xFF) << 8 | buffer[position + 3] & 0xFF;
+        position += 4;
+        return value;
+    }
+}
@@ -0,0 +1,202 @@
+package ru.nikita_sotnikov;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32C;
+
+/**
+ * Streaming writer of binary job files, a compact alternative to XML for transfers between systems.
+ * <p>
+ * The file starts with a header of the magic number "JOBB" and the format version, followed by a record per job
+ * and an end record. A job record is the {@link #JOB} tag, the code of the department in the dictionary,
+ * the department job and the description. The dictionary is built while writing: a department code
+ * is written in full the first time it occurs, with the next free code, and by its code afterwards.
+ * The end record is the {@link #END} tag and the number of jobs, followed by the CRC32C checksum
+ * of all preceding bytes as a big-endian int. Integers are unsigned LEB128 varints, strings are UTF-8 prefixed
+ * by their length in bytes; the length of the description is written plus one, so that 0 marks a missing description.
+ * </p>
+ * Jobs are encoded into a single buffer written to the stream when it is full, so the memory used
+ * does not depend on the number of jobs.
+ */
+public class JobBinaryWriter implements JobWriter {
+    static final int MAGIC = 0x4A4F4242; // "JOBB"
+    static final int VERSION = 1;
+    static final byte JOB = 1;
+    static final byte END = 0;
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final int MAX_VARINT_LENGTH = 5;
+
+    private final OutputStream output;
+    private final CRC32C checksum = new CRC32C();
+    private final Map<String, Integer> dictionary = new HashMap<>();
+    private byte[] buffer = new byte[BUFFER_SIZE];
+    private int position;
+    private long count;
+
+    /**
+     * Constructs a new JobBinaryWriter over the given stream and writes the header.
+     * The stream is closed together with the writer.
+     *
+     * @param output The stream to write the binary content to.
+     */
+    public JobBinaryWriter(OutputStream output) {
+        this.output = output;
+        writeInt(MAGIC);
+        buffer[position++] = VERSION;
+    }
+
+    /**
+     * Creates (or truncates) the specified file and opens it for streaming writing,
+     * compressing it with gzip if the file is named "*.gz", see {@link FileStreams#openOutput(String, int, int)}.
+     *
+     * @param fileName The path to the binary job file.
+     * @param gzipLevel The gzip compression level from 0 to 9, used if the file is compressed.
+     * @return A new {@link JobBinaryWriter} writing to the file.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static JobBinaryWriter create(String fileName, int gzipLevel) throws IOException {
+        return new JobBinaryWriter(FileStreams.openOutput(fileName, BUFFER_SIZE, gzipLevel));
+    }
+
+    /**
+     * Writes a single job as a job record.
+     *
+     * @param job The {@link Job} to be written.
+     * @throws IOException If the buffer cannot be written to the stream.
+     */
+    @Override
+    public void write(Job job) throws IOException {
+        Integer code = dictionary.get(job.getDepCode());
+        byte[] depCode = code == null ? job.getDepCode().getBytes(StandardCharsets.UTF_8) : null;
+        byte[] depJob = job.getDepJob().getBytes(StandardCharsets.UTF_8);
+        byte[] description = job.getDescription() == null ? null : job.getDescription().getBytes(StandardCharsets.UTF_8);
+
+        reserve(1 + 4 * MAX_VARINT_LENGTH + (depCode == null ? 0 : depCode.length) + depJob.length
+                + (description == null ? 0 : description.length));
+
+        buffer[position++] = JOB;
+        if(code == null){
+            writeVarInt(dictionary.size()); // The next free code, the department code follows
+            writeBytes(depCode);
+            dictionary.put(job.getDepCode(), dictionary.size());
+        }
+        else{
+            writeVarInt(code);
+        }
+        writeBytes(depJob);
+        if(description == null){
+            writeVarInt(0);
+        }
+        else{
+            writeVarInt(description.length + 1);
+            System.arraycopy(description, 0, buffer, position, description.length);
+            position += description.length;
+        }
+
+        count++;
+    }
+
+    /**
+     * Returns the number of jobs written so far.
+     *
+     * @return The number of written jobs.
+     */
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Writes the end record and the checksum, flushes the written content and closes the underlying stream.
+     *
+     * @throws IOException If the content cannot be written or the stream cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try (output) {
+            reserve(1 + 2 * MAX_VARINT_LENGTH);
+            buffer[position++] = END;
+            writeVarLong(count);
+            flushBuffer();
+
+            writeInt((int) checksum.getValue()); // Not covered by the checksum
+            output.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    /**
+     * Makes room for the given number of bytes in the buffer, writing the buffer to the stream if needed.
+     *
+     * @param length The number of bytes to be encoded.
+     * @throws IOException If the buffer cannot be written.
+     */
+    private void reserve(int length) throws IOException {
+        if(buffer.length - position >= length){
+            return;
+        }
+        flushBuffer();
+        if(buffer.length < length){
+            buffer = new byte[length];
+        }
+    }
+
+    /**
+     * Adds the buffer to the checksum and writes it to the stream.
+     *
+     * @throws IOException If the buffer cannot be written.
+     */
+    private void flushBuffer() throws IOException {
+        checksum.update(buffer, 0, position);
+        output.write(buffer, 0, position);
+        position = 0;
+    }
+
+    /**
+     * Encodes the bytes of a string prefixed by their length.
+     *
+     * @param bytes The UTF-8 bytes of the string.
+     */
+    private void writeBytes(byte[] bytes) {
+        writeVarInt(bytes.length);
+        System.arraycopy(bytes, 0, buffer, position, bytes.length);
+        position += bytes.length;
+    }
+
+    /**
+     * Encodes a non-negative int as an unsigned LEB128 varint.
+     *
+     * @param value The value.
+     */
+    private void writeVarInt(int value) {
+        writeVarLong(value);
+    }
+
+    /**
+     * Encodes a non-negative long as an unsigned LEB128 varint.
+     *
+     * @param value The value.
+     */
+    private void writeVarLong(long value) {
+        while((value & ~0x7FL) != 0){
+            buffer[position++] = (byte) ((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * Encodes an int in big-endian order.
+     *
+     * @param value The value.
+     */
+    private void writeInt(int value) {
+        buffer[position++] = (byte) (value >>> 24);
+        buffer[position++] = (byte) (value >>> 16);
+        buffer[position++] = (byte) (value >>> 8);
+        buffer[position++] = (byte) value;
+    }
+}
@@ -0,0 +1,313 @@
+package ru.nikita_sotnikov;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Java Flight Recorder events of the synchronization and save phases.
+ * The events are recorded only while a recording is running (see the "--jfr" option of {@link Main}),
+ * otherwise creating and committing them costs next to nothing.
+ * <p>
+ * Byte sizes of jobs are estimated from the length of their text fields,
+ * so the events do not encode the strings only to measure them.
+ * </p>
+ */
+public final class JobEvents {
+    private static final String CATEGORY = "Job Statistic";
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private JobEvents() {}
+
+    /**
+     * Parsing of a whole XML file.
+     */
+    @Name("ru.nikita_sotnikov.ParseFile")
+    @Label("Parse File")
+    @Category({CATEGORY, "Parse"})
+    public static class ParseFileEvent extends Event {
+        @Label("File")
+        String fileName;
+
+        @Label("Engine")
+        String engine;
+
+        @Label("File Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Jobs")
+        long rows;
+    }
+
+    /**
+     * Parsing of a segment of an XML file by {@link ParallelJobParser}.
+     */
+    @Name("ru.nikita_sotnikov.ParseSegment")
+    @Label("Parse Segment")
+    @Category({CATEGORY, "Parse"})
+    @StackTrace(false)
+    public static class ParseSegmentEvent extends Event {
+        @Label("Segment Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Jobs")
+        long rows;
+
+        @Label("Failed")
+        @Description("The segment is not well-formed on its own and is parsed again sequentially")
+        boolean failed;
+    }
+
+    /**
+     * Loading of the jobs of the table or of the snapshot file.
+     */
+    @Name("ru.nikita_sotnikov.LoadJobs")
+    @Label("Load Jobs")
+    @Category({CATEGORY, "Database"})
+    public static class LoadEvent extends Event {
+        @Label("Source")
+        @Description("The query or the file the jobs are loaded from")
+        String source;
+
+        @Label("Jobs")
+        long rows;
+
+        @Label("Estimated Size")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * Comparison of the jobs of the file with the jobs of the table.
+     * The merge engine reads both sides while comparing them, so its event includes the reading.
+     */
+    @Name("ru.nikita_sotnikov.Diff")
+    @Label("Diff")
+    @Category({CATEGORY, "Sync"})
+    public static class DiffEvent extends Event {
+        @Label("Engine")
+        String engine;
+
+        @Label("Jobs In File")
+        long rows;
+
+        @Label("Inserted")
+        long inserted;
+
+        @Label("Updated")
+        long updated;
+
+        @Label("Deleted")
+        long deleted;
+    }
+
+    /**
+     * A JDBC batch sent by {@link DBOperations}.
+     */
+    @Name("ru.nikita_sotnikov.JdbcBatch")
+    @Label("JDBC Batch")
+    @Category({CATEGORY, "Database"})
+    @StackTrace(false)
+    public static class BatchEvent extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Estimated Size")
+        @DataAmount
+        long bytes;
+    }
+
+    /**
+     * Completion of a transaction changing the table, from the start of the commit (or rollback) to its end.
+     */
+    @Name("ru.nikita_sotnikov.Commit")
+    @Label("Commit")
+    @Category({CATEGORY, "Database"})
+    @StackTrace(false)
+    public static class CommitEvent extends Event {
+        @Label("Transaction")
+        String transaction;
+
+        @Label("Rows")
+        long rows;
+
+        @Label("Committed")
+        boolean committed;
+    }
+
+    /**
+     * Writing of the jobs of the table into an XML file.
+     */
+    @Name("ru.nikita_sotnikov.SaveFile")
+    @Label("Save File")
+    @Category({CATEGORY, "Save"})
+    public static class SaveFileEvent extends Event {
+        @Label("File")
+        String fileName;
+
+        @Label("Engine")
+        String engine;
+
+        @Label("File Size")
+        @DataAmount
+        long bytes;
+
+        @Label("Jobs")
+        long rows;
+    }
+
+    /**
+     * Records a {@link CommitEvent} for the completion of the current transaction.
+     * Must be called within a transaction managed by Spring.
+     *
+     * @param transaction The name of the transaction.
+     * @param rows The number of rows changed by the transaction.
+     */
+    public static void recordCommit(String transaction, long rows) {
+        CommitEvent event = new CommitEvent();
+        if(!event.isEnabled() || !TransactionSynchronizationManager.isSynchronizationActive()){
+            return;
+        }
+
+        TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+            @Override
+            public void beforeCompletion() {
+                event.begin();
+            }
+
+            @Override
+            public void afterCompletion(int status) {
+                event.end();
+                if(event.shouldCommit()){
+                    event.transaction = transaction;
+                    event.rows = rows;
+                    event.committed = status == STATUS_COMMITTED;
+                    event.commit();
+                }
+            }
+        });
+    }
+
+    /**
+     * Estimates the size of a job: the characters of its text fields, the ID and the description hash.
+     *
+     * @param job The job.
+     * @return The estimated size in bytes.
+     */
+    public static long estimateBytes(Job job) {
+        long bytes = Integer.BYTES + length(job.getDepCode()) + length(job.getDepJob()) + length(job.getDescription());
+        return job.getDescriptionHash() == null ? bytes : bytes + job.getDescriptionHash().length;
+    }
+
+    /**
+     * Estimates the total size of the jobs.
+     *
+     * @param jobs The jobs.
+     * @return The estimated size in bytes.
+     */
+    public static long estimateBytes(Iterable<Job> jobs) {
+        long bytes = 0;
+        for(Job job : jobs){
+            bytes += estimateBytes(job);
+        }
+        return bytes;
+    }
+
+    /**
+     * Commits the ended batch event if it is recorded.
+     * The size of the batch is computed only in that case.
+     *
+     * @param event The ended {@link BatchEvent}.
+     * @param operation The name of the operation.
+     * @param rows The number of rows in the batch.
+     * @param bytes The supplier of the estimated size of the batch.
+     */
+    public static void commitBatch(BatchEvent event, String operation, long rows, LongSupplier bytes) {
+        if(event.shouldCommit()){
+            event.operation = operation;
+            event.rows = rows;
+            event.bytes = bytes.getAsLong();
+            event.commit();
+        }
+    }
+
+    /**
+     * Commits the ended load event if it is recorded.
+     * The size of the loaded jobs is computed only in that case.
+     *
+     * @param event The ended {@link LoadEvent}.
+     * @param source The query or the file the jobs are loaded from.
+     * @param rows The number of loaded jobs.
+     * @param bytes The supplier of the estimated size of the jobs.
+     */
+    public static void commitLoad(LoadEvent event, String source, long rows, LongSupplier bytes) {
+        if(event.shouldCommit()){
+            event.source = source;
+            event.rows = rows;
+            event.bytes = bytes.getAsLong();
+            event.commit();
+        }
+    }
+
+    /**
+     * Commits the ended diff event if it is recorded.
+     *
+     * @param event The ended {@link DiffEvent}.
+     * @param engine The name of the engine computing the changes.
+     * @param changes The computed {@link SyncService.Changes}.
+     */
+    public static void commitDiff(DiffEvent event, String engine, SyncService.Changes changes) {
+        if(event.shouldCommit()){
+            event.engine = engine;
+            event.rows = changes.total();
+            event.inserted = changes.insertList().size();
+            event.updated = changes.updateList().size();
+            event.deleted = changes.deleteList().size();
+            event.commit();
+        }
+    }
+
+    /**
+     * Commits the ended save event if it is recorded.
+     *
+     * @param event The ended {@link SaveFileEvent}.
+     * @param fileName The name of the saved file.
+     * @param engine The name of the engine writing the file.
+     * @param rows The number of saved jobs.
+     * @param bytes The size of the saved file.
+     */
+    public static void commitSave(SaveFileEvent event, String fileName, String engine, long rows, long bytes) {
+        if(event.shouldCommit()){
+            event.fileName = fileName;
+            event.engine = engine;
+            event.rows = rows;
+            event.bytes = bytes;
+            event.commit();
+        }
+    }
+
+    /**
+     * Returns the length of a possibly missing field.
+     *
+     * @param value The value of the field.
+     * @return The number of characters, or 0 if the value is {@code null}.
+     */
+    private static int length(String value) {
+        return value == null ? 0 : value.length();
+    }
+}
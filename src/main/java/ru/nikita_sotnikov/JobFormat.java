@@ -0,0 +1,66 @@
+package ru.nikita_sotnikov;
+
+import java.util.Locale;
+
+/**
+ * Formats of the job files read by the "sync" command and written by the "save" command.
+ * The format of a file is chosen by its name, unless it is set explicitly
+ * with the "--format" option or the "file.format" property; gzip compression is independent
+ * of the format, see {@link FileStreams}.
+ */
+public enum JobFormat {
+    /**
+     * The XML format with a "jobs" root element and "job" elements.
+     */
+    XML,
+    /**
+     * The compact binary format of {@link JobBinaryWriter}, for files named "*.jbin" or "*.jbin.gz".
+     */
+    BINARY;
+
+    private static final String BINARY_EXTENSION = ".jbin";
+    private static final String GZIP_EXTENSION = ".gz";
+
+    /**
+     * Returns the format of the file: the explicit format if it is set, otherwise the format given by the file name.
+     *
+     * @param fileName The path to the file.
+     * @param format The explicit format, or {@code null} to choose the format by the file name.
+     * @return The {@link JobFormat} of the file.
+     */
+    public static JobFormat of(String fileName, JobFormat format) {
+        if(format != null){
+            return format;
+        }
+
+        String name = fileName.toLowerCase(Locale.ROOT);
+        if(name.endsWith(GZIP_EXTENSION)){
+            name = name.substring(0, name.length() - GZIP_EXTENSION.length());
+        }
+        return name.endsWith(BINARY_EXTENSION) ? BINARY : XML;
+    }
+
+    /**
+     * Opens the file in this format for streaming reading.
+     *
+     * @param fileName The path to the file.
+     * @return A {@link JobReader} positioned at the first job of the file.
+     * @throws Exception If the file cannot be opened or its header is invalid.
+     */
+    public JobReader openReader(String fileName) throws Exception {
+        return this == BINARY ? JobBinaryReader.open(fileName) : JobXmlReader.open(fileName);
+    }
+
+    /**
+     * Creates (or truncates) the file and opens it for streaming writing in this format.
+     *
+     * @param fileName The path to the file.
+     * @param indent Whether XML elements are written on separate indented lines.
+     * @param gzipLevel The gzip compression level of files named "*.gz".
+     * @return A {@link JobWriter} writing to the file.
+     * @throws Exception If the file cannot be opened.
+     */
+    public JobWriter createWriter(String fileName, boolean indent, int gzipLevel) throws Exception {
+        return this == BINARY ? JobBinaryWriter.create(fileName, gzipLevel) : JobXmlWriter.create(fileName, indent, gzipLevel);
+    }
+}
@@ -0,0 +1,138 @@
+package ru.nikita_sotnikov;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * Generates synthetic jobs for the benchmarks.
+ * The department codes have a skewed distribution: a few departments hold most of the jobs,
+ * while the number of distinct codes grows with the number of jobs. Descriptions are long
+ * (up to the 255 characters allowed by the table), mix Cyrillic and Latin words, and some are missing.
+ * The same seed always produces the same jobs.
+ */
+public final class JobGenerator {
+    private static final String[] WORDS = {
+            "Разработка", "и", "поддержка", "программного", "обеспечения", "подбор", "персонала",
+            "ведение", "бухгалтерского", "учета", "отчетности", "маркетинговых", "стратегий", "продажа",
+            "продуктов", "услуг", "компании", "infrastructure", "support", "analysis", "delivery", "planning"
+    };
+    private static final int MAX_DESCRIPTION_LENGTH = 255;
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private JobGenerator() {}
+
+    /**
+     * Generates jobs with unique natural keys.
+     *
+     * @param rows The number of jobs.
+     * @param seed The seed of the random generator.
+     * @return The generated jobs, without IDs.
+     */
+    public static List<Job> generate(int rows, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int departments = Math.max(10, rows / 1000);
+
+        List<Job> jobs = new ArrayList<>(rows);
+        for(int i = 0; i < rows; i++){
+            Job job = new Job();
+            job.setDepCode(departmentCode(random, departments));
+            job.setDepJob("Job " + i);
+            job.setDescription(description(random));
+            jobs.add(job);
+        }
+        return jobs;
+    }
+
+    /**
+     * Creates a changed copy of the jobs: about a third of the changed share is updated,
+     * a third is deleted and the same number of new jobs is added.
+     * The jobs of the copy are new objects, the original jobs are not modified.
+     *
+     * @param jobs The original jobs.
+     * @param changeRatio The share of the jobs to be changed, from 0 to 1.
+     * @param seed The seed of the random generator.
+     * @return The changed copy of the jobs.
+     */
+    public static List<Job> change(List<Job> jobs, double changeRatio, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        int departments = Math.max(10, jobs.size() / 1000);
+
+        List<Job> changed = new ArrayList<>(jobs.size());
+        int added = 0;
+        for(Job job : jobs){
+            double dice = random.nextDouble();
+            if(dice < changeRatio / 3){
+                added++;
+                continue; // Deleted
+            }
+
+            Job copy = new Job();
+            copy.setDepCode(job.getDepCode());
+            copy.setDepJob(job.getDepJob());
+            copy.setDescription(dice < changeRatio * 2 / 3 ? description(random) : job.getDescription());
+            changed.add(copy);
+        }
+        for(int i = 0; i < added; i++){
+            Job job = new Job();
+            job.setDepCode(departmentCode(random, departments));
+            job.setDepJob("New job " + i);
+            job.setDescription(description(random));
+            changed.add(job);
+        }
+        return changed;
+    }
+
+    /**
+     * Writes the jobs into an indented XML file, the same way as the "save" command does.
+     *
+     * @param jobs The jobs to be written.
+     * @param file The path of the file.
+     * @throws Exception If the file cannot be written.
+     */
+    public static void writeXml(List<Job> jobs, Path file) throws Exception {
+        try (JobXmlWriter writer = JobXmlWriter.create(file.toString(), true)) {
+            for(Job job : jobs){
+                writer.write(job);
+            }
+        }
+    }
+
+    /**
+     * Picks a department code, cubing a uniform value so that low department numbers are much more frequent.
+     *
+     * @param random The random generator.
+     * @param departments The number of distinct department codes.
+     * @return The department code.
+     */
+    private static String departmentCode(SplittableRandom random, int departments) {
+        double uniform = random.nextDouble();
+        return "DEP" + (int) (uniform * uniform * uniform * departments);
+    }
+
+    /**
+     * Generates a description of 100 to 255 characters, or {@code null} for about 1% of the jobs.
+     *
+     * @param random The random generator.
+     * @return The description.
+     */
+    private static String description(SplittableRandom random) {
+        if(random.nextInt(100) == 0){
+            return null;
+        }
+
+        int length = random.nextInt(100, MAX_DESCRIPTION_LENGTH + 1);
+        StringBuilder description = new StringBuilder(length + 20);
+        while(description.length() < length){
+            if(!description.isEmpty()){
+                description.append(' ');
+            }
+            description.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        description.setLength(length);
+        return description.toString().strip();
+    }
+}
@@ -0,0 +1,94 @@
+package ru.nikita_sotnikov;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Objects;
+
+/**
+ * Utility methods for the hashes of job descriptions.
+ * The hash is the MD5 of the UTF-8 bytes of the description, the same value as the
+ * {@code description_hash} column computes with {@code decode(md5(description), 'hex')}.
+ */
+public final class JobHashes {
+    private static final ThreadLocal<MessageDigest> MD5 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("MD5");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("MD5 is not supported", e);
+        }
+    });
+
+    /**
+     * Private constructor to prevent instantiation.
+     */
+    private JobHashes() {}
+
+    /**
+     * Computes the hash of a description.
+     *
+     * @param description The description of a job.
+     * @return The MD5 hash of the description, or {@code null} if the description is {@code null}.
+     */
+    public static byte[] hash(String description) {
+        return description == null ? null : MD5.get().digest(description.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Computes the hash of a description given by its UTF-8 bytes.
+     *
+     * @param utf8 The array with the UTF-8 bytes of the description.
+     * @param offset The offset of the description in the array.
+     * @param length The number of bytes of the description.
+     * @return The MD5 hash of the description.
+     */
+    public static byte[] hash(byte[] utf8, int offset, int length) {
+        MessageDigest md5 = MD5.get();
+        md5.update(utf8, offset, length);
+        return md5.digest();
+    }
+
+    /**
+     * Computes the hash of a table row, the same value as {@link DBOperations#getTableChecksum()}
+     * sums up on the database side: the first 8 bytes of the MD5 of
+     * {@code id|dep_code|dep_job|md5(description)} as a signed number.
+     *
+     * @param job The job with the ID and the description hash.
+     * @return The hash of the row.
+     */
+    public static long rowHash(Job job) {
+        String row = job.getId() + "|" + job.getDepCode() + "|" + job.getDepJob() + "|"
+                + (job.getDescriptionHash() == null ? "" : HexFormat.of().formatHex(job.getDescriptionHash()));
+        return ByteBuffer.wrap(MD5.get().digest(row.getBytes(StandardCharsets.UTF_8))).getLong();
+    }
+
+    /**
+     * Returns the description hash of a job loaded from the database, whether it was loaded
+     * with the description or with its hash.
+     *
+     * @param jobFromDB The job loaded from the database.
+     * @return The MD5 hash of the description, or {@code null} if there is no description.
+     */
+    public static byte[] descriptionHash(Job jobFromDB) {
+        return jobFromDB.getDescriptionHash() != null ? jobFromDB.getDescriptionHash() : hash(jobFromDB.getDescription());
+    }
+
+    /**
+     * Checks whether a job from the XML file has the same description as the job from the database.
+     *
+     * @param jobFromFile The job parsed from the XML file.
+     * @param jobFromDB The job loaded from the database.
+     * @param hashed Whether the job from the database was loaded with the description hash instead of the description.
+     * @return {@code true} if the descriptions are equal.
+     */
+    public static boolean sameDescription(Job jobFromFile, Job jobFromDB, boolean hashed) {
+        if(hashed){
+            return Arrays.equals(hash(jobFromFile.getDescription()), jobFromDB.getDescriptionHash());
+        }
+        return Objects.equals(jobFromFile.getDescription(), jobFromDB.getDescription());
+    }
+}
@@ -0,0 +1,287 @@
+package ru.nikita_sotnikov;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Index of {@link Job} objects by their natural key (depCode, depJob), used instead of a {@code HashMap<JobKey, Job>}.
+ * <p>
+ * The entries are kept in parallel primitive arrays in the order they are added, and an open-addressing table
+ * with linear probing maps the keys to the entries, so no key or node object is allocated per job.
+ * The department codes, which repeat across many jobs, are interned into small int codes:
+ * every job added to the index refers to the single instance of its department code string.
+ * The hash of every entry is cached, so the table is grown without touching the jobs.
+ * </p>
+ * The index does not support removal and is not thread-safe.
+ */
+public class JobIndex implements Iterable<Job> {
+    private static final int MIN_CAPACITY = 16;
+    private static final int NOT_FOUND = -1;
+
+    private final Map<String, Integer> depCodes = new HashMap<>();
+    private final List<String> depCodeValues = new ArrayList<>();
+    private String lastDepCode;
+    private int lastCode = NOT_FOUND;
+
+    private int[] slots; // The entry of every slot plus one, 0 for an empty slot; at most half of the slots are used
+    private int[] hashes;
+    private int[] codes;
+    private int[] ids;
+    private Job[] jobs;
+    private int size;
+
+    /**
+     * Constructs a new empty JobIndex.
+     */
+    public JobIndex() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Constructs a new empty JobIndex sized for the expected number of jobs.
+     *
+     * @param expectedSize The expected number of jobs.
+     */
+    public JobIndex(int expectedSize) {
+        int capacity = Math.max(MIN_CAPACITY, expectedSize);
+        slots = new int[tableSize(capacity)];
+        hashes = new int[capacity];
+        codes = new int[capacity];
+        ids = new int[capacity];
+        jobs = new Job[capacity];
+    }
+
+    /**
+     * Adds the job to the index, unless a job with the same natural key is already present.
+     * The department code of the added job is replaced by the interned instance of the same string.
+     *
+     * @param job The job with non-null department code and job.
+     * @return {@code true} if the job is added; {@code false} if its natural key is already present.
+     */
+    public boolean add(Job job) {
+        int code = intern(job.getDepCode());
+        int hash = hash(code, job.getDepJob());
+
+        int mask = slots.length - 1;
+        int slot = hash & mask;
+        for(int entry; (entry = slots[slot] - 1) != NOT_FOUND; slot = (slot + 1) & mask){
+            if(hashes[entry] == hash && codes[entry] == code && jobs[entry].getDepJob().equals(job.getDepJob())){
+                return false;
+            }
+        }
+
+        if(size == jobs.length){
+            grow();
+            slot = hash & (slots.length - 1);
+            while(slots[slot] != 0){
+                slot = (slot + 1) & (slots.length - 1);
+            }
+        }
+
+        job.setDepCode(depCodeValues.get(code));
+        hashes[size] = hash;
+        codes[size] = code;
+        ids[size] = job.getId();
+        jobs[size] = job;
+        slots[slot] = ++size;
+        return true;
+    }
+
+    /**
+     * Finds the entry of the job with the given natural key.
+     *
+     * @param depCode The department code.
+     * @param depJob The department job.
+     * @return The entry of the job, from 0 to {@link #size()} - 1, or -1 if no job has this natural key.
+     */
+    public int find(String depCode, String depJob) {
+        int code = lookup(depCode);
+        if(code == NOT_FOUND){
+            return NOT_FOUND;
+        }
+
+        int hash = hash(code, depJob);
+        int mask = slots.length - 1;
+        for(int slot = hash & mask, entry; (entry = slots[slot] - 1) != NOT_FOUND; slot = (slot + 1) & mask){
+            if(hashes[entry] == hash && codes[entry] == code && jobs[entry].getDepJob().equals(depJob)){
+                return entry;
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Returns the job with the given natural key.
+     *
+     * @param depCode The department code.
+     * @param depJob The department job.
+     * @return The job, or {@code null} if no job has this natural key.
+     */
+    public Job get(String depCode, String depJob) {
+        int entry = find(depCode, depJob);
+        return entry == NOT_FOUND ? null : jobs[entry];
+    }
+
+    /**
+     * Returns the job of the entry.
+     *
+     * @param entry The entry, from 0 to {@link #size()} - 1, in the order the jobs were added.
+     * @return The job.
+     */
+    public Job job(int entry) {
+        return jobs[entry];
+    }
+
+    /**
+     * Returns the ID the job of the entry had when it was added.
+     * The ID is read from a primitive array, without touching the job.
+     *
+     * @param entry The entry, from 0 to {@link #size()} - 1, in the order the jobs were added.
+     * @return The ID of the job.
+     */
+    public int id(int entry) {
+        return ids[entry];
+    }
+
+    /**
+     * Returns the number of jobs in the index.
+     *
+     * @return The number of jobs.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Returns the number of distinct department codes in the index.
+     *
+     * @return The number of department codes.
+     */
+    public int depCodeCount() {
+        return depCodeValues.size();
+    }
+
+    /**
+     * Returns the distinct department codes in the index, in the order they were first added.
+     *
+     * @return An unmodifiable list of the department codes.
+     */
+    public List<String> depCodes() {
+        return Collections.unmodifiableList(depCodeValues);
+    }
+
+    /**
+     * Returns an iterator over the jobs in the order they were added.
+     *
+     * @return An iterator over the jobs.
+     */
+    @Override
+    public Iterator<Job> iterator() {
+        return new Iterator<>() {
+            private int entry;
+
+            @Override
+            public boolean hasNext() {
+                return entry < size;
+            }
+
+            @Override
+            public Job next() {
+                if(entry >= size){
+                    throw new NoSuchElementException();
+                }
+                return jobs[entry++];
+            }
+        };
+    }
+
+    /**
+     * Returns the code of the department code, adding it to the dictionary if needed.
+     *
+     * @param depCode The department code.
+     * @return The code of the department code.
+     */
+    private int intern(String depCode) {
+        int code = lookup(depCode);
+        if(code == NOT_FOUND){
+            code = depCodeValues.size();
+            depCodes.put(depCode, code);
+            depCodeValues.add(depCode);
+            lastDepCode = depCode;
+            lastCode = code;
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code of the department code.
+     * Jobs usually come grouped by department, so the last found code is checked first.
+     *
+     * @param depCode The department code.
+     * @return The code of the department code, or -1 if it is not in the dictionary.
+     */
+    private int lookup(String depCode) {
+        if(depCode == lastDepCode){
+            return lastCode;
+        }
+
+        Integer code = depCodes.get(depCode);
+        if(code == null){
+            return NOT_FOUND;
+        }
+
+        lastDepCode = depCode;
+        lastCode = code;
+        return code;
+    }
+
+    /**
+     * Doubles the capacity of the entries and rebuilds the table from the cached hashes.
+     */
+    private void grow() {
+        int capacity = jobs.length * 2;
+        hashes = Arrays.copyOf(hashes, capacity);
+        codes = Arrays.copyOf(codes, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        jobs = Arrays.copyOf(jobs, capacity);
+
+        slots = new int[tableSize(capacity)];
+        int mask = slots.length - 1;
+        for(int entry = 0; entry < size; entry++){
+            int slot = hashes[entry] & mask;
+            while(slots[slot] != 0){
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = entry + 1;
+        }
+    }
+
+    /**
+     * Returns the size of the table for the given number of entries, a power of two at least twice as large.
+     *
+     * @param capacity The number of entries.
+     * @return The number of slots.
+     */
+    private static int tableSize(int capacity) {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    /**
+     * Computes the hash of a natural key with an interned department code.
+     * The bits are mixed, so that the low bits used by the table depend on the whole key.
+     *
+     * @param code The code of the department code.
+     * @param depJob The department job.
+     * @return The hash of the key.
+     */
+    private static int hash(int code, String depJob) {
+        int hash = (31 * code + depJob.hashCode()) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
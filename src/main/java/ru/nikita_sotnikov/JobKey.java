@@ -1,5 +1,6 @@
 package ru.nikita_sotnikov;
 
+import java.util.Comparator;
 import java.util.Objects;
 
 /**
@@ -9,6 +10,55 @@ import java.util.Objects;
  */
 public record JobKey(String depCode, String depJob) {
 
+    /**
+     * Orders jobs by `depCode` and then by `depJob`, comparing the strings by Unicode code points.
+     * This is the same order as {@code ORDER BY dep_code COLLATE "C", dep_job COLLATE "C"}
+     * in a UTF-8 PostgreSQL database, regardless of the database locale.
+     */
+    public static final Comparator<Job> JOB_ORDER = (a, b) -> compare(a.getDepCode(), a.getDepJob(), b.getDepCode(), b.getDepJob());
+
+    /**
+     * Compares two natural keys in the order described by {@link #JOB_ORDER}.
+     *
+     * @param depCode1 The department code of the first key.
+     * @param depJob1 The department job of the first key.
+     * @param depCode2 The department code of the second key.
+     * @param depJob2 The department job of the second key.
+     * @return A negative integer, zero, or a positive integer as the first key
+     * is less than, equal to, or greater than the second.
+     */
+    public static int compare(String depCode1, String depJob1, String depCode2, String depJob2) {
+        int result = compareCodePoints(depCode1, depCode2);
+        return result != 0 ? result : compareCodePoints(depJob1, depJob2);
+    }
+
+    /**
+     * Compares two strings by Unicode code points.
+     * {@link String#compareTo(String)} compares UTF-16 code units instead, which puts characters
+     * outside the Basic Multilingual Plane before the characters in the range U+E000..U+FFFF.
+     *
+     * @param a The first string.
+     * @param b The second string.
+     * @return A negative integer, zero, or a positive integer as the first string
+     * is less than, equal to, or greater than the second.
+     */
+    private static int compareCodePoints(String a, String b) {
+        int length = Math.min(a.length(), b.length());
+        for(int i = 0; i < length; i++){
+            int ca = a.charAt(i);
+            int cb = b.charAt(i);
+            if(ca != cb){
+                if(ca >= Character.MIN_SURROGATE && cb >= Character.MIN_SURROGATE){
+                    // Surrogates encode code points above U+FFFF, so they go after the rest of the plane
+                    ca += Character.isSurrogate((char) ca) ? 0x2000 : -0x800;
+                    cb += Character.isSurrogate((char) cb) ? 0x2000 : -0x800;
+                }
+                return ca - cb;
+            }
+        }
+        return a.length() - b.length();
+    }
+
     /**
      * Indicates whether some other object is "equal to" this one.
      * The comparison is based on the `depCode` and `depJob` fields.
@@ -26,12 +76,13 @@ public record JobKey(String depCode, String depJob) {
 
     /**
      * Returns a hash code value for the object. This method is supported for the benefit of hash tables.
-     * The hash code is based on the `depCode` and `depJob` fields.
+     * The hash code is based on the `depCode` and `depJob` fields and equals {@code Objects.hash(depCode, depJob)},
+     * computed without allocating the varargs array.
      *
      * @return A hash code value for this object.
      */
     @Override
     public int hashCode() {
-        return Objects.hash(depCode(), depJob());
+        return 31 * (31 + Objects.hashCode(depCode())) + Objects.hashCode(depJob());
     }
 }
\ No newline at end of file
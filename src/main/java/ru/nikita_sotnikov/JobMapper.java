@@ -10,6 +10,24 @@ import java.sql.SQLException;
  * to {@link Job} objects.
  */
 public class JobMapper implements RowMapper<Job> {
+    private final boolean descriptionHash;
+
+    /**
+     * Constructs a new JobMapper that maps the description of the job.
+     */
+    public JobMapper() {
+        this(false);
+    }
+
+    /**
+     * Constructs a new JobMapper.
+     *
+     * @param descriptionHash Whether the row contains the "description_hash" column instead of the "description".
+     */
+    public JobMapper(boolean descriptionHash) {
+        this.descriptionHash = descriptionHash;
+    }
+
     /**
      * Maps a single row of a {@link ResultSet} to a {@link Job} object.
      *
@@ -24,7 +42,29 @@ public class JobMapper implements RowMapper<Job> {
         job.setId(rs.getInt("id"));
         job.setDepJob(rs.getString("dep_job"));
         job.setDepCode(rs.getString("dep_code"));
-        job.setDescription(rs.getString("description"));
+        if(descriptionHash){
+            job.setDescriptionHash(rs.getBytes("description_hash"));
+        }
+        else{
+            job.setDescription(rs.getString("description"));
+        }
         return job;
     }
-}
\ No newline at end of file
+
+    /**
+     * Adds the current row of a {@link ResultSet} to a columnar {@link JobTable} without creating a {@link Job}.
+     * The table must hold description hashes if and only if this mapper reads them.
+     *
+     * @param rs The {@link ResultSet} to read (pre-initialized to the current row).
+     * @param table The {@link JobTable} receiving the row.
+     * @throws SQLException If an error occurs while extracting data from the {@link ResultSet}.
+     */
+    public void addRow(ResultSet rs, JobTable table) throws SQLException {
+        if(descriptionHash){
+            table.addHashed(rs.getInt("id"), rs.getString("dep_code"), rs.getString("dep_job"), rs.getBytes("description_hash"));
+        }
+        else{
+            table.add(rs.getInt("id"), rs.getString("dep_code"), rs.getString("dep_job"), rs.getString("description"));
+        }
+    }
+}
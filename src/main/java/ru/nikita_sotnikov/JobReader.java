@@ -0,0 +1,59 @@
+package ru.nikita_sotnikov;
+
+import java.io.Closeable;
+import java.util.Iterator;
+
+/**
+ * A source of {@link Job} objects that are read one at a time,
+ * such as a job XML file, a binary job file or a sorted run of jobs.
+ */
+public interface JobReader extends Closeable {
+    /**
+     * Reads the next job from the source.
+     *
+     * @return The next {@link Job}, or {@code null} if there are no more jobs.
+     * @throws Exception If the job cannot be read or is invalid.
+     */
+    Job read() throws Exception;
+
+    /**
+     * Reads the next job from the source into the given job.
+     * Readers of files override it to reuse a single {@link Job} object for all jobs.
+     *
+     * @param job The job whose fields are replaced with the fields of the next job.
+     * @return {@code true} if a job is read; {@code false} if there are no more jobs.
+     * @throws Exception If the job cannot be read or is invalid.
+     */
+    default boolean read(Job job) throws Exception {
+        Job next = read();
+        if(next == null){
+            return false;
+        }
+        job.setId(next.getId());
+        job.setDepCode(next.getDepCode());
+        job.setDepJob(next.getDepJob());
+        job.setDescription(next.getDescription());
+        job.setDescriptionHash(next.getDescriptionHash());
+        return true;
+    }
+
+    /**
+     * Returns a reader over jobs that are already in memory.
+     *
+     * @param jobs The jobs to be read.
+     * @return A {@link JobReader} returning the jobs in iteration order.
+     */
+    static JobReader of(Iterable<Job> jobs) {
+        Iterator<Job> iterator = jobs.iterator();
+        return new JobReader() {
+            @Override
+            public Job read() {
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+}
@@ -0,0 +1,208 @@
+package ru.nikita_sotnikov;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Compact on-disk snapshot of the jobs applied to the database by the last successful synchronization.
+ * It holds the fingerprint of the synchronized XML file, the checksum of the table right after
+ * the synchronization and the ID, natural key and description hash of every job, but not the descriptions.
+ * <p>
+ * The snapshot is written to a temporary file that replaces the previous snapshot atomically,
+ * so an interrupted write never leaves a partial snapshot behind.
+ * </p>
+ *
+ * @param fileDigest The SHA-256 digest of the synchronized XML file.
+ * @param checksum The {@link DBOperations.TableChecksum} of the table after the synchronization.
+ * @param jobs The jobs of the table by natural key, with the description hash instead of the description.
+ */
+public record JobSnapshot(byte[] fileDigest, DBOperations.TableChecksum checksum, JobIndex jobs) {
+    private static final Logger log = LoggerFactory.getLogger(JobSnapshot.class);
+    private static final int MAGIC = 0x4A4F4253; // "JOBS"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Reads the snapshot from the specified file.
+     * A missing or unreadable snapshot is not an error: the synchronization falls back to the table.
+     *
+     * @param path The path of the snapshot file.
+     * @return The {@link JobSnapshot}, or {@code null} if the file does not exist or cannot be read.
+     */
+    public static JobSnapshot load(Path path) {
+        JobEvents.LoadEvent event = new JobEvents.LoadEvent();
+        event.begin();
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                log.warn("File '{}' is not a snapshot of a supported version", path);
+                return null;
+            }
+
+            byte[] fileDigest = readBytes(in);
+            DBOperations.TableChecksum checksum = new DBOperations.TableChecksum(in.readLong(), new BigInteger(readBytes(in)));
+
+            int size = in.readInt();
+            JobIndex jobs = new JobIndex(size);
+            for(int i = 0; i < size; i++){
+                Job job = new Job();
+                job.setId(in.readInt());
+                job.setDepCode(in.readUTF());
+                job.setDepJob(in.readUTF());
+                if(in.readBoolean()){
+                    job.setDescriptionHash(readBytes(in));
+                }
+                jobs.add(job);
+            }
+
+            event.end();
+            JobEvents.commitLoad(event, "snapshot", jobs.size(), () -> JobEvents.estimateBytes(jobs));
+            log.info("Loaded snapshot of {} jobs from '{}'", jobs.size(), path);
+
+            return new JobSnapshot(fileDigest, checksum, jobs);
+        }
+        catch(NoSuchFileException e){
+            log.info("Snapshot '{}' does not exist", path);
+            return null;
+        }
+        catch(IOException e){
+            log.warn("Failed to read snapshot '{}'", path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the snapshot to the specified file, replacing the previous one.
+     *
+     * @param path The path of the snapshot file.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public void save(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                writeBytes(out, fileDigest);
+                out.writeLong(checksum.count());
+                writeBytes(out, checksum.sum().toByteArray());
+
+                out.writeInt(jobs.size());
+                for(Job job : jobs){
+                    out.writeInt(job.getId());
+                    out.writeUTF(job.getDepCode());
+                    out.writeUTF(job.getDepJob());
+                    out.writeBoolean(job.getDescriptionHash() != null);
+                    if(job.getDescriptionHash() != null){
+                        writeBytes(out, job.getDescriptionHash());
+                    }
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+
+        log.info("Saved snapshot of {} jobs to '{}'", jobs.size(), path);
+    }
+
+    /**
+     * Deletes the snapshot file, so that the next synchronization does not rely on it.
+     *
+     * @param path The path of the snapshot file.
+     */
+    public static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        }
+        catch(IOException e){
+            log.warn("Failed to delete snapshot '{}'", path, e);
+        }
+    }
+
+    /**
+     * Computes the fingerprint of the content of a file.
+     *
+     * @param fileName The path to the file.
+     * @return The SHA-256 digest of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    public static byte[] fingerprint(String fileName) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        }
+        catch(NoSuchAlgorithmException e){
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
+
+        try (InputStream in = Files.newInputStream(Path.of(fileName))) {
+            byte[] buffer = new byte[BUFFER_SIZE];
+            int read;
+            while((read = in.read(buffer)) != -1){
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        return digest.digest();
+    }
+
+    /**
+     * Computes the checksum of the given jobs the same way as {@link DBOperations#getTableChecksum()}
+     * computes it for the table.
+     *
+     * @param jobs The jobs with IDs and description hashes.
+     * @return The {@link DBOperations.TableChecksum} of the jobs.
+     */
+    public static DBOperations.TableChecksum checksum(Iterable<Job> jobs) {
+        long count = 0;
+        BigInteger sum = BigInteger.ZERO;
+        for(Job job : jobs){
+            sum = sum.add(BigInteger.valueOf(JobHashes.rowHash(job)));
+            count++;
+        }
+        return new DBOperations.TableChecksum(count, sum);
+    }
+
+    /**
+     * Reads a byte array prefixed by its length.
+     *
+     * @param in The stream to read from.
+     * @return The read bytes.
+     * @throws IOException If the stream cannot be read.
+     */
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a byte array prefixed by its length.
+     *
+     * @param out The stream to write to.
+     * @param bytes The bytes to be written (at most 65535).
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
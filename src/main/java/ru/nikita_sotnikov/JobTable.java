@@ -0,0 +1,505 @@
+package ru.nikita_sotnikov;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Columnar in-memory table of jobs indexed by their natural key (depCode, depJob), used by the columnar
+ * engine of {@link SyncService} instead of a {@link Job} object per row.
+ * <p>
+ * Every column is a primitive array: the IDs, the department codes encoded as small int codes of a dictionary,
+ * and the lengths and offsets of the department job and the description, whose UTF-8 bytes are appended
+ * one after another to shared byte pages. An open-addressing table with linear probing maps
+ * the natural keys to the rows. Keys and descriptions are compared as bytes in place, and {@link Job} objects
+ * are created only for the rows that are asked for, such as the changed rows of a diff.
+ * </p>
+ * A table of the database side may hold the MD5 hash of the description instead of the description itself.
+ * The table does not support removal and is not thread-safe.
+ */
+public class JobTable {
+    private static final int MIN_CAPACITY = 16;
+    private static final int NOT_FOUND = -1;
+    private static final int PAGE_BITS = 23;
+    private static final int PAGE_SIZE = 1 << PAGE_BITS; // 8 MB
+    private static final int MAX_PAGES = 1 << (Integer.SIZE - PAGE_BITS); // The address is an unsigned int
+    private static final int HASH_LENGTH = 16; // Bytes of an MD5 hash
+    private static final short NULL_LENGTH = -1;
+
+    private final boolean hashed;
+    private final Map<String, Integer> depCodes = new HashMap<>();
+    private final List<String> depCodeValues = new ArrayList<>();
+    private String lastDepCode;
+    private int lastCode = NOT_FOUND;
+
+    private byte[][] pages = new byte[1][MIN_CAPACITY * 64];
+    private int page;
+    private int pageUsed;
+
+    private int[] slots; // The row of every slot plus one, 0 for an empty slot; at most half of the slots are used
+    private int[] depJobHashes;
+    private int[] codes;
+    private int[] ids;
+    private int[] addresses;
+    private short[] depJobLengths;
+    private short[] descriptionLengths;
+    private int size;
+
+    /**
+     * Constructs a new empty JobTable.
+     *
+     * @param hashed Whether the table holds the description hashes instead of the descriptions.
+     */
+    public JobTable(boolean hashed) {
+        this(hashed, MIN_CAPACITY);
+    }
+
+    /**
+     * Constructs a new empty JobTable sized for the expected number of jobs.
+     *
+     * @param hashed Whether the table holds the description hashes instead of the descriptions.
+     * @param expectedSize The expected number of jobs.
+     */
+    public JobTable(boolean hashed, int expectedSize) {
+        int capacity = Math.max(MIN_CAPACITY, expectedSize);
+        this.hashed = hashed;
+        slots = new int[tableSize(capacity)];
+        depJobHashes = new int[capacity];
+        codes = new int[capacity];
+        ids = new int[capacity];
+        addresses = new int[capacity];
+        depJobLengths = new short[capacity];
+        descriptionLengths = new short[capacity];
+    }
+
+    /**
+     * Returns whether the table holds the description hashes instead of the descriptions.
+     *
+     * @return {@code true} if the descriptions are hashed.
+     */
+    public boolean isHashed() {
+        return hashed;
+    }
+
+    /**
+     * Adds a job to the table, unless a job with the same natural key is already present.
+     *
+     * @param id The ID of the job.
+     * @param depCode The department code, not {@code null}.
+     * @param depJob The department job, not {@code null}.
+     * @param description The description, or {@code null}.
+     * @return {@code true} if the job is added; {@code false} if its natural key is already present.
+     * @throws IllegalStateException If the table holds the description hashes.
+     */
+    public boolean add(int id, String depCode, String depJob, String description) {
+        if(hashed){
+            throw new IllegalStateException("Table holds description hashes");
+        }
+        return append(id, depCode, depJob, description, null);
+    }
+
+    /**
+     * Adds a job with the hash of its description to the table,
+     * unless a job with the same natural key is already present.
+     *
+     * @param id The ID of the job.
+     * @param depCode The department code, not {@code null}.
+     * @param depJob The department job, not {@code null}.
+     * @param descriptionHash The 16-byte MD5 hash of the description, or {@code null} if there is no description.
+     * @return {@code true} if the job is added; {@code false} if its natural key is already present.
+     * @throws IllegalStateException If the table holds the descriptions.
+     */
+    public boolean addHashed(int id, String depCode, String depJob, byte[] descriptionHash) {
+        if(!hashed){
+            throw new IllegalStateException("Table holds descriptions");
+        }
+        return append(id, depCode, depJob, null, descriptionHash);
+    }
+
+    /**
+     * Finds the row with the natural key of a row of another table, comparing the bytes in place.
+     *
+     * @param other The other table.
+     * @param otherRow The row of the other table.
+     * @return The row of this table, or -1 if no job has this natural key.
+     */
+    public int find(JobTable other, int otherRow) {
+        int code = lookup(other.depCodeValues.get(other.codes[otherRow]));
+        if(code == NOT_FOUND){
+            return NOT_FOUND;
+        }
+        return find(code, other.depJobHashes[otherRow], other.pages[other.addresses[otherRow] >>> PAGE_BITS],
+                other.addresses[otherRow] & (PAGE_SIZE - 1), other.depJobLengths[otherRow]);
+    }
+
+    /**
+     * Compares the description of a row with the description of a row of another table.
+     * If only one of the tables holds the hashes, the other description is hashed for the comparison.
+     *
+     * @param row The row of this table.
+     * @param other The other table.
+     * @param otherRow The row of the other table.
+     * @return {@code true} if the descriptions (or their hashes) are equal.
+     */
+    public boolean sameDescription(int row, JobTable other, int otherRow) {
+        if(hashed == other.hashed){
+            int length = descriptionLengths[row];
+            if(length != other.descriptionLengths[otherRow]){
+                return false;
+            }
+            if(length == NULL_LENGTH){
+                return true;
+            }
+            int offset = descriptionOffset(row);
+            int otherOffset = other.descriptionOffset(otherRow);
+            return Arrays.equals(pages[addresses[row] >>> PAGE_BITS], offset, offset + length,
+                    other.pages[other.addresses[otherRow] >>> PAGE_BITS], otherOffset, otherOffset + length);
+        }
+        if(hashed){
+            return other.sameDescription(otherRow, this, row);
+        }
+        if(descriptionLengths[row] == NULL_LENGTH || other.descriptionLengths[otherRow] == NULL_LENGTH){
+            return descriptionLengths[row] == other.descriptionLengths[otherRow];
+        }
+
+        byte[] hash = JobHashes.hash(pages[addresses[row] >>> PAGE_BITS], descriptionOffset(row), descriptionLengths[row]);
+        int otherOffset = other.descriptionOffset(otherRow);
+        return Arrays.equals(hash, 0, HASH_LENGTH, other.pages[other.addresses[otherRow] >>> PAGE_BITS], otherOffset, otherOffset + HASH_LENGTH);
+    }
+
+    /**
+     * Returns the number of jobs in the table.
+     *
+     * @return The number of jobs.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Estimates the heap used by the table: its columns, its slots and its byte pages.
+     *
+     * @return The estimated size in bytes.
+     */
+    public long estimateBytes() {
+        long bytes = (long) slots.length * Integer.BYTES + (long) ids.length * (4 * Integer.BYTES + 2 * Short.BYTES);
+        for(int i = 0; i <= page; i++){
+            bytes += pages[i].length;
+        }
+        return bytes;
+    }
+
+    /**
+     * Returns the ID of the job of the row.
+     *
+     * @param row The row, from 0 to {@link #size()} - 1, in the order the jobs were added.
+     * @return The ID of the job.
+     */
+    public int id(int row) {
+        return ids[row];
+    }
+
+    /**
+     * Creates a {@link Job} object with the data of the row.
+     *
+     * @param row The row, from 0 to {@link #size()} - 1, in the order the jobs were added.
+     * @return A new {@link Job} with the description, or with the description hash if the table is hashed.
+     */
+    public Job toJob(int row) {
+        byte[] bytes = pages[addresses[row] >>> PAGE_BITS];
+        int offset = addresses[row] & (PAGE_SIZE - 1);
+        int descriptionLength = descriptionLengths[row];
+
+        Job job = new Job();
+        job.setId(ids[row]);
+        job.setDepCode(depCodeValues.get(codes[row]));
+        job.setDepJob(new String(bytes, offset, depJobLengths[row], StandardCharsets.UTF_8));
+        if(descriptionLength == NULL_LENGTH){
+            return job;
+        }
+        if(hashed){
+            job.setDescriptionHash(Arrays.copyOfRange(bytes, descriptionOffset(row), descriptionOffset(row) + descriptionLength));
+        }
+        else{
+            job.setDescription(new String(bytes, descriptionOffset(row), descriptionLength, StandardCharsets.UTF_8));
+        }
+        return job;
+    }
+
+    /**
+     * Appends the row to the columns and the table, unless its natural key is already present.
+     * The fields are encoded into the free space of the current page first,
+     * which is taken by the row only if it is appended.
+     *
+     * @param id The ID of the job.
+     * @param depCode The department code.
+     * @param depJob The department job.
+     * @param description The description, if the table is not hashed.
+     * @param descriptionHash The description hash, if the table is hashed.
+     * @return {@code true} if the row is appended.
+     */
+    private boolean append(int id, String depCode, String depJob, String description, byte[] descriptionHash) {
+        int code = intern(depCode);
+
+        int maxDescriptionLength = hashed ? HASH_LENGTH : (description == null ? 0 : maxEncodedLength(description));
+        byte[] bytes = reserve(maxEncodedLength(depJob) + maxDescriptionLength);
+        int offset = pageUsed;
+        int depJobLength = encode(depJob, bytes, offset);
+        int depJobHash = hash(bytes, offset, depJobLength);
+
+        int row = find(code, depJobHash, bytes, offset, depJobLength);
+        if(row != NOT_FOUND){
+            return false;
+        }
+
+        int descriptionLength;
+        if(hashed){
+            descriptionLength = descriptionHash == null ? NULL_LENGTH : HASH_LENGTH;
+            if(descriptionHash != null){
+                System.arraycopy(descriptionHash, 0, bytes, offset + depJobLength, HASH_LENGTH);
+            }
+        }
+        else{
+            descriptionLength = description == null ? NULL_LENGTH : encode(description, bytes, offset + depJobLength);
+        }
+
+        if(size == ids.length){
+            grow();
+        }
+
+        depJobHashes[size] = depJobHash;
+        codes[size] = code;
+        ids[size] = id;
+        addresses[size] = page << PAGE_BITS | offset;
+        depJobLengths[size] = (short) depJobLength;
+        descriptionLengths[size] = (short) descriptionLength;
+        pageUsed = offset + depJobLength + Math.max(0, descriptionLength);
+
+        int mask = slots.length - 1;
+        int slot = hash(code, depJobHash) & mask;
+        while(slots[slot] != 0){
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = ++size;
+        return true;
+    }
+
+    /**
+     * Finds the row with the given natural key.
+     *
+     * @param code The code of the department code.
+     * @param depJobHash The hash of the UTF-8 bytes of the department job.
+     * @param depJob The array with the UTF-8 bytes of the department job.
+     * @param offset The offset of the department job in the array.
+     * @param length The number of bytes of the department job.
+     * @return The row, or -1 if no job has this natural key.
+     */
+    private int find(int code, int depJobHash, byte[] depJob, int offset, int length) {
+        int mask = slots.length - 1;
+        for(int slot = hash(code, depJobHash) & mask, row; (row = slots[slot] - 1) != NOT_FOUND; slot = (slot + 1) & mask){
+            if(depJobHashes[row] == depJobHash && codes[row] == code && depJobLengths[row] == length){
+                int rowOffset = addresses[row] & (PAGE_SIZE - 1);
+                if(Arrays.equals(pages[addresses[row] >>> PAGE_BITS], rowOffset, rowOffset + length, depJob, offset, offset + length)){
+                    return row;
+                }
+            }
+        }
+        return NOT_FOUND;
+    }
+
+    /**
+     * Returns the current page with room for the given number of bytes at {@link #pageUsed},
+     * growing it or starting a new page if needed.
+     *
+     * @param length The number of bytes to be written.
+     * @return The page to write to.
+     * @throws IllegalStateException If the table is full.
+     */
+    private byte[] reserve(int length) {
+        byte[] bytes = pages[page];
+        if(pageUsed + length <= bytes.length){
+            return bytes;
+        }
+        if(pageUsed + length <= PAGE_SIZE){
+            pages[page] = Arrays.copyOf(bytes, Math.min(PAGE_SIZE, Math.max(bytes.length * 2, pageUsed + length)));
+            return pages[page];
+        }
+        if(page + 1 == MAX_PAGES){
+            throw new IllegalStateException("Job table is full");
+        }
+        if(page + 1 == pages.length){
+            pages = Arrays.copyOf(pages, pages.length * 2);
+        }
+        page++;
+        pageUsed = 0;
+        pages[page] = new byte[PAGE_SIZE];
+        return pages[page];
+    }
+
+    /**
+     * Returns the offset of the description of the row in its page, right after the department job.
+     *
+     * @param row The row.
+     * @return The offset of the description.
+     */
+    private int descriptionOffset(int row) {
+        return (addresses[row] & (PAGE_SIZE - 1)) + depJobLengths[row];
+    }
+
+    /**
+     * Returns the code of the department code, adding it to the dictionary if needed.
+     *
+     * @param depCode The department code.
+     * @return The code of the department code.
+     */
+    private int intern(String depCode) {
+        int code = lookup(depCode);
+        if(code == NOT_FOUND){
+            code = depCodeValues.size();
+            depCodes.put(depCode, code);
+            depCodeValues.add(depCode);
+            lastDepCode = depCode;
+            lastCode = code;
+        }
+        return code;
+    }
+
+    /**
+     * Returns the code of the department code.
+     * Jobs usually come grouped by department, so the last found code is checked first.
+     *
+     * @param depCode The department code.
+     * @return The code of the department code, or -1 if it is not in the dictionary.
+     */
+    private int lookup(String depCode) {
+        if(depCode == lastDepCode){
+            return lastCode;
+        }
+
+        Integer code = depCodes.get(depCode);
+        if(code == null){
+            return NOT_FOUND;
+        }
+
+        lastDepCode = depCode;
+        lastCode = code;
+        return code;
+    }
+
+    /**
+     * Doubles the capacity of the columns and rebuilds the table from the cached hashes.
+     */
+    private void grow() {
+        int capacity = ids.length * 2;
+        depJobHashes = Arrays.copyOf(depJobHashes, capacity);
+        codes = Arrays.copyOf(codes, capacity);
+        ids = Arrays.copyOf(ids, capacity);
+        addresses = Arrays.copyOf(addresses, capacity);
+        depJobLengths = Arrays.copyOf(depJobLengths, capacity);
+        descriptionLengths = Arrays.copyOf(descriptionLengths, capacity);
+
+        slots = new int[tableSize(capacity)];
+        int mask = slots.length - 1;
+        for(int row = 0; row < size; row++){
+            int slot = hash(codes[row], depJobHashes[row]) & mask;
+            while(slots[slot] != 0){
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = row + 1;
+        }
+    }
+
+    /**
+     * Returns the maximum number of UTF-8 bytes of a text, which must fit the length columns.
+     *
+     * @param text The text.
+     * @return Three bytes per character.
+     * @throws IllegalArgumentException If the text is too long.
+     */
+    private static int maxEncodedLength(String text) {
+        if(text.length() > Short.MAX_VALUE / 3){
+            throw new IllegalArgumentException("Text of " + text.length() + " characters is too long for a job table");
+        }
+        return text.length() * 3;
+    }
+
+    /**
+     * Encodes a text into UTF-8 bytes, replacing unpaired surrogates with '?' as {@link String#getBytes} does.
+     *
+     * @param text The text.
+     * @param bytes The array receiving the bytes, with room for {@link #maxEncodedLength(String)} bytes.
+     * @param offset The offset of the first byte.
+     * @return The number of written bytes.
+     */
+    private static int encode(String text, byte[] bytes, int offset) {
+        int position = offset;
+        for(int i = 0; i < text.length(); i++){
+            char c = text.charAt(i);
+            if(c < 0x80){
+                bytes[position++] = (byte) c;
+            }
+            else if(c < 0x800){
+                bytes[position++] = (byte) (0xC0 | c >> 6);
+                bytes[position++] = (byte) (0x80 | c & 0x3F);
+            }
+            else if(Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1))){
+                int codePoint = Character.toCodePoint(c, text.charAt(++i));
+                bytes[position++] = (byte) (0xF0 | codePoint >> 18);
+                bytes[position++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+                bytes[position++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+                bytes[position++] = (byte) (0x80 | codePoint & 0x3F);
+            }
+            else if(Character.isSurrogate(c)){
+                bytes[position++] = '?';
+            }
+            else{
+                bytes[position++] = (byte) (0xE0 | c >> 12);
+                bytes[position++] = (byte) (0x80 | c >> 6 & 0x3F);
+                bytes[position++] = (byte) (0x80 | c & 0x3F);
+            }
+        }
+        return position - offset;
+    }
+
+    /**
+     * Computes the hash of the UTF-8 bytes of a department job.
+     *
+     * @param bytes The array with the bytes.
+     * @param offset The offset of the first byte.
+     * @param length The number of bytes.
+     * @return The hash of the bytes.
+     */
+    private static int hash(byte[] bytes, int offset, int length) {
+        int hash = 0;
+        for(int i = offset; i < offset + length; i++){
+            hash = 31 * hash + bytes[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the size of the table for the given number of rows, a power of two at least twice as large.
+     *
+     * @param capacity The number of rows.
+     * @return The number of slots.
+     */
+    private static int tableSize(int capacity) {
+        return Integer.highestOneBit(capacity * 2 - 1) << 1;
+    }
+
+    /**
+     * Computes the hash of a natural key from the code of the department code and the hash of the department job.
+     * The bits are mixed, so that the low bits used by the table depend on the whole key.
+     *
+     * @param code The code of the department code.
+     * @param depJobHash The hash of the UTF-8 bytes of the department job.
+     * @return The hash of the key.
+     */
+    private static int hash(int code, int depJobHash) {
+        int hash = (31 * code + depJobHash) * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,24 @@
+package ru.nikita_sotnikov;
+
+import java.io.Closeable;
+
+/**
+ * A destination of {@link Job} objects that are written one at a time,
+ * such as a job XML file or a binary job file.
+ */
+public interface JobWriter extends Closeable {
+    /**
+     * Writes the job to the destination.
+     *
+     * @param job The {@link Job} to be written.
+     * @throws Exception If the job cannot be written.
+     */
+    void write(Job job) throws Exception;
+
+    /**
+     * Returns the number of jobs written so far.
+     *
+     * @return The number of written jobs.
+     */
+    long getCount();
+}
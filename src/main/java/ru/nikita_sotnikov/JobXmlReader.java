@@ -0,0 +1,242 @@
+package ru.nikita_sotnikov;
+
+import org.xml.sax.SAXException;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Streaming reader of job XML files built on StAX.
+ * Unlike the DOM based parsing, it never holds more than one {@link Job} in memory:
+ * each call to {@link #read()} consumes the next "job" element and returns it.
+ * The structure and field validation is the same as in {@link XmlParser}.
+ */
+public class JobXmlReader implements JobReader {
+    private static final XMLInputFactory FACTORY = createFactory();
+
+    private final InputStream input;
+    private final XMLStreamReader reader;
+    private boolean rootChecked;
+    private boolean finished;
+
+    /**
+     * Constructs a new JobXmlReader over the given stream.
+     * The stream is closed together with the reader.
+     *
+     * @param input The stream with the XML content.
+     * @throws XMLStreamException If the StAX reader cannot be created.
+     */
+    public JobXmlReader(InputStream input) throws XMLStreamException {
+        this.input = input;
+        this.reader = FACTORY.createXMLStreamReader(input);
+    }
+
+    /**
+     * Opens the specified XML file for streaming reading, decompressing it if it is compressed with gzip,
+     * see {@link FileStreams#openInput(String)}.
+     *
+     * @param fileName The path to the XML file.
+     * @return A new {@link JobXmlReader} positioned at the beginning of the file.
+     * @throws IOException If the file cannot be opened.
+     * @throws XMLStreamException If the StAX reader cannot be created.
+     */
+    public static JobXmlReader open(String fileName) throws IOException, XMLStreamException {
+        InputStream in = FileStreams.openInput(fileName);
+        try {
+            return new JobXmlReader(in);
+        }
+        catch (XMLStreamException e) {
+            in.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the next "job" element from the stream.
+     *
+     * @return The next validated {@link Job}, or {@code null} if the root element is closed.
+     * @throws SAXException If the XML structure or the job fields are invalid.
+     * @throws XMLStreamException If the XML is not well-formed.
+     */
+    @Override
+    public Job read() throws SAXException, XMLStreamException {
+        Job job = new Job();
+        return read(job) ? job : null;
+    }
+
+    /**
+     * Reads the next "job" element from the stream into the given job,
+     * so that a single {@link Job} object can be reused for all elements.
+     *
+     * @param job The job whose fields are replaced with the fields of the element.
+     * @return {@code true} if a job is read; {@code false} if the root element is closed.
+     * @throws SAXException If the XML structure or the job fields are invalid.
+     * @throws XMLStreamException If the XML is not well-formed.
+     */
+    @Override
+    public boolean read(Job job) throws SAXException, XMLStreamException {
+        if(finished){
+            return false;
+        }
+        if(!rootChecked){
+            checkRoot();
+        }
+
+        while(reader.hasNext()){
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT){
+                if(!elementName().equals("job")){
+                    throw new SAXException("Invalid format: element is not 'job' in 'jobs'.");
+                }
+                readJob(job);
+                XmlParser.checkJob(job); // Validate job fields based on database column constraints
+                return true;
+            }
+            else if(event == XMLStreamConstants.END_ELEMENT){
+                finish();
+                return false;
+            }
+        }
+
+        finished = true;
+        return false;
+    }
+
+    /**
+     * Skips the prolog and checks that the root element is "jobs".
+     *
+     * @throws SAXException If the root element is not "jobs".
+     * @throws XMLStreamException If the XML is not well-formed.
+     */
+    private void checkRoot() throws SAXException, XMLStreamException {
+        while(reader.hasNext() && reader.next() != XMLStreamConstants.START_ELEMENT){
+            // Skip the XML declaration, comments, processing instructions and DTD
+        }
+        if(!reader.isStartElement() || !elementName().equals("jobs")){
+            throw new SAXException("Root element is not 'jobs'");
+        }
+        rootChecked = true;
+    }
+
+    /**
+     * Reads the fields of the current "job" element up to its closing tag.
+     *
+     * @param job The {@link Job} object cleared and populated with data from the child elements.
+     * @throws SAXException If duplicate or unsupported fields are detected.
+     * @throws XMLStreamException If the XML is not well-formed.
+     */
+    private void readJob(Job job) throws SAXException, XMLStreamException {
+        job.setId(0);
+        job.setDepCode(null);
+        job.setDepJob(null);
+        job.setDescription(null);
+        job.setDescriptionHash(null);
+
+        while(reader.hasNext()){
+            int event = reader.next();
+            if(event == XMLStreamConstants.START_ELEMENT){
+                String name = elementName();
+                if(!XmlParser.setField(job, name, readText())){
+                    throw new SAXException("Duplicates or not supported fields are detected.");
+                }
+            }
+            else if(event == XMLStreamConstants.END_ELEMENT){
+                break;
+            }
+        }
+    }
+
+    /**
+     * Collects the text content of the current element and all of its descendants,
+     * the same way as {@link org.w3c.dom.Node#getTextContent()} does.
+     *
+     * @return The text content of the element.
+     * @throws XMLStreamException If the XML is not well-formed.
+     */
+    private String readText() throws XMLStreamException {
+        StringBuilder text = null;
+        String single = "";
+        int depth = 1;
+
+        while(depth > 0){
+            switch(reader.next()){
+                case XMLStreamConstants.START_ELEMENT -> depth++;
+                case XMLStreamConstants.END_ELEMENT -> depth--;
+                case XMLStreamConstants.CHARACTERS, XMLStreamConstants.CDATA, XMLStreamConstants.SPACE -> {
+                    if(text == null && single.isEmpty()){
+                        single = reader.getText();
+                    }
+                    else{
+                        if(text == null){
+                            text = new StringBuilder(single);
+                        }
+                        text.append(reader.getTextCharacters(), reader.getTextStart(), reader.getTextLength());
+                    }
+                }
+                default -> {
+                    // Comments and processing instructions are not part of the text content
+                }
+            }
+        }
+
+        return text == null ? single : text.toString();
+    }
+
+    /**
+     * Consumes the rest of the document after the root element is closed,
+     * so that trailing malformed content is reported as in the DOM parser.
+     *
+     * @throws XMLStreamException If the XML is not well-formed.
+     */
+    private void finish() throws XMLStreamException {
+        finished = true;
+        while(reader.hasNext()){
+            reader.next();
+        }
+    }
+
+    /**
+     * Returns the qualified name of the current element, as it is written in the file.
+     *
+     * @return The element name including the prefix, if any.
+     */
+    private String elementName() {
+        String prefix = reader.getPrefix();
+        return prefix == null || prefix.isEmpty() ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+    }
+
+    /**
+     * Closes the StAX reader and the underlying stream.
+     *
+     * @throws IOException If the stream cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            reader.close();
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+        finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Creates the StAX factory shared by all readers.
+     * Adjacent text events are coalesced, as the DOM parser does after normalization.
+     *
+     * @return The configured {@link XMLInputFactory}.
+     */
+    private static XMLInputFactory createFactory() {
+        XMLInputFactory factory = XMLInputFactory.newInstance();
+        factory.setProperty(XMLInputFactory.IS_COALESCING, true);
+        factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, false);
+        return factory;
+    }
+}
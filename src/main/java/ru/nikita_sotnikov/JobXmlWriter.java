@@ -0,0 +1,268 @@
+package ru.nikita_sotnikov;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming writer of job XML files built on StAX.
+ * Jobs are written one at a time, so the memory used does not depend on the number of jobs.
+ * The output is byte-compatible with serializing {@link XmlParser#saveToDocument(java.util.List)}
+ * by the default {@link javax.xml.transform.Transformer}, with or without indentation.
+ */
+public class JobXmlWriter implements JobWriter {
+    private static final int BUFFER_SIZE = 256 * 1024;
+    private static final String INDENT = "    ";
+    private static final XMLOutputFactory FACTORY = XMLOutputFactory.newInstance();
+    // The same declaration as the one written by the Transformer for a DOM document
+    private static final String DECLARATION = "version=\"1.0\" encoding=\"UTF-8\" standalone=\"no\"";
+
+    private final OutputStream output;
+    private final XMLStreamWriter writer;
+    private final boolean indent;
+    private final boolean fragment;
+    private final String lineSeparator = System.lineSeparator();
+    private boolean rootOpen;
+    private long count;
+
+    /**
+     * Constructs a new JobXmlWriter over the given stream and writes the XML declaration.
+     * The stream is closed together with the writer.
+     *
+     * @param output The stream to write the XML content to.
+     * @param indent Whether the elements are written on separate indented lines.
+     * @throws XMLStreamException If the StAX writer cannot be created.
+     */
+    public JobXmlWriter(OutputStream output, boolean indent) throws XMLStreamException {
+        this(output, indent, false);
+    }
+
+    /**
+     * Constructs a new JobXmlWriter over the given stream.
+     *
+     * @param output The stream to write the XML content to.
+     * @param indent Whether the elements are written on separate indented lines.
+     * @param fragment Whether only the "job" elements are written, without the declaration and the root element.
+     * @throws XMLStreamException If the StAX writer cannot be created.
+     */
+    private JobXmlWriter(OutputStream output, boolean indent, boolean fragment) throws XMLStreamException {
+        this.output = output;
+        this.writer = FACTORY.createXMLStreamWriter(output, "UTF-8");
+        this.indent = indent;
+        this.fragment = fragment;
+        this.rootOpen = fragment;
+
+        if(!fragment){
+            writer.writeProcessingInstruction("xml", DECLARATION);
+            newLine(0);
+        }
+    }
+
+    /**
+     * Creates a writer of a fragment of a job XML file: only the "job" elements are written,
+     * exactly as they are written within a whole file. A file assembled from {@link #documentStart(boolean)},
+     * fragments and {@link #documentEnd(boolean)} is the same as a file written by a single writer.
+     *
+     * @param output The stream to write the fragment to.
+     * @param indent Whether the elements are written on separate indented lines.
+     * @return A new {@link JobXmlWriter} writing the fragment.
+     * @throws XMLStreamException If the StAX writer cannot be created.
+     */
+    public static JobXmlWriter fragment(OutputStream output, boolean indent) throws XMLStreamException {
+        return new JobXmlWriter(output, indent, true);
+    }
+
+    /**
+     * Returns the beginning of a job XML file with at least one job, which precedes the fragments:
+     * the XML declaration and the start tag of the root element.
+     *
+     * @param indent Whether the elements are written on separate indented lines.
+     * @return The UTF-8 bytes of the beginning of the file.
+     */
+    public static byte[] documentStart(boolean indent) {
+        return ("<?xml " + DECLARATION + "?>" + (indent ? System.lineSeparator() : "") + "<jobs>").getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Returns the end of a job XML file with at least one job, which follows the fragments.
+     *
+     * @param indent Whether the elements are written on separate indented lines.
+     * @return The UTF-8 bytes of the end tag of the root element.
+     */
+    public static byte[] documentEnd(boolean indent) {
+        String lineSeparator = indent ? System.lineSeparator() : "";
+        return (lineSeparator + "</jobs>" + lineSeparator).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Creates (or truncates) the specified file and opens it for streaming writing
+     * through a buffered {@link java.nio.channels.FileChannel}; a file named "*.gz" is compressed
+     * with gzip at {@link FileStreams#DEFAULT_GZIP_LEVEL}.
+     *
+     * @param fileName The path to the XML file.
+     * @param indent Whether the elements are written on separate indented lines.
+     * @return A new {@link JobXmlWriter} writing to the file.
+     * @throws IOException If the file cannot be opened.
+     * @throws XMLStreamException If the StAX writer cannot be created.
+     */
+    public static JobXmlWriter create(String fileName, boolean indent) throws IOException, XMLStreamException {
+        return create(fileName, indent, FileStreams.DEFAULT_GZIP_LEVEL);
+    }
+
+    /**
+     * Creates (or truncates) the specified file and opens it for streaming writing,
+     * compressing it with gzip if the file is named "*.gz", see {@link FileStreams#openOutput(String, int, int)}.
+     *
+     * @param fileName The path to the XML file.
+     * @param indent Whether the elements are written on separate indented lines.
+     * @param gzipLevel The gzip compression level from 0 to 9, used if the file is compressed.
+     * @return A new {@link JobXmlWriter} writing to the file.
+     * @throws IOException If the file cannot be opened.
+     * @throws XMLStreamException If the StAX writer cannot be created.
+     */
+    public static JobXmlWriter create(String fileName, boolean indent, int gzipLevel) throws IOException, XMLStreamException {
+        OutputStream out = FileStreams.openOutput(fileName, BUFFER_SIZE, gzipLevel);
+        try {
+            return new JobXmlWriter(out, indent);
+        }
+        catch (XMLStreamException e) {
+            out.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes a single job as a "job" element with "depCode", "depJob" and optionally "description" elements.
+     *
+     * @param job The {@link Job} to be written.
+     * @throws XMLStreamException If the job cannot be written or contains characters not allowed in XML.
+     */
+    @Override
+    public void write(Job job) throws XMLStreamException {
+        if(!rootOpen){
+            writer.writeStartElement("jobs");
+            rootOpen = true;
+        }
+
+        newLine(1);
+        writer.writeStartElement("job");
+        writeField("depCode", job.getDepCode());
+        writeField("depJob", job.getDepJob());
+        if(job.getDescription() != null){
+            writeField("description", job.getDescription());
+        }
+        newLine(1);
+        writer.writeEndElement();
+
+        count++;
+    }
+
+    /**
+     * Returns the number of jobs written so far.
+     *
+     * @return The number of written jobs.
+     */
+    @Override
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Writes a text-only element, using an empty-element tag for empty values.
+     *
+     * @param name The name of the element.
+     * @param value The text content of the element.
+     * @throws XMLStreamException If the value cannot be written.
+     */
+    private void writeField(String name, String value) throws XMLStreamException {
+        newLine(2);
+        if(value == null || value.isEmpty()){
+            writer.writeEmptyElement(name);
+            return;
+        }
+
+        writer.writeStartElement(name);
+        writeText(value);
+        writer.writeEndElement();
+    }
+
+    /**
+     * Writes the text escaping it the same way as the Transformer does:
+     * carriage returns and characters outside the Basic Multilingual Plane
+     * are written as numeric character references.
+     *
+     * @param value The text to be written.
+     * @throws XMLStreamException If the text contains characters not allowed in XML.
+     */
+    private void writeText(String value) throws XMLStreamException {
+        int start = 0;
+        int length = value.length();
+
+        for(int i = 0; i < length; i++){
+            char c = value.charAt(i);
+            if(c >= 0x20 && c < 0xD800 && c != '\r' || c == '\n' || c == '\t' || c > 0xDFFF && c < 0xFFFE){
+                continue;
+            }
+
+            if(i > start){
+                writer.writeCharacters(value.substring(start, i));
+            }
+
+            int codePoint = value.codePointAt(i);
+            if(codePoint != '\r' && !Character.isSupplementaryCodePoint(codePoint)){
+                throw new XMLStreamException(String.format("An invalid XML character (Unicode: 0x%s) was found in the node's character data content.", Integer.toHexString(codePoint)));
+            }
+
+            writer.writeEntityRef("#" + codePoint);
+            i += Character.charCount(codePoint) - 1;
+            start = i + 1;
+        }
+
+        if(start < length){
+            writer.writeCharacters(start == 0 ? value : value.substring(start));
+        }
+    }
+
+    /**
+     * Starts a new indented line, if indentation is enabled.
+     *
+     * @param level The nesting level of the next tag.
+     * @throws XMLStreamException If the whitespace cannot be written.
+     */
+    private void newLine(int level) throws XMLStreamException {
+        if(indent){
+            writer.writeCharacters(level == 0 ? lineSeparator : lineSeparator + INDENT.repeat(level));
+        }
+    }
+
+    /**
+     * Closes the root element, unless a fragment is written, flushes the written content and closes the underlying stream.
+     *
+     * @throws IOException If the content cannot be written or the stream cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        try (output) {
+            if(fragment){
+                writer.close(); // Flushes the buffered content
+                return;
+            }
+            if(rootOpen){
+                newLine(0);
+                writer.writeEndElement();
+            }
+            else{
+                writer.writeEmptyElement("jobs");
+            }
+            newLine(0);
+            writer.writeEndDocument();
+            writer.close();
+        }
+        catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+}
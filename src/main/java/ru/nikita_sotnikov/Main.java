@@ -3,7 +3,13 @@ package ru.nikita_sotnikov;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import jdk.jfr.Recording;
+
+import java.io.IOException;
+import java.nio.file.Path;
 import java.sql.SQLOutput;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * The main entry point for the application.
@@ -14,13 +20,34 @@ import java.sql.SQLOutput;
  * Expected command-line arguments:
  * <ul>
  * <li>{@code sync <fileName>} to synchronize the database with the XML file.</li>
+ * <li>{@code sync <fileName|directory|pattern>...} to synchronize the departments of several XML files in parallel,
+ * see {@link BatchSyncService}.</li>
+ * <li>{@code plan <fileName> <planFile>} to compute the changes of the synchronization with the XML file
+ * and write them to a plan file, without changing the database, see {@link SyncPlan}.</li>
+ * <li>{@code apply <planFile>} to apply a plan file in a single transaction, provided that the changed rows
+ * are still in the state recorded by the plan.</li>
  * <li>{@code save <fileName>} to save the database content to an XML file.</li>
+ * <li>{@code convert <sourceFile> <targetFile>} to convert a job file between the XML and the binary format,
+ * see {@link ConvertService}.</li>
+ * <li>{@code bench <resultFile>} to measure sync and save runs on generated data in a separate database
+ * and save the results to a JSON file.</li>
  * </ul>
+ * Any command may be preceded by the {@code --jfr <recordingFile>} option to record the run
+ * with Java Flight Recorder, including the {@link JobEvents} of the application phases,
+ * and by the {@code --format <xml|binary|auto>} option to set the {@link JobFormat} of the files
+ * read by "sync" and written by "save" instead of choosing it by the file name.
  * </p>
  */
 public class Main {
     private static final String SYNC_COMMAND = "sync";
     private static final String SAVE_COMMAND = "save";
+    private static final String PLAN_COMMAND = "plan";
+    private static final String APPLY_COMMAND = "apply";
+    private static final String CONVERT_COMMAND = "convert";
+    private static final String BENCH_COMMAND = "bench";
+    private static final String JFR_OPTION = "--jfr";
+    private static final String FORMAT_OPTION = "--format";
+    private static final List<String> FORMATS = List.of("auto", "xml", "binary");
     private static final Logger logger = LoggerFactory.getLogger(Main.class);
 
     /**
@@ -45,25 +72,87 @@ public class Main {
      * It initializes the application configuration, retrieves the appropriate services,
      * and performs either a synchronization or save operation.
      *
-     * @param args Command-line arguments. Expected format: {@code <command> <fileName>}.
-     * Supported commands are "sync" and "save".
+     * @param args Command-line arguments. Expected format:
+     * {@code [--jfr <recordingFile>] [--format <xml|binary|auto>] <command> <fileName>}.
+     * Supported commands are "sync", "plan", "apply", "save", "convert" and "bench".
      * @throws IllegalArgumentException If an incorrect number of arguments is provided.
      * @throws Exception If any error occurs during configuration loading, service execution,
      * or file operations.
      */
     private static void runApp(String[] args) throws Exception{
+        runApp(args, null);
+    }
+
+    /**
+     * Executes the main application logic with the file format set by a preceding option.
+     *
+     * @param args Command-line arguments after the options already read.
+     * @param format The value of the "--format" option, or {@code null} if it is not given.
+     * @throws Exception If any error occurs during configuration loading, service execution,
+     * or file operations.
+     */
+    private static void runApp(String[] args, String format) throws Exception{
+        // With the "--jfr" option the whole run is recorded with Java Flight Recorder
+        // and the recording is written to the given file when the command ends, even if it fails.
+        if(args != null && args.length > 0 && args[0].equals(JFR_OPTION)){
+            if(args.length < 2){
+                throw new IllegalArgumentException("Option " + JFR_OPTION + " requires a file name.");
+            }
+
+            try (Recording recording = startRecording(Path.of(args[1]))) {
+                try{
+                    runApp(Arrays.copyOfRange(args, 2, args.length), format);
+                }
+                finally{
+                    recording.stop();
+                    logger.info("Flight recording saved to file '{}'", args[1]);
+                }
+            }
+            return;
+        }
+
+        // The "--format" option sets the format of the job files instead of choosing it by the file name.
+        if(args != null && args.length > 0 && args[0].equals(FORMAT_OPTION)){
+            if(args.length < 2 || !FORMATS.contains(args[1].toLowerCase())){
+                throw new IllegalArgumentException("Option " + FORMAT_OPTION + " requires one of " + FORMATS + ".");
+            }
+            runApp(Arrays.copyOfRange(args, 2, args.length), args[1]);
+            return;
+        }
+
         // Creates a Configuration object by loading properties from "application.properties".
         // This file contains database connection parameters and logging settings.
-        Configuration configuration = Configuration.create("application.properties");
-
-        // Retrieves the SyncService and SaveService instances from the configuration.
-        // These services are responsible for performing synchronization and saving operations, respectively.
-        SyncService syncService = configuration.getSyncService();
-        SaveService saveService = configuration.getSaveService();
+        // Closing the configuration closes the connection pool.
+        try (Configuration configuration = Configuration.create("application.properties")) {
+            if(format != null){
+                configuration.setProperty("file.format", format);
+            }
+            runCommand(configuration, args);
+        }
+    }
 
+    /**
+     * Performs the operation requested by the command-line arguments with the given configuration.
+     *
+     * @param configuration The {@link Configuration} providing the services.
+     * @param args Command-line arguments. Expected format: {@code <command> <fileName>},
+     * the "sync" command also accepts several files, directories and glob patterns,
+     * the "plan" command expects the XML file and the plan file,
+     * and the "convert" command expects the source file and the target file.
+     * @throws IllegalArgumentException If an incorrect number of arguments is provided.
+     * @throws Exception If any error occurs during service execution or file operations.
+     */
+    private static void runCommand(Configuration configuration, String[] args) throws Exception {
         // Validates the number of command-line arguments.
-        // The application expects exactly two arguments: the command and the file name.
-        if(args == null || args.length != 2){
+        // The application expects exactly two arguments: the command and the file name,
+        // except for the "sync" command, which accepts several files, and the "plan" and "convert" commands,
+        // which expect two files.
+        if(args != null && args.length > 0 && (args[0].equals(PLAN_COMMAND) || args[0].equals(CONVERT_COMMAND))){
+            if(args.length != 3){
+                throw new IllegalArgumentException("Wrong number of arguments, expected 3.");
+            }
+        }
+        else if(args == null || args.length < 2 || (args.length > 2 && !args[0].equals(SYNC_COMMAND))){
             throw new IllegalArgumentException("Wrong number of arguments, expected 2.");
         }
 
@@ -73,14 +162,84 @@ public class Main {
                 // If the command is "sync", it invokes the sync method of the SyncService,
                 // passing the file name from the second argument.
                 // The synchronization process involves updating the database based on the XML file.
-                syncService.sync(args[1]);
+                // Several files, a directory or a glob pattern are synchronized in parallel,
+                // each within the scope of its departments.
+                boolean success = false;
+                List<String> files = Arrays.asList(args).subList(1, args.length);
+                try{
+                    if(BatchSyncService.isBatch(files)){
+                        configuration.getBatchSyncService().sync(files);
+                    }
+                    else{
+                        configuration.getSyncService().sync(args[1]);
+                    }
+                    success = true;
+                }
+                finally{
+                    writeMetrics(configuration, SYNC_COMMAND, success);
+                }
+                break;
+            }
+            case PLAN_COMMAND:{
+                // If the command is "plan", it computes the changes of the synchronization with the XML file
+                // from the second argument and writes them to the plan file from the third argument.
+                // The database is not changed.
+                boolean success = false;
+                try{
+                    configuration.getSyncService().plan(args[1], args[2]);
+                    success = true;
+                }
+                finally{
+                    writeMetrics(configuration, PLAN_COMMAND, success);
+                }
+                break;
+            }
+            case APPLY_COMMAND:{
+                // If the command is "apply", it applies the plan file from the second argument in a single transaction.
+                // The transaction is rolled back if the table was changed since the plan was computed.
+                boolean success = false;
+                try{
+                    configuration.getSyncService().apply(args[1]);
+                    success = true;
+                }
+                finally{
+                    writeMetrics(configuration, APPLY_COMMAND, success);
+                }
                 break;
             }
             case SAVE_COMMAND:{
                 // If the command is "save", it invokes the save method of the SaveService,
                 // passing the file name from the second argument.
                 // This function exports the contents of the database table to an XML file.
-                saveService.save(args[1]);
+                boolean success = false;
+                try{
+                    configuration.getSaveService().save(args[1]);
+                    success = true;
+                }
+                finally{
+                    writeMetrics(configuration, SAVE_COMMAND, success);
+                }
+                break;
+            }
+            case CONVERT_COMMAND:{
+                // If the command is "convert", it converts the job file from the second argument
+                // into the file from the third argument, in the formats given by the file names.
+                boolean success = false;
+                try{
+                    configuration.getConvertService().convert(args[1], args[2]);
+                    success = true;
+                }
+                finally{
+                    writeMetrics(configuration, CONVERT_COMMAND, success);
+                }
+                break;
+            }
+            case BENCH_COMMAND:{
+                // If the command is "bench", it measures sync and save runs with the "bench.*" properties,
+                // in a separate database because the table is emptied, and saves the results to the file.
+                try (Configuration benchConfiguration = configuration.forBenchmark()) {
+                    benchConfiguration.getBenchService().run(args[1]);
+                }
                 break;
             }
             default:
@@ -92,4 +251,49 @@ public class Main {
             }
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * Starts a Java Flight Recorder recording with the "profile" settings of the JDK,
+     * which include GC, lock and I/O events, written to the given file when it is stopped.
+     *
+     * @param file The path of the recording file.
+     * @return The started {@link Recording}.
+     * @throws Exception If the settings cannot be read or the recording cannot be started.
+     */
+    private static Recording startRecording(Path file) throws Exception {
+        Recording recording = new Recording(jdk.jfr.Configuration.getConfiguration("profile"));
+        recording.setName("job-statistic");
+        recording.setToDisk(true);
+        recording.setDestination(file);
+        recording.start();
+
+        logger.info("Started flight recording into file '{}'", file);
+
+        return recording;
+    }
+
+    /**
+     * Writes the metrics of the finished command, if a metrics directory is configured.
+     * A failure to write the metrics is logged and does not change the outcome of the command.
+     *
+     * @param configuration The {@link Configuration} providing the metrics.
+     * @param command The name of the command.
+     * @param success Whether the command completed without an error.
+     */
+    private static void writeMetrics(Configuration configuration, String command, boolean success) {
+        Path path = configuration.getMetricsPath(command);
+        if(path == null){
+            return;
+        }
+
+        Metrics metrics = configuration.getMetrics();
+        metrics.finish(command, success);
+        try{
+            metrics.write(path, configuration.getMetricsFormat());
+            logger.info("Metrics saved to file '{}'", path);
+        }
+        catch (IOException e){
+            logger.warn("Failed to save metrics to file '{}'", path, e);
+        }
+    }
+}
@@ -0,0 +1,603 @@
+package ru.nikita_sotnikov;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.regex.Pattern;
+
+/**
+ * Fast streaming reader of job XML files that scans the memory-mapped UTF-8 bytes of the file directly,
+ * without a general-purpose XML parser. Only the fixed schema is recognized: an optional XML declaration
+ * of version 1.0 in UTF-8, the "jobs" root element and "job" elements with the "depCode", "depJob"
+ * and "description" fields, all without attributes. The bytes of a field are decoded only once,
+ * together with the predefined entities and character references.
+ * <p>
+ * Anything outside of this fast path, such as CDATA sections, comments, processing instructions, a DTD,
+ * attributes and namespaces, other encodings, malformed UTF-8 or a well-formedness error, is left to the standard
+ * {@link JobXmlReader}: it reopens the file, skips the jobs already returned and continues from there,
+ * so the jobs and the reported errors are exactly those of the standard parser.
+ * Files larger than 2 GB, which cannot be mapped into a single buffer, are read by the standard parser from the start,
+ * as are compressed files, whose first bytes are not XML.
+ * </p>
+ */
+public class MappedJobReader implements JobReader {
+    private static final Logger log = LoggerFactory.getLogger(MappedJobReader.class);
+    private static final int MAX_DECLARATION_LENGTH = 256;
+    private static final long LOW_BITS = 0x0101010101010101L;
+    private static final long HIGH_BITS = 0x8080808080808080L;
+    private static final int MAX_REFERENCE_LENGTH = 10; // "&#x10FFFF;" is the longest supported reference
+    private static final Pattern DECLARATION = Pattern.compile(
+            "<\\?xml\\s+version\\s*=\\s*([\"'])1\\.0\\1(?:\\s+encoding\\s*=\\s*([\"'])(?i:UTF-8)\\2)?(?:\\s+standalone\\s*=\\s*([\"'])(?:yes|no)\\3)?\\s*\\?>");
+    private static final byte[] BOM = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+    private static final byte[] DECLARATION_START = bytes("<?xml");
+    private static final byte[] JOBS = bytes("jobs");
+    private static final byte[] JOB = bytes("job");
+    private static final byte[] DEP_CODE = bytes("depCode");
+    private static final byte[] DEP_JOB = bytes("depJob");
+    private static final byte[] DESCRIPTION = bytes("description");
+
+    private final String fileName;
+    private final ByteBuffer buffer;
+    private final int limit;
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder();
+    private byte[] text = new byte[1024];
+    private int length; // The number of decoded bytes of the current field in the text
+    private int position;
+    private long count;
+    private boolean started;
+    private boolean finished;
+    private JobReader fallback;
+
+    /**
+     * Thrown when the content is outside the fast path and has to be read by the standard parser.
+     * A single instance without a stack trace is reused, since it is a signal rather than an error.
+     */
+    private static class Unsupported extends Exception {
+        private static final Unsupported INSTANCE = new Unsupported();
+
+        private Unsupported() {
+            super(null, null, false, false);
+        }
+    }
+
+    /**
+     * Constructs a new MappedJobReader over the mapped content of the file.
+     *
+     * @param fileName The path to the XML file, reopened by the standard parser if needed.
+     * @param buffer The mapped content of the whole file.
+     */
+    private MappedJobReader(String fileName, ByteBuffer buffer) {
+        this.fileName = fileName;
+        this.buffer = buffer;
+        this.limit = buffer.limit();
+    }
+
+    /**
+     * Opens the specified XML file for fast streaming reading.
+     * The file is mapped into memory, so it is not copied into the heap.
+     *
+     * @param fileName The path to the XML file.
+     * @return A new {@link JobReader} positioned at the beginning of the file; a {@link JobXmlReader}
+     * if the file is too large to be mapped.
+     * @throws Exception If the file cannot be opened.
+     */
+    public static JobReader open(String fileName) throws Exception {
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if(size <= Integer.MAX_VALUE){
+                return new MappedJobReader(fileName, channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+            }
+        }
+        return JobXmlReader.open(fileName);
+    }
+
+    /**
+     * Reads the next "job" element.
+     *
+     * @return The next validated {@link Job}, or {@code null} if the root element is closed.
+     * @throws Exception If the XML structure or the job fields are invalid.
+     */
+    @Override
+    public Job read() throws Exception {
+        Job job = new Job();
+        return read(job) ? job : null;
+    }
+
+    /**
+     * Reads the next "job" element into the given job,
+     * so that a single {@link Job} object can be reused for all elements.
+     *
+     * @param job The job whose fields are replaced with the fields of the element.
+     * @return {@code true} if a job is read; {@code false} if the root element is closed.
+     * @throws Exception If the XML structure or the job fields are invalid.
+     */
+    @Override
+    public boolean read(Job job) throws Exception {
+        if(fallback == null && !finished){
+            try{
+                if(!started){
+                    readProlog();
+                    started = true;
+                }
+                if(readJob(job)){
+                    XmlParser.checkJob(job); // Validate job fields based on database column constraints
+                    count++;
+                    return true;
+                }
+                finished = true;
+                return false;
+            }
+            catch(Unsupported e){
+                fallBack();
+            }
+        }
+
+        return fallback != null && fallback.read(job);
+    }
+
+    /**
+     * Closes the standard parser, if the file is read by it. The mapping is released by the garbage collector.
+     *
+     * @throws IOException If the standard parser cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        if(fallback != null){
+            fallback.close();
+        }
+    }
+
+    /**
+     * Continues reading the file with the standard parser after the jobs already returned.
+     *
+     * @throws Exception If the file cannot be reopened.
+     */
+    private void fallBack() throws Exception {
+        log.info("File '{}' is outside the fast path at byte {}, reading it with the standard parser after {} jobs",
+                fileName, position, count);
+
+        fallback = JobXmlReader.open(fileName);
+        Job skipped = new Job();
+        for(long i = 0; i < count; i++){
+            fallback.read(skipped); // The same jobs as already returned, so they are valid
+        }
+    }
+
+    /**
+     * Skips the byte order mark and the XML declaration and reads the start tag of the root element.
+     *
+     * @throws Unsupported If the prolog or the root element is outside the fast path.
+     */
+    private void readProlog() throws Unsupported {
+        if(matches(position, BOM)){
+            position += BOM.length;
+        }
+        if(matches(position, DECLARATION_START)){
+            int end = position;
+            int maxEnd = Math.min(limit - 1, position + MAX_DECLARATION_LENGTH);
+            while(end < maxEnd && !(buffer.get(end) == '?' && buffer.get(end + 1) == '>')){
+                end++;
+            }
+            if(end >= maxEnd || !DECLARATION.matcher(ascii(position, end + 2)).matches()){
+                throw Unsupported.INSTANCE;
+            }
+            position = end + 2;
+        }
+
+        skipWhitespace();
+        if(!isStartTag(JOBS) || readStartTag(JOBS)){
+            throw Unsupported.INSTANCE; // An empty root element is left to the standard parser as well
+        }
+    }
+
+    /**
+     * Reads the next "job" element, or the end tag of the root element and the end of the file.
+     *
+     * @param job The {@link Job} object cleared and populated with data from the child elements.
+     * @return {@code true} if a job is read; {@code false} if the root element is closed.
+     * @throws Unsupported If the content is outside the fast path.
+     */
+    private boolean readJob(Job job) throws Unsupported {
+        skipWhitespace();
+        if(at(position) != '<'){
+            throw Unsupported.INSTANCE;
+        }
+        if(at(position + 1) == '/'){
+            readEndTag(JOBS);
+            skipWhitespace();
+            if(position < limit){
+                throw Unsupported.INSTANCE; // Trailing comments and processing instructions
+            }
+            return false;
+        }
+        if(!isStartTag(JOB) || readStartTag(JOB)){
+            throw Unsupported.INSTANCE;
+        }
+
+        job.setId(0);
+        job.setDepCode(null);
+        job.setDepJob(null);
+        job.setDescription(null);
+        job.setDescriptionHash(null);
+
+        while(true){
+            skipWhitespace();
+            if(at(position) != '<'){
+                throw Unsupported.INSTANCE;
+            }
+            if(at(position + 1) == '/'){
+                readEndTag(JOB);
+                return true;
+            }
+
+            if(job.getDepCode() == null && isStartTag(DEP_CODE)){
+                job.setDepCode(readField(DEP_CODE));
+            }
+            else if(job.getDepJob() == null && isStartTag(DEP_JOB)){
+                job.setDepJob(readField(DEP_JOB));
+            }
+            else if(job.getDescription() == null && isStartTag(DESCRIPTION)){
+                job.setDescription(readField(DESCRIPTION));
+            }
+            else{
+                throw Unsupported.INSTANCE; // Duplicate or not supported fields are reported by the standard parser
+            }
+        }
+    }
+
+    /**
+     * Reads a field element with its text content.
+     *
+     * @param name The name of the field element at the current position.
+     * @return The decoded text content of the element.
+     * @throws Unsupported If the content of the element is outside the fast path.
+     */
+    private String readField(byte[] name) throws Unsupported {
+        if(readStartTag(name)){
+            return "";
+        }
+
+        length = 0;
+        boolean ascii = true;
+        int start = position;
+        int run = position;
+        while(true){
+            if(position + Long.BYTES <= limit){
+                long word = buffer.getLong(position);
+                if(isPlain(word)){
+                    ascii &= (word & HIGH_BITS) == 0;
+                    position += Long.BYTES;
+                    continue;
+                }
+            }
+
+            byte b = at(position);
+            if(b < 0){
+                ascii = false;
+            }
+            else if(b < '@'){ // All the bytes that need attention are below '@'
+                if(b == '<' || b == '&'){
+                    append(run, position - run);
+                    if(b == '<'){
+                        break;
+                    }
+                    ascii &= readReference();
+                    run = position;
+                    continue;
+                }
+                if(b == '>' && position - start >= 2 && buffer.get(position - 1) == ']' && buffer.get(position - 2) == ']'){
+                    throw Unsupported.INSTANCE; // "]]>" is not allowed in the text
+                }
+                if(b < ' ' && b != '\t' && b != '\n'){
+                    throw Unsupported.INSTANCE; // Carriage returns are normalized and other control characters are invalid
+                }
+            }
+            position++;
+        }
+
+        readEndTag(name);
+        return decode(ascii);
+    }
+
+    /**
+     * Decodes an entity or character reference at the current position and appends its UTF-8 bytes to the text.
+     *
+     * @return {@code true} if the referenced character is ASCII.
+     * @throws Unsupported If the reference is not a predefined entity or a valid character reference.
+     */
+    private boolean readReference() throws Unsupported {
+        int end = position + 1;
+        int maxEnd = Math.min(limit, position + MAX_REFERENCE_LENGTH);
+        while(end < maxEnd && buffer.get(end) != ';'){
+            end++;
+        }
+        if(end >= maxEnd){
+            throw Unsupported.INSTANCE;
+        }
+
+        String reference = ascii(position + 1, end);
+        int codePoint = switch(reference){
+            case "lt" -> '<';
+            case "gt" -> '>';
+            case "amp" -> '&';
+            case "quot" -> '"';
+            case "apos" -> '\'';
+            default -> parseCharacterReference(reference);
+        };
+        position = end + 1;
+
+        ensureCapacity(4);
+        if(codePoint < 0x80){
+            text[length++] = (byte) codePoint;
+            return true;
+        }
+        if(codePoint < 0x800){
+            text[length++] = (byte) (0xC0 | codePoint >> 6);
+        }
+        else{
+            if(codePoint < 0x10000){
+                text[length++] = (byte) (0xE0 | codePoint >> 12);
+            }
+            else{
+                text[length++] = (byte) (0xF0 | codePoint >> 18);
+                text[length++] = (byte) (0x80 | codePoint >> 12 & 0x3F);
+            }
+            text[length++] = (byte) (0x80 | codePoint >> 6 & 0x3F);
+        }
+        text[length++] = (byte) (0x80 | codePoint & 0x3F);
+        return false;
+    }
+
+    /**
+     * Parses a decimal or hexadecimal character reference.
+     *
+     * @param reference The reference between '&amp;' and ';'.
+     * @return The referenced code point.
+     * @throws Unsupported If the reference is malformed or refers to a character not allowed in XML.
+     */
+    private static int parseCharacterReference(String reference) throws Unsupported {
+        boolean hex = reference.startsWith("#x");
+        int digits = hex ? 2 : 1;
+        if(!reference.startsWith("#") || reference.length() == digits){
+            throw Unsupported.INSTANCE;
+        }
+
+        int codePoint = 0;
+        for(int i = digits; i < reference.length(); i++){
+            int digit = Character.digit(reference.charAt(i), hex ? 16 : 10);
+            if(digit < 0 || reference.charAt(i) > 'f'){ // Only ASCII digits
+                throw Unsupported.INSTANCE;
+            }
+            codePoint = codePoint * (hex ? 16 : 10) + digit;
+        }
+
+        if(!isXmlCharacter(codePoint)){
+            throw Unsupported.INSTANCE;
+        }
+        return codePoint;
+    }
+
+    /**
+     * Checks whether none of the eight bytes of the word needs attention in the text,
+     * i.e. none of them is '&lt;', '&amp;', '&gt;' or a control character.
+     *
+     * @param word The eight bytes.
+     * @return {@code true} if all the bytes can be copied as they are.
+     */
+    private static boolean isPlain(long word) {
+        long controls = ~word & ~word << 1 & ~word << 2 & HIGH_BITS; // The three high bits of a byte below ' ' are clear
+        return (controls | zeroBytes(word ^ LOW_BITS * '<') | zeroBytes(word ^ LOW_BITS * '&') | zeroBytes(word ^ LOW_BITS * '>')) == 0;
+    }
+
+    /**
+     * Detects zero bytes in a word.
+     *
+     * @param word The eight bytes.
+     * @return A non-zero value if any of the bytes is zero.
+     */
+    private static long zeroBytes(long word) {
+        return (word - LOW_BITS) & ~word & HIGH_BITS;
+    }
+
+    /**
+     * Checks whether the code point is a character allowed in XML 1.0 documents.
+     *
+     * @param codePoint The code point, at most 8 digits long.
+     * @return {@code true} if the character is allowed.
+     */
+    private static boolean isXmlCharacter(int codePoint) {
+        return codePoint == '\t' || codePoint == '\n' || codePoint == '\r'
+                || codePoint >= 0x20 && codePoint <= 0xD7FF
+                || codePoint >= 0xE000 && codePoint <= 0xFFFD
+                || codePoint >= 0x10000 && codePoint <= 0x10FFFF;
+    }
+
+    /**
+     * Creates the string of the decoded bytes of the text.
+     *
+     * @param ascii Whether all bytes are ASCII, so they need no UTF-8 decoding.
+     * @return The text.
+     * @throws Unsupported If the bytes are not valid UTF-8 or contain characters not allowed in XML.
+     */
+    private String decode(boolean ascii) throws Unsupported {
+        if(ascii){
+            return new String(text, 0, length, StandardCharsets.ISO_8859_1);
+        }
+
+        String value = new String(text, 0, length, StandardCharsets.UTF_8);
+        if(value.indexOf('\uFFFE') >= 0 || value.indexOf('\uFFFF') >= 0){
+            throw Unsupported.INSTANCE;
+        }
+        if(value.indexOf('\uFFFD') >= 0){
+            // Malformed bytes are replaced silently, so only a strict decoding tells them from a real replacement character
+            try{
+                decoder.decode(ByteBuffer.wrap(text, 0, length));
+            }
+            catch(CharacterCodingException e){
+                throw Unsupported.INSTANCE;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Checks whether a start tag of the element begins at the current position.
+     *
+     * @param name The name of the element.
+     * @return {@code true} if the name is followed by the end of the tag or whitespace.
+     */
+    private boolean isStartTag(byte[] name) {
+        int end = position + 1 + name.length;
+        if(end >= limit || buffer.get(position) != '<' || !matches(position + 1, name)){
+            return false;
+        }
+        byte b = buffer.get(end);
+        return b == '>' || b == '/' || isWhitespace(b);
+    }
+
+    /**
+     * Reads a start tag without attributes, whose name has been checked by {@link #isStartTag(byte[])}.
+     *
+     * @param name The name of the element.
+     * @return {@code true} if the element is empty, i.e. the tag ends with "/&gt;".
+     * @throws Unsupported If the tag has attributes.
+     */
+    private boolean readStartTag(byte[] name) throws Unsupported {
+        position += 1 + name.length;
+        skipWhitespace();
+        if(at(position) == '>'){
+            position++;
+            return false;
+        }
+        if(at(position) == '/' && at(position + 1) == '>'){
+            position += 2;
+            return true;
+        }
+        throw Unsupported.INSTANCE;
+    }
+
+    /**
+     * Reads the end tag of the element.
+     *
+     * @param name The name of the element.
+     * @throws Unsupported If there is no such end tag at the current position.
+     */
+    private void readEndTag(byte[] name) throws Unsupported {
+        if(at(position) != '<' || at(position + 1) != '/' || !matches(position + 2, name)){
+            throw Unsupported.INSTANCE;
+        }
+        position += 2 + name.length;
+        skipWhitespace();
+        if(at(position) != '>'){
+            throw Unsupported.INSTANCE;
+        }
+        position++;
+    }
+
+    /**
+     * Appends the bytes of the buffer to the text.
+     *
+     * @param from The position of the first byte in the buffer.
+     * @param count The number of bytes.
+     */
+    private void append(int from, int count) {
+        ensureCapacity(count);
+        buffer.get(from, text, length, count);
+        length += count;
+    }
+
+    /**
+     * Makes room for the given number of bytes in the text.
+     *
+     * @param count The number of bytes to be appended.
+     */
+    private void ensureCapacity(int count) {
+        if(text.length - length < count){
+            text = Arrays.copyOf(text, Math.max(text.length * 2, length + count));
+        }
+    }
+
+    /**
+     * Returns the byte at the position.
+     *
+     * @param index The position in the buffer.
+     * @return The byte.
+     * @throws Unsupported If the file ends before the position, which the standard parser reports as an error.
+     */
+    private byte at(int index) throws Unsupported {
+        if(index >= limit){
+            throw Unsupported.INSTANCE;
+        }
+        return buffer.get(index);
+    }
+
+    /**
+     * Skips XML whitespace at the current position.
+     */
+    private void skipWhitespace() {
+        while(position < limit && isWhitespace(buffer.get(position))){
+            position++;
+        }
+    }
+
+    /**
+     * Checks whether the bytes at the position are equal to the pattern.
+     *
+     * @param index The position in the buffer.
+     * @param pattern The expected bytes.
+     * @return {@code true} if the buffer contains the pattern at the position.
+     */
+    private boolean matches(int index, byte[] pattern) {
+        if(index + pattern.length > limit){
+            return false;
+        }
+        for(int i = 0; i < pattern.length; i++){
+            if(buffer.get(index + i) != pattern[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Creates a string of the bytes between the positions, which are expected to be ASCII.
+     *
+     * @param from The position of the first byte.
+     * @param to The position after the last byte.
+     * @return The string.
+     */
+    private String ascii(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        buffer.get(from, bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Checks whether the byte is XML whitespace.
+     *
+     * @param b The byte to be checked.
+     * @return {@code true} for space, tab, carriage return and line feed.
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    /**
+     * Encodes an ASCII string.
+     *
+     * @param value The string.
+     * @return The bytes of the string.
+     */
+    private static byte[] bytes(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+}
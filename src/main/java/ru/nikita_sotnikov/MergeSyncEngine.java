@@ -0,0 +1,113 @@
+package ru.nikita_sotnikov;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Computes the synchronization changes with a sorted merge join instead of two in-memory maps.
+ * The jobs of the XML file (sorted with {@link ExternalJobSorter} if needed) and the rows of the table,
+ * read with a cursor in the same order, are walked side by side, so only the changes are kept in memory.
+ * The resulting lists contain the same jobs as the ones computed by the hash engine of {@link SyncService}.
+ */
+public class MergeSyncEngine {
+    private static final Logger log = LoggerFactory.getLogger(MergeSyncEngine.class);
+
+    private final DBOperations dbOperations;
+    private final ExternalJobSorter sorter;
+    private final int fetchSize;
+
+    /**
+     * Constructs a new MergeSyncEngine.
+     *
+     * @param dbOperations An instance of {@link DBOperations} to read the table in key order.
+     * @param sorter An instance of {@link ExternalJobSorter} to read the XML file in key order.
+     * @param fetchSize The number of rows fetched from the database in one round-trip.
+     */
+    public MergeSyncEngine(DBOperations dbOperations, ExternalJobSorter sorter, int fetchSize) {
+        this.dbOperations = dbOperations;
+        this.sorter = sorter;
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * Computes the jobs to be inserted, updated and deleted to make the table match the XML file.
+     *
+     * @param fileName The name of the XML file.
+     * @return The {@link SyncService.Changes} to be applied to the database.
+     * @throws Exception If an error occurs during XML parsing or database operations,
+     * or if duplicate natural keys are found in the XML file.
+     */
+    public SyncService.Changes diff(String fileName) throws Exception {
+        JobEvents.DiffEvent event = new JobEvents.DiffEvent();
+        event.begin();
+
+        List<Job> insertList = new ArrayList<>();
+        List<Job> updateList = new ArrayList<>();
+        List<Job> deleteList = new ArrayList<>();
+
+        try (JobReader fileJobs = sorter.open(fileName)) {
+            Cursor file = new Cursor(fileJobs);
+
+            dbOperations.forEachJobByKey(fetchSize, jobFromDB -> {
+                while(file.current != null && JobKey.JOB_ORDER.compare(file.current, jobFromDB) < 0){
+                    insertList.add(file.current); // Job is new, add to insert list
+                    file.advance();
+                }
+
+                if(file.current != null && JobKey.JOB_ORDER.compare(file.current, jobFromDB) == 0){
+                    if(!JobHashes.sameDescription(file.current, jobFromDB, dbOperations.isDescriptionHashed())){
+                        file.current.setId(jobFromDB.getId());
+                        file.current.setDescriptionHash(JobHashes.descriptionHash(jobFromDB)); // The base state of the row
+                        updateList.add(file.current);
+                    }
+                    file.advance();
+                }
+                else{
+                    deleteList.add(jobFromDB); // Job is not in XML
+                }
+            });
+
+            while(file.current != null){
+                insertList.add(file.current);
+                file.advance();
+            }
+
+            log.info("Merged {} jobs from file '{}'", file.count, fileName);
+
+            SyncService.Changes changes = new SyncService.Changes(insertList, updateList, deleteList, file.count);
+            event.end();
+            JobEvents.commitDiff(event, "merge", changes);
+
+            return changes;
+        }
+    }
+
+    /**
+     * Keeps the current job of the sorted file while the table rows are walked.
+     */
+    private static class Cursor {
+        private final JobReader reader;
+        private Job current;
+        private long count;
+
+        Cursor(JobReader reader) throws Exception {
+            this.reader = reader;
+            advance();
+        }
+
+        /**
+         * Moves to the next job of the file.
+         *
+         * @throws Exception If the next job cannot be read.
+         */
+        void advance() throws Exception {
+            current = reader.read();
+            if(current != null){
+                count++;
+            }
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package ru.nikita_sotnikov;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Collects the metrics of a single run of the application: counters, gauges and timers,
+ * optionally with labels, e.g. the duration of every phase of the synchronization.
+ * At the end of the run the metrics are written in the Prometheus text format,
+ * to be picked up by the textfile collector of the node exporter, or as JSON.
+ * <p>
+ * All metric names get the "job_statistic_" prefix. Counters get the "_total" suffix
+ * and timers are written as summaries in seconds with an additional "_max" gauge.
+ * </p>
+ */
+public class Metrics {
+    private static final String PREFIX = "job_statistic_";
+
+    private final Map<String, Family> families = new LinkedHashMap<>();
+
+    /**
+     * Output formats of {@link #write(Path, Format)}.
+     */
+    public enum Format {
+        /**
+         * The Prometheus text exposition format.
+         */
+        PROMETHEUS,
+        /**
+         * A JSON object with a member for every metric.
+         */
+        JSON
+    }
+
+    /**
+     * Types of the metrics.
+     */
+    private enum Type {
+        COUNTER, GAUGE, TIMER
+    }
+
+    /**
+     * The samples of a metric with the same name and different labels.
+     */
+    private static class Family {
+        private final Type type;
+        private final String help;
+        private final Map<String, Sample> samples = new LinkedHashMap<>();
+
+        Family(Type type, String help) {
+            this.type = type;
+            this.help = help;
+        }
+    }
+
+    /**
+     * The value of a metric with specific labels. Timers use all fields, counters and gauges only the value.
+     */
+    private static class Sample {
+        private final String[] labels;
+        private double value;
+        private long count;
+        private double max;
+
+        Sample(String[] labels) {
+            this.labels = labels;
+        }
+    }
+
+    /**
+     * Adds the delta to a counter.
+     *
+     * @param name The name of the metric, without the prefix and the "_total" suffix.
+     * @param help The description of the metric.
+     * @param delta The value added to the counter.
+     * @param labels The names and values of the labels, in pairs.
+     */
+    public synchronized void increment(String name, String help, long delta, String... labels) {
+        sample(name, Type.COUNTER, help, labels).value += delta;
+    }
+
+    /**
+     * Sets the value of a gauge.
+     *
+     * @param name The name of the metric, without the prefix.
+     * @param help The description of the metric.
+     * @param value The new value of the gauge.
+     * @param labels The names and values of the labels, in pairs.
+     */
+    public synchronized void set(String name, String help, double value, String... labels) {
+        sample(name, Type.GAUGE, help, labels).value = value;
+    }
+
+    /**
+     * Records a duration in a timer.
+     *
+     * @param name The name of the metric, without the prefix, e.g. "phase_seconds".
+     * @param help The description of the metric.
+     * @param nanos The duration in nanoseconds.
+     * @param labels The names and values of the labels, in pairs.
+     */
+    public synchronized void record(String name, String help, long nanos, String... labels) {
+        Sample sample = sample(name, Type.TIMER, help, labels);
+        double seconds = nanos / 1e9;
+        sample.value += seconds;
+        sample.count++;
+        sample.max = Math.max(sample.max, seconds);
+    }
+
+    /**
+     * Records the duration of a phase of a command, e.g. "parse", "load", "diff" or "apply" of "sync".
+     *
+     * @param command The command: "sync" or "save".
+     * @param phase The name of the phase.
+     * @param nanos The duration in nanoseconds.
+     */
+    public void recordPhase(String command, String phase, long nanos) {
+        record("phase_seconds", "Duration of the phases of the run in seconds.", nanos, "command", command, "phase", phase);
+    }
+
+    /**
+     * Counts the jobs processed by a command.
+     *
+     * @param command The command: "sync" or "save".
+     * @param kind The kind of the jobs: "parsed", "loaded", "inserted", "updated", "deleted" or "saved".
+     * @param rows The number of jobs.
+     */
+    public void countRows(String command, String kind, long rows) {
+        increment("rows", "Number of jobs processed by the run, by kind.", rows, "command", command, "kind", kind);
+    }
+
+    /**
+     * Records the duration of a batch sent to the database.
+     *
+     * @param operation The operation of the batch: "insert", "update" or "delete".
+     * @param nanos The duration in nanoseconds.
+     */
+    public void recordBatch(String operation, long nanos) {
+        record("batch_seconds", "Duration of the batches sent to the database in seconds.", nanos, "operation", operation);
+    }
+
+    /**
+     * Counts the bytes of the XML file read or written by a command.
+     *
+     * @param command The command: "sync" or "save".
+     * @param direction The direction: "read" or "written".
+     * @param bytes The number of bytes.
+     */
+    public void countBytes(String command, String direction, long bytes) {
+        increment("file_bytes", "Size of the XML file read or written by the run.", bytes, "command", command, "direction", direction);
+    }
+
+    /**
+     * Records the outcome of the run, its end time and the peak heap usage.
+     *
+     * @param command The command: "sync" or "save".
+     * @param success Whether the command completed without an error.
+     */
+    public void finish(String command, boolean success) {
+        set("last_run_success", "Whether the last run completed without an error.", success ? 1 : 0, "command", command);
+        set("last_run_timestamp_seconds", "End time of the last run as a Unix timestamp.", System.currentTimeMillis() / 1000.0, "command", command);
+        set("peak_heap_bytes", "Peak heap usage of the last run.", peakHeapBytes(), "command", command);
+    }
+
+    /**
+     * Returns the sample of the metric with the labels, creating it if needed.
+     *
+     * @param name The name of the metric.
+     * @param type The type of the metric.
+     * @param help The description of the metric.
+     * @param labels The names and values of the labels, in pairs.
+     * @return The {@link Sample} of the metric.
+     * @throws IllegalArgumentException If the metric is already registered with another type.
+     */
+    private Sample sample(String name, Type type, String help, String[] labels) {
+        Family family = families.computeIfAbsent(name, _ -> new Family(type, help));
+        if(family.type != type){
+            throw new IllegalArgumentException(String.format("Metric '%s' is a %s.", name, family.type));
+        }
+        return family.samples.computeIfAbsent(labels(labels), _ -> new Sample(labels.clone()));
+    }
+
+    /**
+     * Writes the metrics to the file. The content is written to a temporary file first
+     * and moved into place, so a scraper never reads a partially written file.
+     *
+     * @param path The path of the file.
+     * @param format The {@link Format} of the file.
+     * @throws IOException If the file cannot be written.
+     */
+    public synchronized void write(Path path, Format format) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Files.createDirectories(directory);
+        Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+
+        try {
+            try (Writer out = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                if(format == Format.JSON){
+                    writeJson(out);
+                }
+                else{
+                    writePrometheus(out);
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Writes the metrics in the Prometheus text exposition format.
+     *
+     * @param out The writer receiving the metrics.
+     * @throws IOException If the metrics cannot be written.
+     */
+    private void writePrometheus(Writer out) throws IOException {
+        for(var entry : families.entrySet()){
+            Family family = entry.getValue();
+            String name = PREFIX + entry.getKey();
+
+            switch(family.type){
+                case COUNTER -> {
+                    writeHeader(out, name + "_total", "counter", family.help);
+                    for(var sample : family.samples.entrySet()){
+                        writeSample(out, name + "_total", sample.getKey(), sample.getValue().value);
+                    }
+                }
+                case GAUGE -> {
+                    writeHeader(out, name, "gauge", family.help);
+                    for(var sample : family.samples.entrySet()){
+                        writeSample(out, name, sample.getKey(), sample.getValue().value);
+                    }
+                }
+                case TIMER -> {
+                    writeHeader(out, name, "summary", family.help);
+                    for(var sample : family.samples.entrySet()){
+                        writeSample(out, name + "_count", sample.getKey(), sample.getValue().count);
+                        writeSample(out, name + "_sum", sample.getKey(), sample.getValue().value);
+                    }
+                    writeHeader(out, name + "_max", "gauge", family.help + " Maximum.");
+                    for(var sample : family.samples.entrySet()){
+                        writeSample(out, name + "_max", sample.getKey(), sample.getValue().max);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the HELP and TYPE lines of a metric.
+     *
+     * @param out The writer receiving the metrics.
+     * @param name The full name of the metric.
+     * @param type The Prometheus type of the metric.
+     * @param help The description of the metric.
+     * @throws IOException If the lines cannot be written.
+     */
+    private static void writeHeader(Writer out, String name, String type, String help) throws IOException {
+        out.write("# HELP " + name + " " + help.replace("\\", "\\\\").replace("\n", "\\n") + "\n");
+        out.write("# TYPE " + name + " " + type + "\n");
+    }
+
+    /**
+     * Writes a single sample line.
+     *
+     * @param out The writer receiving the metrics.
+     * @param name The full name of the metric.
+     * @param labels The formatted labels of the sample.
+     * @param value The value of the sample.
+     * @throws IOException If the line cannot be written.
+     */
+    private static void writeSample(Writer out, String name, String labels, double value) throws IOException {
+        out.write(name + (labels.isEmpty() ? "" : "{" + labels + "}") + " " + format(value) + "\n");
+    }
+
+    /**
+     * Writes the metrics as a JSON object: every metric is an array of samples with their labels.
+     *
+     * @param out The writer receiving the metrics.
+     * @throws IOException If the metrics cannot be written.
+     */
+    private void writeJson(Writer out) throws IOException {
+        out.write("{");
+        boolean firstFamily = true;
+        for(var entry : families.entrySet()){
+            Family family = entry.getValue();
+            out.write(firstFamily ? "\n" : ",\n");
+            firstFamily = false;
+            out.write("  \"" + PREFIX + entry.getKey() + "\": [");
+
+            boolean firstSample = true;
+            for(var sample : family.samples.entrySet()){
+                out.write(firstSample ? "\n" : ",\n");
+                firstSample = false;
+                Sample value = sample.getValue();
+                out.write("    {\"labels\": {");
+                for(int i = 0; i + 1 < value.labels.length; i += 2){
+                    out.write((i == 0 ? "" : ", ") + quote(value.labels[i]) + ": " + quote(value.labels[i + 1]));
+                }
+                out.write("}, ");
+                if(family.type == Type.TIMER){
+                    out.write("\"count\": " + value.count + ", \"sumSeconds\": " + format(value.value) + ", \"maxSeconds\": " + format(value.max) + "}");
+                }
+                else{
+                    out.write("\"value\": " + format(value.value) + "}");
+                }
+            }
+            out.write(firstSample ? "]" : "\n  ]");
+        }
+        out.write(families.isEmpty() ? "}\n" : "\n}\n");
+    }
+
+    /**
+     * Formats the labels as {@code name="value"} pairs, escaping the values.
+     *
+     * @param labels The names and values of the labels, in pairs.
+     * @return The comma-separated labels.
+     */
+    private static String labels(String[] labels) {
+        StringBuilder result = new StringBuilder();
+        for(int i = 0; i + 1 < labels.length; i += 2){
+            if(!result.isEmpty()){
+                result.append(',');
+            }
+            result.append(labels[i]).append("=\"")
+                    .append(labels[i + 1].replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                    .append('"');
+        }
+        return result.toString();
+    }
+
+    /**
+     * Quotes a value as a JSON string.
+     *
+     * @param value The value.
+     * @return The JSON string literal.
+     */
+    private static String quote(String value) {
+        StringBuilder quoted = new StringBuilder("\"");
+        for(char c : value.toCharArray()){
+            switch(c){
+                case '"' -> quoted.append("\\\"");
+                case '\\' -> quoted.append("\\\\");
+                default -> {
+                    if(c < 0x20){
+                        quoted.append(String.format("\\u%04x", (int) c));
+                    }
+                    else{
+                        quoted.append(c);
+                    }
+                }
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    /**
+     * Formats a value, writing whole numbers without a fractional part.
+     *
+     * @param value The value.
+     * @return The formatted value.
+     */
+    private static String format(double value) {
+        return value == Math.rint(value) && Math.abs(value) < 1e15 ? Long.toString((long) value) : String.format(Locale.ROOT, "%.6f", value);
+    }
+
+    /**
+     * Resets the peak usage of the heap memory pools, see {@link #peakHeapBytes()}.
+     */
+    public static void resetPeakHeap() {
+        heapPools().forEach(MemoryPoolMXBean::resetPeakUsage);
+    }
+
+    /**
+     * Returns the peak heap usage since the start of the JVM or the last {@link #resetPeakHeap()}:
+     * the sum of the peaks of the heap memory pools, which may be reached at different moments.
+     *
+     * @return The peak heap usage in bytes.
+     */
+    public static long peakHeapBytes() {
+        return heapPools().stream().mapToLong(pool -> pool.getPeakUsage().getUsed()).sum();
+    }
+
+    /**
+     * Returns the memory pools of the heap.
+     *
+     * @return The heap {@link MemoryPoolMXBean}s.
+     */
+    private static List<MemoryPoolMXBean> heapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP)
+                .toList();
+    }
+}
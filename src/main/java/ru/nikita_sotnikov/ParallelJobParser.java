@@ -0,0 +1,380 @@
+package ru.nikita_sotnikov;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.xml.stream.XMLStreamException;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parses large job XML files on several cores.
+ * The memory-mapped file is split into segments at "job" element boundaries, every segment is wrapped
+ * into a synthetic "jobs" element and parsed by its own {@link JobXmlReader} on a fork-join pool,
+ * and the parsed segments are then added to a {@link JobIndex} in document order.
+ * <p>
+ * Since the segments are merged in document order, the reported error (a failed segment or a duplicate key)
+ * is the same one the sequential parsing would report. Files that cannot be split
+ * safely (a DTD, an encoding other than UTF-8, gzip compression, well-formedness errors) are parsed sequentially.
+ * </p>
+ */
+public class ParallelJobParser {
+    private static final Logger log = LoggerFactory.getLogger(ParallelJobParser.class);
+    private static final int SCAN_WINDOW = 64 * 1024;
+    private static final long MAX_SEGMENT_SIZE = 1L << 30; // A mapped buffer cannot exceed 2 GB
+    private static final byte[] JOB_START = "<job".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] JOB_END = "</job>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ROOT_START = "<jobs>".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] ROOT_END = "</jobs>".getBytes(StandardCharsets.US_ASCII);
+    private static final Pattern ENCODING = Pattern.compile("encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+
+    private final int parallelism;
+    private final long minSegmentSize;
+
+    /**
+     * Constructs a new ParallelJobParser.
+     *
+     * @param parallelism The number of threads parsing the segments.
+     * @param minSegmentSize The minimum size of a segment in bytes; smaller files are parsed sequentially.
+     */
+    public ParallelJobParser(int parallelism, long minSegmentSize) {
+        this.parallelism = Math.max(1, parallelism);
+        this.minSegmentSize = Math.max(SCAN_WINDOW, minSegmentSize);
+    }
+
+    /**
+     * The sequential parsing of a file, used for small files and as a fallback.
+     */
+    @FunctionalInterface
+    public interface XmlParserFunction {
+        /**
+         * Parses the file sequentially.
+         *
+         * @param fileName The path to the XML file to be parsed.
+         * @return A {@link JobIndex} of the parsed jobs by their natural key (depCode, depJob).
+         * @throws Exception If an error occurs during XML parsing, if the file format is invalid,
+         * or if duplicate natural keys are found.
+         */
+        JobIndex parse(String fileName) throws Exception;
+    }
+
+    /**
+     * The jobs parsed from a segment, in document order, and the error that stopped its parsing, if any.
+     */
+    private record Segment(List<Job> jobs, Exception error) {}
+
+    /**
+     * Parses the specified XML file, in parallel if it is large enough.
+     *
+     * @param fileName The path to the XML file to be parsed.
+     * @param sequential The sequential parsing used for small files and as a fallback.
+     * @return A {@link JobIndex} of the parsed jobs by their natural key (depCode, depJob).
+     * @throws Exception If an error occurs during XML parsing, if the file format is invalid,
+     * or if duplicate natural keys are found.
+     */
+    public JobIndex parse(String fileName, XmlParserFunction sequential) throws Exception {
+        List<MappedByteBuffer> buffers;
+        try (FileChannel channel = FileChannel.open(Path.of(fileName), StandardOpenOption.READ)) {
+            buffers = split(channel);
+        }
+
+        if(buffers.size() < 2){
+            return sequential.parse(fileName);
+        }
+
+        log.info("Parsing file '{}' in {} segments on {} threads", fileName, buffers.size(), parallelism);
+
+        List<Segment> segments;
+
+        try (ForkJoinPool pool = new ForkJoinPool(parallelism)) {
+            List<ForkJoinTask<Segment>> tasks = new ArrayList<>();
+            for(int i = 0; i < buffers.size(); i++){
+                int index = i;
+                tasks.add(pool.submit(() -> parseSegment(buffers.get(index), index == 0, index == buffers.size() - 1)));
+            }
+
+            segments = new ArrayList<>();
+            for(ForkJoinTask<Segment> task : tasks){
+                try{
+                    segments.add(task.get());
+                }
+                catch(InterruptedException e){
+                    pool.shutdownNow(); // The waiting segments are not parsed
+                    throw e;
+                }
+            }
+        }
+
+        JobIndex jobs = mergeInOrder(fileName, segments, sequential);
+
+        log.info("Parsed {} jobs from file '{}'", jobs.size(), fileName);
+
+        return jobs;
+    }
+
+    /**
+     * Merges the segments into an index in document order, so the first error is reported
+     * exactly as the sequential parsing does.
+     * Well-formedness errors may be caused by an unexpected split, so they are reported by the sequential parsing.
+     *
+     * @param fileName The path to the XML file.
+     * @param segments The parsed segments in document order.
+     * @param sequential The sequential parsing.
+     * @return The {@link JobIndex} of the jobs of all segments.
+     * @throws Exception The first error in document order.
+     */
+    private JobIndex mergeInOrder(String fileName, List<Segment> segments, XmlParserFunction sequential) throws Exception {
+        JobIndex jobs = new JobIndex(segments.stream().mapToInt(segment -> segment.jobs().size()).sum());
+        for(Segment segment : segments){
+            for(Job job : segment.jobs()){
+                XmlParser.putUnique(jobs, job);
+            }
+            if(segment.error() instanceof XMLStreamException){
+                log.info("Segment of file '{}' is not well-formed, parsing sequentially", fileName);
+                return sequential.parse(fileName);
+            }
+            else if(segment.error() != null){
+                throw segment.error();
+            }
+        }
+        return jobs;
+    }
+
+    /**
+     * Parses a single segment wrapped into a synthetic root element and records it as a JFR event.
+     *
+     * @param buffer The bytes of the segment.
+     * @param first Whether the segment starts the file and so contains the real root start tag.
+     * @param last Whether the segment ends the file and so contains the real root end tag.
+     * @return The jobs of the segment and the error that stopped the parsing, if any.
+     */
+    private static Segment parseSegment(ByteBuffer buffer, boolean first, boolean last) {
+        JobEvents.ParseSegmentEvent event = new JobEvents.ParseSegmentEvent();
+        event.begin();
+        int size = buffer.remaining();
+
+        Segment segment = readSegment(buffer, first, last);
+
+        event.end();
+        if(event.shouldCommit()){
+            event.bytes = size;
+            event.rows = segment.jobs().size();
+            event.failed = segment.error() != null;
+            event.commit();
+        }
+
+        return segment;
+    }
+
+    /**
+     * Reads the jobs of a segment, stopping at the first error.
+     *
+     * @param buffer The bytes of the segment.
+     * @param first Whether the segment starts the file and so contains the real root start tag.
+     * @param last Whether the segment ends the file and so contains the real root end tag.
+     * @return The jobs of the segment and the error that stopped the parsing, if any.
+     */
+    private static Segment readSegment(ByteBuffer buffer, boolean first, boolean last) {
+        List<Job> jobs = new ArrayList<>();
+        InputStream content = new ByteBufferInputStream(buffer);
+        InputStream input = new SequenceInputStream(Collections.enumeration(List.of(
+                new ByteArrayInputStream(first ? new byte[0] : ROOT_START),
+                content,
+                new ByteArrayInputStream(last ? new byte[0] : ROOT_END))));
+
+        try (JobXmlReader reader = new JobXmlReader(input)) {
+            Job job;
+            while((job = reader.read()) != null){
+                jobs.add(job);
+            }
+        }
+        catch(Exception e){
+            return new Segment(jobs, e);
+        }
+
+        return new Segment(jobs, null);
+    }
+
+    /**
+     * Splits the file into segments starting at "job" start tags that follow a "job" end tag.
+     *
+     * @param channel The channel of the file.
+     * @return The memory-mapped segments; a single segment if the file is small or cannot be split safely.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private List<MappedByteBuffer> split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int count = (int) Math.min(Math.max(parallelism * 4L, (size + MAX_SEGMENT_SIZE - 1) / MAX_SEGMENT_SIZE), size / minSegmentSize);
+
+        List<MappedByteBuffer> buffers = new ArrayList<>();
+        if(count < 2 || !isSplittable(channel)){
+            return buffers;
+        }
+
+        long start = 0;
+        for(int i = 1; i < count && start < size; i++){
+            long boundary = findBoundary(channel, Math.max(start + 1, size / count * i));
+            if(boundary < 0){
+                break;
+            }
+            if(boundary - start > Integer.MAX_VALUE){
+                return new ArrayList<>();
+            }
+            buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, start, boundary - start));
+            start = boundary;
+        }
+        if(size - start > Integer.MAX_VALUE){
+            return new ArrayList<>();
+        }
+        buffers.add(channel.map(FileChannel.MapMode.READ_ONLY, start, size - start));
+
+        return buffers;
+    }
+
+    /**
+     * Checks the prolog of the file: segments after the first one are read as UTF-8 without a DTD,
+     * so files in other encodings or with a document type declaration are not split.
+     * Compressed files cannot be mapped into segments either.
+     *
+     * @param channel The channel of the file.
+     * @return {@code true} if the file can be split into segments.
+     * @throws IOException If the file cannot be read.
+     */
+    private static boolean isSplittable(FileChannel channel) throws IOException {
+        ByteBuffer head = ByteBuffer.allocate((int) Math.min(channel.size(), 1024));
+        channel.read(head, 0);
+        String prolog = new String(head.array(), 0, head.position(), StandardCharsets.ISO_8859_1);
+
+        if(prolog.startsWith("\u001F\u008B") || prolog.startsWith("\u00FE\u00FF") || prolog.startsWith("\u00FF\u00FE") || prolog.contains("<!DOCTYPE")){
+            return false;
+        }
+        if(prolog.startsWith("<?xml")){
+            Matcher matcher = ENCODING.matcher(prolog.substring(0, Math.max(0, prolog.indexOf("?>"))));
+            if(matcher.find()){
+                String encoding = matcher.group(1).toUpperCase(Locale.ROOT);
+                return encoding.equals("UTF-8") || encoding.equals("UTF8") || encoding.equals("US-ASCII");
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the first "job" start tag at or after the position that directly follows a "job" end tag,
+     * optionally separated by whitespace.
+     *
+     * @param channel The channel of the file.
+     * @param from The position to start searching from.
+     * @return The position of the start tag, or -1 if there is none.
+     * @throws IOException If the file cannot be mapped.
+     */
+    private static long findBoundary(FileChannel channel, long from) throws IOException {
+        long size = channel.size();
+        for(long position = from; position < size; position += SCAN_WINDOW){
+            long windowStart = Math.max(0, position - SCAN_WINDOW);
+            int length = (int) Math.min(size - windowStart, 3L * SCAN_WINDOW);
+            MappedByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, windowStart, length);
+
+            int end = (int) Math.min(length - JOB_START.length - 1, position - windowStart + SCAN_WINDOW);
+            for(int i = (int) (position - windowStart); i < end; i++){
+                if(matches(window, i, JOB_START) && isTagEnd(window.get(i + JOB_START.length)) && followsJobEnd(window, i)){
+                    return windowStart + i;
+                }
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Checks whether the byte ends the name of a start tag.
+     *
+     * @param b The byte after the name.
+     * @return {@code true} for '&gt;', '/' and whitespace.
+     */
+    private static boolean isTagEnd(byte b) {
+        return b == '>' || b == '/' || isWhitespace(b);
+    }
+
+    /**
+     * Checks whether the position is preceded by a "job" end tag and whitespace only.
+     *
+     * @param buffer The bytes of the window.
+     * @param position The position of a "job" start tag in the window.
+     * @return {@code true} if the start tag directly follows a "job" end tag.
+     */
+    private static boolean followsJobEnd(ByteBuffer buffer, int position) {
+        int i = position - 1;
+        while(i >= 0 && isWhitespace(buffer.get(i))){
+            i--;
+        }
+        return i - JOB_END.length + 1 >= 0 && matches(buffer, i - JOB_END.length + 1, JOB_END);
+    }
+
+    /**
+     * Checks whether the bytes at the position are equal to the pattern.
+     *
+     * @param buffer The bytes to be checked.
+     * @param position The position in the buffer.
+     * @param pattern The expected bytes.
+     * @return {@code true} if the buffer contains the pattern at the position.
+     */
+    private static boolean matches(ByteBuffer buffer, int position, byte[] pattern) {
+        for(int i = 0; i < pattern.length; i++){
+            if(buffer.get(position + i) != pattern[i]){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether the byte is XML whitespace.
+     *
+     * @param b The byte to be checked.
+     * @return {@code true} for space, tab, carriage return and line feed.
+     */
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\n' || b == '\r' || b == '\t';
+    }
+
+    /**
+     * An {@link InputStream} reading the remaining bytes of a buffer.
+     */
+    private static class ByteBufferInputStream extends InputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? buffer.get() & 0xFF : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) {
+            if(!buffer.hasRemaining()){
+                return -1;
+            }
+            int count = Math.min(length, buffer.remaining());
+            buffer.get(bytes, offset, count);
+            return count;
+        }
+    }
+}
@@ -9,31 +9,118 @@ import javax.xml.transform.Transformer;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
-import java.io.FileOutputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 
 /**
- * Service class responsible for saving a list of job objects to an XML file.
+ * Service class responsible for saving a list of job objects to an XML file or a binary job file, see {@link JobFormat}.
  */
 public class SaveService {
     private static final Logger log = LoggerFactory.getLogger(SaveService.class);
+    private static final int OUTPUT_BUFFER_SIZE = 256 * 1024;
+    private static final int SEGMENT_BUFFER_SIZE = 16 * 1024 * 1024;
     private final DBOperations dbOperations;
     private final XmlParser xmlParser;
+    private final Engine engine;
+    private final boolean indent;
+    private final int fetchSize;
+    private final int gzipLevel;
+    private final JobFormat format;
+    private final ParallelSettings parallelSettings;
+    private final Metrics metrics;
 
     /**
-     * Constructs a new SaveService with the specified database operations and XML parser.
+     * Export engines supported by {@link #save(String)}.
+     */
+    public enum Engine {
+        /**
+         * Loads the whole table, builds a DOM document and serializes it with a {@link Transformer}.
+         */
+        DOM,
+        /**
+         * Writes each row to the file with a {@link JobXmlWriter} as soon as it is read from the database.
+         */
+        STREAM,
+        /**
+         * Reads ID ranges of the table on several connections sharing one snapshot and serializes them on several threads,
+         * see {@link ParallelSettings}. Binary files are written by the streaming engine, unless they are written in parts,
+         * since the dictionary of a binary file is built while it is written.
+         */
+        PARALLEL
+    }
+
+    /**
+     * Settings of the parallel engine.
+     * <p>
+     * A single file is assembled from segments: the ID ranges of at most {@code segmentSize} jobs are serialized
+     * into memory buffers concurrently and written at their positions in the file as soon as the segments preceding them
+     * are serialized, so the memory used depends on the number of connections rather than on the size of the table.
+     * A file named "*.gz" is assembled from separately compressed gzip members, which read as one stream.
+     * </p>
+     * In parts, the table is split into as many ID ranges of the same size as there are connections, and every range is written
+     * into its own complete file named after the file with the number of the part, e.g. "jobs-1.xml", "jobs-2.xml".
+     *
+     * @param connections The number of connections reading the table and threads serializing it.
+     * @param segmentSize The maximum number of jobs in a segment of a single file.
+     * @param parts Whether the table is written into a part file per connection instead of a single file.
+     */
+    public record ParallelSettings(int connections, int segmentSize, boolean parts) {
+        public static final ParallelSettings DEFAULT = new ParallelSettings(Runtime.getRuntime().availableProcessors(), 20000, false);
+    }
+
+    /**
+     * Constructs a new SaveService with the specified database operations and XML parser,
+     * that exports the table with the DOM engine.
      *
      * @param dbOperations An instance of {@link DBOperations} to retrieve job data from the database.
      * @param xmlParser An instance of {@link XmlParser} to handle XML document creation from job objects.
      */
     public SaveService(DBOperations dbOperations, XmlParser xmlParser) {
+        this(dbOperations, xmlParser, Engine.DOM, true, 0, FileStreams.DEFAULT_GZIP_LEVEL, null, ParallelSettings.DEFAULT, new Metrics());
+    }
+
+    /**
+     * Constructs a new SaveService with the specified database operations, XML parser and export settings.
+     *
+     * @param dbOperations An instance of {@link DBOperations} to retrieve job data from the database.
+     * @param xmlParser An instance of {@link XmlParser} to handle XML document creation from job objects.
+     * @param engine The {@link Engine} used to export the table.
+     * @param indent Whether the streaming engine writes indented XML.
+     * @param fetchSize The number of rows fetched from the database in one round-trip by the streaming engine.
+     * @param gzipLevel The gzip compression level from 0 to 9 of files named "*.gz", which are compressed while they are written.
+     * @param format The {@link JobFormat} of the saved files, or {@code null} to choose it by the file name;
+     * binary files are written by the streaming engine, unless they are written in parts by the parallel engine.
+     * @param parallelSettings The {@link ParallelSettings} of the parallel engine.
+     * @param metrics The {@link Metrics} receiving the durations of the phases and the numbers of saved jobs.
+     */
+    public SaveService(DBOperations dbOperations, XmlParser xmlParser, Engine engine, boolean indent, int fetchSize, int gzipLevel,
+                       JobFormat format, ParallelSettings parallelSettings, Metrics metrics) {
         this.dbOperations = dbOperations;
         this.xmlParser = xmlParser;
+        this.engine = engine;
+        this.indent = indent;
+        this.fetchSize = fetchSize;
+        this.gzipLevel = gzipLevel;
+        this.format = format;
+        this.parallelSettings = parallelSettings;
+        this.metrics = metrics;
     }
 
     /**
      * Saves a list of job objects, retrieved from the database, into an XML file.
+     * A file named "*.gz" is compressed with gzip while it is written.
      * A brief summary of the operation is also printed to the console.
      *
      * @param fileName The name of the file where the XML data will be saved.
@@ -41,10 +128,25 @@ public class SaveService {
      * or file writing.
      */
     void save(String fileName) throws Exception {
+        JobFormat fileFormat = JobFormat.of(fileName, format);
+        if(engine == Engine.PARALLEL && (parallelSettings.parts() || fileFormat == JobFormat.XML)){
+            saveParallel(fileName, fileFormat);
+            return;
+        }
+        if(engine != Engine.DOM || fileFormat == JobFormat.BINARY){
+            saveStreaming(fileName, fileFormat);
+            return;
+        }
+
         log.info("Saving into file '{}'", fileName);
 
+        JobEvents.SaveFileEvent event = new JobEvents.SaveFileEvent();
+        event.begin();
+        long start = System.nanoTime();
         List<Job> jobs = dbOperations.getJobList();
+        metrics.recordPhase("save", "load", System.nanoTime() - start);
 
+        start = System.nanoTime();
         Document document = xmlParser.saveToDocument(jobs);
 
         DOMSource domSource = new DOMSource(document);
@@ -52,12 +154,335 @@ public class SaveService {
         transformer.setOutputProperty(OutputKeys.INDENT, "yes");
 
         log.info("Opening file '{}'", fileName);
-        try (OutputStream out = new FileOutputStream(fileName)) {
+        try (OutputStream out = FileStreams.openOutput(fileName, OUTPUT_BUFFER_SIZE, gzipLevel)) {
             transformer.transform(domSource, new StreamResult(out));
         }
+        metrics.recordPhase("save", "write", System.nanoTime() - start);
+        event.end();
+        long bytes = Files.size(Path.of(fileName));
+        metrics.countRows("save", "loaded", jobs.size());
+        metrics.countRows("save", "saved", jobs.size());
+        metrics.countBytes("save", "written", bytes);
+        JobEvents.commitSave(event, fileName, engine.name(), jobs.size(), bytes);
 
         String resultInfo = String.format("Saved to file '%s'. %d jobs saved", fileName, jobs.size());
         log.info(resultInfo);
         System.out.println(resultInfo);
     }
-}
\ No newline at end of file
+
+    /**
+     * Saves the jobs into a job file while they are read from the database,
+     * so neither the rows nor the document are held in memory.
+     * If the export fails, the file is deleted: the writer completes the file when it is closed,
+     * and a file with a part of the jobs must not look like a complete export.
+     *
+     * @param fileName The name of the file where the data will be saved.
+     * @param fileFormat The {@link JobFormat} of the file.
+     * @throws Exception If an error occurs during database operations or file writing.
+     */
+    private void saveStreaming(String fileName, JobFormat fileFormat) throws Exception {
+        log.info("Streaming into file '{}'", fileName);
+
+        long count;
+        JobEvents.SaveFileEvent event = new JobEvents.SaveFileEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try{
+            try (JobWriter writer = fileFormat.createWriter(fileName, indent, gzipLevel)) {
+                log.info("Opened file '{}'", fileName);
+                count = dbOperations.forEachJob(fetchSize, writer::write);
+            }
+        }
+        catch(Exception e){
+            Files.deleteIfExists(Path.of(fileName));
+            throw e;
+        }
+        metrics.recordPhase("save", "export", System.nanoTime() - start);
+        event.end();
+        long bytes = Files.size(Path.of(fileName));
+        metrics.countRows("save", "loaded", count);
+        metrics.countRows("save", "saved", count);
+        metrics.countBytes("save", "written", bytes);
+        JobEvents.commitSave(event, fileName, fileFormat == JobFormat.BINARY ? fileFormat.name() : engine.name(), count, bytes);
+
+        String resultInfo = String.format("Saved to file '%s'. %d jobs saved", fileName, count);
+        log.info(resultInfo);
+        System.out.println(resultInfo);
+    }
+
+    /**
+     * Saves the jobs with the parallel engine into a single file assembled from segments, or into part files,
+     * see {@link ParallelSettings}. If the export fails, the written files are deleted.
+     *
+     * @param fileName The name of the file where the data will be saved.
+     * @param fileFormat The {@link JobFormat} of the file.
+     * @throws Exception If an error occurs during database operations or file writing.
+     */
+    private void saveParallel(String fileName, JobFormat fileFormat) throws Exception {
+        List<String> fileNames = parallelSettings.parts() ? partFileNames(fileName, parallelSettings.connections()) : List.of(fileName);
+        log.info("Saving into {} on {} connections", parallelSettings.parts() ? fileNames.size() + " part files" : "file '" + fileName + "'",
+                parallelSettings.connections());
+
+        long count;
+        JobEvents.SaveFileEvent event = new JobEvents.SaveFileEvent();
+        event.begin();
+        long start = System.nanoTime();
+        try{
+            count = parallelSettings.parts() ? saveParts(fileNames, fileFormat) : saveSegments(fileName);
+        }
+        catch(Exception e){
+            for(String name : fileNames){
+                Files.deleteIfExists(Path.of(name));
+            }
+            throw e;
+        }
+        metrics.recordPhase("save", "export", System.nanoTime() - start);
+        event.end();
+        long bytes = 0;
+        for(String name : fileNames){
+            bytes += Files.size(Path.of(name));
+        }
+        metrics.countRows("save", "loaded", count);
+        metrics.countRows("save", "saved", count);
+        metrics.countBytes("save", "written", bytes);
+        JobEvents.commitSave(event, fileName, engine.name(), count, bytes);
+
+        String resultInfo = parallelSettings.parts()
+                ? String.format("Saved to %d part files '%s' ... '%s'. %d jobs saved", fileNames.size(), fileNames.getFirst(), fileNames.getLast(), count)
+                : String.format("Saved to file '%s'. %d jobs saved", fileName, count);
+        log.info(resultInfo);
+        System.out.println(resultInfo);
+    }
+
+    /**
+     * Writes every ID range of the table into its own part file. Part files without a range,
+     * if the table has fewer jobs than parts, are written without jobs.
+     *
+     * @param fileNames The names of the part files.
+     * @param fileFormat The {@link JobFormat} of the files.
+     * @return The number of saved jobs.
+     * @throws Exception If an error occurs during database operations or file writing.
+     */
+    private long saveParts(List<String> fileNames, JobFormat fileFormat) throws Exception {
+        return dbOperations.forEachJobInRanges(parallelSettings.connections(), fetchSize, fileNames.size(), Integer.MAX_VALUE,
+                new DBOperations.RangeHandler() {
+                    @Override
+                    public void start(int ranges) throws Exception {
+                        for(String name : fileNames.subList(ranges, fileNames.size())){
+                            fileFormat.createWriter(name, indent, gzipLevel).close();
+                        }
+                    }
+
+                    @Override
+                    public void handle(int range, JobReader jobs) throws Exception {
+                        try (JobWriter writer = fileFormat.createWriter(fileNames.get(range), indent, gzipLevel)) {
+                            Job job;
+                            while((job = jobs.read()) != null){
+                                writer.write(job);
+                            }
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Writes the table into a single XML file assembled from segments serialized concurrently.
+     *
+     * @param fileName The name of the file.
+     * @return The number of saved jobs.
+     * @throws Exception If an error occurs during database operations or file writing.
+     */
+    private long saveSegments(String fileName) throws Exception {
+        long count;
+        try (SegmentedFile file = new SegmentedFile(fileName)) {
+            count = dbOperations.forEachJobInRanges(parallelSettings.connections(), fetchSize, parallelSettings.connections(),
+                    parallelSettings.segmentSize(), file);
+            if(count > 0){
+                file.finish();
+            }
+        }
+
+        if(count == 0){
+            JobFormat.XML.createWriter(fileName, indent, gzipLevel).close(); // The same empty file as the other engines write
+        }
+        return count;
+    }
+
+    /**
+     * Returns the names of the part files: the number of the part is added to the name before its extensions,
+     * so that the parts keep the format and the compression of the file.
+     *
+     * @param fileName The name of the file.
+     * @param parts The number of parts.
+     * @return The names of the part files in order.
+     */
+    static List<String> partFileNames(String fileName, int parts) {
+        Path path = Path.of(fileName);
+        String name = path.getFileName().toString();
+        int extension = name.indexOf('.', 1);
+        if(extension < 0){
+            extension = name.length();
+        }
+
+        List<String> names = new ArrayList<>(parts);
+        String number = "%0" + String.valueOf(parts).length() + "d"; // Padded, so that the parts are sorted by name
+        for(int i = 1; i <= parts; i++){
+            names.add(path.resolveSibling(name.substring(0, extension) + "-" + String.format(number, i) + name.substring(extension)).toString());
+        }
+        return names;
+    }
+
+    /**
+     * A single XML file assembled from segments, one per ID range, serialized concurrently into memory buffers.
+     * The position of a segment in the file is the end of the preceding one, so a segment is written as soon as
+     * the preceding segments are serialized. Every thread holds a single buffer, which it reuses for its next range.
+     */
+    private class SegmentedFile implements DBOperations.RangeHandler, Closeable {
+        private final FileChannel channel;
+        private final boolean compressed;
+        private final ThreadLocal<SegmentBuffer> buffers = ThreadLocal.withInitial(SegmentBuffer::new);
+        private final List<CompletableFuture<Long>> ends = new ArrayList<>(); // The end positions of the serialized segments
+        private long start;
+
+        /**
+         * Creates (or truncates) the file.
+         *
+         * @param fileName The name of the file; a file named "*.gz" is compressed.
+         * @throws IOException If the file cannot be opened.
+         */
+        SegmentedFile(String fileName) throws IOException {
+            this.channel = FileChannel.open(Path.of(fileName),
+                    StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            this.compressed = FileStreams.isCompressed(fileName);
+        }
+
+        /**
+         * Writes the beginning of the document before the segments.
+         *
+         * @param ranges The number of segments.
+         * @throws IOException If the file cannot be written.
+         */
+        @Override
+        public void start(int ranges) throws IOException {
+            for(int i = 0; i < ranges; i++){
+                ends.add(new CompletableFuture<>());
+            }
+            start = write(encode(JobXmlWriter.documentStart(indent)), 0);
+        }
+
+        /**
+         * Serializes the jobs of a range into a segment and writes it after the preceding segment.
+         * A failure is passed on to the following segments, which are waiting for the end of this one.
+         *
+         * @param range The index of the range.
+         * @param jobs The {@link JobReader} of the jobs of the range.
+         * @throws Exception If the jobs cannot be serialized or written, or a preceding segment failed.
+         */
+        @Override
+        public void handle(int range, JobReader jobs) throws Exception {
+            CompletableFuture<Long> end = ends.get(range);
+            try{
+                SegmentBuffer buffer = buffers.get();
+                buffer.reset();
+                try (JobWriter writer = JobXmlWriter.fragment(compressed
+                        ? new BufferedOutputStream(FileStreams.compress(buffer, gzipLevel), OUTPUT_BUFFER_SIZE) : buffer, indent)) {
+                    Job job;
+                    while((job = jobs.read()) != null){
+                        writer.write(job);
+                    }
+                }
+
+                long position;
+                try{
+                    position = range == 0 ? start : ends.get(range - 1).get();
+                }
+                catch(ExecutionException e){
+                    throw e.getCause() instanceof Exception cause ? cause : e;
+                }
+                end.complete(position + buffer.size());
+                write(buffer.toByteBuffer(), position);
+            }
+            catch(Throwable e){
+                end.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        /**
+         * Fails the segments not serialized yet, so that no segment waits for a range that is never handled.
+         *
+         * @param cause The failure of the reading.
+         */
+        @Override
+        public void abort(Throwable cause) {
+            for(CompletableFuture<Long> end : ends){
+                end.completeExceptionally(cause);
+            }
+        }
+
+        /**
+         * Writes the end of the document after the last segment.
+         *
+         * @throws Exception If the file cannot be written.
+         */
+        void finish() throws Exception {
+            write(encode(JobXmlWriter.documentEnd(indent)), ends.getLast().get());
+        }
+
+        /**
+         * Closes the file.
+         *
+         * @throws IOException If the file cannot be closed.
+         */
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+
+        /**
+         * Compresses the bytes into a gzip member, if the file is compressed.
+         *
+         * @param bytes The bytes.
+         * @return The bytes as they are written to the file.
+         * @throws IOException If the bytes cannot be compressed.
+         */
+        private ByteBuffer encode(byte[] bytes) throws IOException {
+            if(!compressed){
+                return ByteBuffer.wrap(bytes);
+            }
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            try (OutputStream out = FileStreams.compress(buffer, gzipLevel)) {
+                out.write(bytes);
+            }
+            return ByteBuffer.wrap(buffer.toByteArray());
+        }
+
+        /**
+         * Writes the bytes at the position of the file.
+         *
+         * @param bytes The bytes.
+         * @param position The position in the file.
+         * @return The position after the bytes.
+         * @throws IOException If the file cannot be written.
+         */
+        private long write(ByteBuffer bytes, long position) throws IOException {
+            while(bytes.hasRemaining()){
+                position += channel.write(bytes, position);
+            }
+            return position;
+        }
+    }
+
+    /**
+     * A memory buffer of a segment, whose content is written to the file without copying.
+     */
+    private static class SegmentBuffer extends ByteArrayOutputStream {
+        SegmentBuffer() {
+            super(SEGMENT_BUFFER_SIZE);
+        }
+
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
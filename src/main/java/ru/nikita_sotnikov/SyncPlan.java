@@ -0,0 +1,246 @@
+package ru.nikita_sotnikov;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Precomputed changes of a synchronization, written to a compact binary file by the "plan" command
+ * and applied later by the "apply" command.
+ * Besides the changes, the plan records the base state of every row it changes: the ID, the natural key
+ * and the description hash of the row when the plan was computed. The plan is applied only if the base state
+ * still holds, see {@link DBOperations#applyPlan(SyncPlan)}.
+ * <p>
+ * The jobs to be updated carry the new description and, as the description hash, the hash of the current one;
+ * the jobs to be deleted carry only the ID, the natural key and the description hash.
+ * A missing hash stands for a missing description.
+ * </p>
+ *
+ * @param fileName The name of the synchronized XML file.
+ * @param fileDigest The SHA-256 digest of the synchronized XML file.
+ * @param createdMillis The time the plan was computed, in milliseconds since the epoch.
+ * @param changes The {@link SyncService.Changes} of the plan, with the base state of the changed rows.
+ */
+public record SyncPlan(String fileName, byte[] fileDigest, long createdMillis, SyncService.Changes changes) {
+    private static final Logger log = LoggerFactory.getLogger(SyncPlan.class);
+    private static final int MAGIC = 0x504C414E; // "PLAN"
+    private static final int VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Reads the plan from the specified file.
+     *
+     * @param path The path of the plan file.
+     * @return The {@link SyncPlan}.
+     * @throws IOException If the file cannot be read or is not a plan of a supported version.
+     */
+    public static SyncPlan load(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if(in.readInt() != MAGIC || in.readInt() != VERSION){
+                throw new IOException("File '" + path + "' is not a sync plan of a supported version");
+            }
+
+            String fileName = in.readUTF();
+            byte[] fileDigest = readBytes(in);
+            long createdMillis = in.readLong();
+            long total = in.readLong();
+
+            int size = in.readInt();
+            List<Job> insertList = new ArrayList<>(size);
+            for(int i = 0; i < size; i++){
+                Job job = readKey(in);
+                job.setDescription(readString(in));
+                insertList.add(job);
+            }
+
+            size = in.readInt();
+            List<Job> updateList = new ArrayList<>(size);
+            for(int i = 0; i < size; i++){
+                int id = in.readInt();
+                Job job = readKey(in);
+                job.setId(id);
+                job.setDescription(readString(in));
+                job.setDescriptionHash(readHash(in));
+                updateList.add(job);
+            }
+
+            size = in.readInt();
+            List<Job> deleteList = new ArrayList<>(size);
+            for(int i = 0; i < size; i++){
+                int id = in.readInt();
+                Job job = readKey(in);
+                job.setId(id);
+                job.setDescriptionHash(readHash(in));
+                deleteList.add(job);
+            }
+
+            log.info("Loaded plan of {} inserts, {} updates and {} deletes from '{}'", insertList.size(), updateList.size(), deleteList.size(), path);
+
+            return new SyncPlan(fileName, fileDigest, createdMillis, new SyncService.Changes(insertList, updateList, deleteList, total));
+        }
+    }
+
+    /**
+     * Writes the plan to the specified file, replacing it atomically.
+     *
+     * @param path The path of the plan file.
+     * @return The size of the written file in bytes.
+     * @throws IOException If the plan cannot be written.
+     */
+    public long save(Path path) throws IOException {
+        Path directory = path.toAbsolutePath().getParent();
+        Path temp = Files.createTempFile(directory, path.getFileName().toString(), ".tmp");
+
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp), BUFFER_SIZE))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeUTF(fileName);
+                writeBytes(out, fileDigest);
+                out.writeLong(createdMillis);
+                out.writeLong(changes.total());
+
+                out.writeInt(changes.insertList().size());
+                for(Job job : changes.insertList()){
+                    writeKey(out, job);
+                    writeString(out, job.getDescription());
+                }
+
+                out.writeInt(changes.updateList().size());
+                for(Job job : changes.updateList()){
+                    out.writeInt(job.getId());
+                    writeKey(out, job);
+                    writeString(out, job.getDescription());
+                    writeHash(out, job.getDescriptionHash());
+                }
+
+                out.writeInt(changes.deleteList().size());
+                for(Job job : changes.deleteList()){
+                    out.writeInt(job.getId());
+                    writeKey(out, job);
+                    writeHash(out, job.getDescriptionHash());
+                }
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        finally {
+            Files.deleteIfExists(temp);
+        }
+
+        log.info("Saved plan of {} inserts, {} updates and {} deletes to '{}'",
+                changes.insertList().size(), changes.updateList().size(), changes.deleteList().size(), path);
+
+        return Files.size(path);
+    }
+
+    /**
+     * Reads the natural key of a job.
+     *
+     * @param in The stream to read from.
+     * @return A new {@link Job} with the natural key.
+     * @throws IOException If the stream cannot be read.
+     */
+    private static Job readKey(DataInputStream in) throws IOException {
+        Job job = new Job();
+        job.setDepCode(in.readUTF());
+        job.setDepJob(in.readUTF());
+        return job;
+    }
+
+    /**
+     * Writes the natural key of a job.
+     *
+     * @param out The stream to write to.
+     * @param job The job.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeKey(DataOutputStream out, Job job) throws IOException {
+        out.writeUTF(job.getDepCode());
+        out.writeUTF(job.getDepJob());
+    }
+
+    /**
+     * Reads a string that may be missing.
+     *
+     * @param in The stream to read from.
+     * @return The string, or {@code null}.
+     * @throws IOException If the stream cannot be read.
+     */
+    private static String readString(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Writes a string that may be missing.
+     *
+     * @param out The stream to write to.
+     * @param value The string, or {@code null}.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if(value != null){
+            out.writeUTF(value);
+        }
+    }
+
+    /**
+     * Reads a description hash that may be missing.
+     *
+     * @param in The stream to read from.
+     * @return The hash, or {@code null}.
+     * @throws IOException If the stream cannot be read.
+     */
+    private static byte[] readHash(DataInputStream in) throws IOException {
+        return in.readBoolean() ? readBytes(in) : null;
+    }
+
+    /**
+     * Writes a description hash that may be missing.
+     *
+     * @param out The stream to write to.
+     * @param hash The hash, or {@code null}.
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeHash(DataOutputStream out, byte[] hash) throws IOException {
+        out.writeBoolean(hash != null);
+        if(hash != null){
+            writeBytes(out, hash);
+        }
+    }
+
+    /**
+     * Reads a byte array prefixed by its length.
+     *
+     * @param in The stream to read from.
+     * @return The read bytes.
+     * @throws IOException If the stream cannot be read.
+     */
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Writes a byte array prefixed by its length.
+     *
+     * @param out The stream to write to.
+     * @param bytes The bytes to be written (at most 65535).
+     * @throws IOException If the stream cannot be written.
+     */
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeShort(bytes.length);
+        out.write(bytes);
+    }
+}
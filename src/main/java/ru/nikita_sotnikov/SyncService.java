@@ -3,10 +3,22 @@ package ru.nikita_sotnikov;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Objects;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
 
 /**
  * Service class responsible for synchronizing job data between an XML file and the database.
@@ -15,24 +27,99 @@ public class SyncService {
     private static final Logger log = LoggerFactory.getLogger(SyncService.class);
     private final XmlParser xmlParser;
     private final DBOperations dbOperations;
+    private final Engine engine;
+    private final MergeSyncEngine mergeSyncEngine;
+    private final IncrementalSyncEngine incrementalSyncEngine;
+    private final double reloadThreshold;
+    private final Metrics metrics;
 
     /**
-     * Constructs a new SyncService with the specified XML parser and database operations.
+     * Engines used to compute the changes between the XML file and the database.
+     */
+    public enum Engine {
+        /**
+         * Loads the file and the table into two maps by natural key and compares them.
+         */
+        HASH,
+        /**
+         * Walks the sorted file and the sorted table side by side with {@link MergeSyncEngine}.
+         */
+        MERGE,
+        /**
+         * Copies the file into a staging table and applies the changes with set-based SQL
+         * on the database side, see {@link DBOperations#refreshFromStaging(JobReader)}.
+         */
+        STAGING,
+        /**
+         * Compares the file with the snapshot of the last successful synchronization
+         * and skips unchanged files, see {@link IncrementalSyncEngine}.
+         */
+        INCREMENTAL,
+        /**
+         * Loads the file and the table into two columnar {@link JobTable}s and compares them,
+         * creating {@link Job} objects only for the changed rows.
+         */
+        COLUMNAR
+    }
+
+    /**
+     * The jobs to be inserted, updated and deleted to make the table match the XML file.
+     *
+     * @param insertList The jobs that are present only in the XML file.
+     * @param updateList The jobs whose description differs, with the IDs of the corresponding table rows.
+     * @param deleteList The jobs that are present only in the table.
+     * @param total The number of jobs in the XML file.
+     */
+    public record Changes(List<Job> insertList, List<Job> updateList, List<Job> deleteList, long total) {}
+
+    /**
+     * The jobs of the XML file and of the table, read concurrently by {@link #parseAndLoad(String, Callable, Function)}.
+     *
+     * @param fromFile The jobs parsed from the XML file.
+     * @param fromDB The jobs loaded from the table.
+     */
+    private record Inputs<F, D>(F fromFile, D fromDB) {}
+
+    /**
+     * Constructs a new SyncService with the specified XML parser and database operations,
+     * that computes the changes with the hash engine.
      *
      * @param xmlParser An instance of {@link XmlParser} to parse XML files.
      * @param dbOperations An instance of {@link DBOperations} to interact with the database.
      */
     public SyncService(XmlParser xmlParser, DBOperations dbOperations) {
+        this(xmlParser, dbOperations, Engine.HASH, null, null, 1.0, new Metrics());
+    }
+
+    /**
+     * Constructs a new SyncService with the specified XML parser, database operations and engine.
+     *
+     * @param xmlParser An instance of {@link XmlParser} to parse XML files.
+     * @param dbOperations An instance of {@link DBOperations} to interact with the database.
+     * @param engine The {@link Engine} used to compute the changes.
+     * @param mergeSyncEngine An instance of {@link MergeSyncEngine}, required by the merge engine.
+     * @param incrementalSyncEngine An instance of {@link IncrementalSyncEngine}, required by the incremental engine.
+     * @param reloadThreshold The share of changed rows above which the table is rebuilt
+     * with {@link DBOperations#reloadDB(List, List, List)} instead of being changed row by row;
+     * 1 or more disables the reload.
+     * @param metrics The {@link Metrics} receiving the durations of the phases and the numbers of processed jobs.
+     */
+    public SyncService(XmlParser xmlParser, DBOperations dbOperations, Engine engine, MergeSyncEngine mergeSyncEngine,
+                       IncrementalSyncEngine incrementalSyncEngine, double reloadThreshold, Metrics metrics) {
         this.dbOperations = dbOperations;
         this.xmlParser = xmlParser;
+        this.engine = engine;
+        this.mergeSyncEngine = mergeSyncEngine;
+        this.incrementalSyncEngine = incrementalSyncEngine;
+        this.reloadThreshold = reloadThreshold;
+        this.metrics = metrics;
     }
 
     /**
      * Synchronizes the database table content with the provided XML file.
      * The process involves:
      * <ol>
-     * <li>Parsing job data from the specified XML file.</li>
-     * <li>Retrieving current job data from the database.</li>
+     * <li>Parsing job data from the specified XML file and, at the same time, retrieving current job data from the database.</li>
      * <li>Comparing the two sets of data to identify jobs to be inserted, updated, or deleted.</li>
      * <li>Performing all identified database modifications (insertions, updates, deletions) within a single transaction.</li>
      * </ol>
@@ -47,35 +134,430 @@ public class SyncService {
      */
     public void sync(String fileName) throws Exception {
         log.info("Start synchronization from file '{}'", fileName);
+        requireFile(fileName);
+
+        if(engine == Engine.STAGING){
+            syncStaging(fileName);
+            return;
+        }
+
+        Changes changes;
+        IncrementalSyncEngine.Plan plan = null;
+        long start = System.nanoTime();
+        if(engine == Engine.INCREMENTAL){
+            plan = incrementalSyncEngine.diff(fileName);
+            metrics.recordPhase("sync", "diff", System.nanoTime() - start);
+            countBytesRead("sync", fileName);
+            if(plan == null){
+                String resultInfo = "File is unchanged since the last synchronization, nothing to do.";
+                log.info(resultInfo);
+                System.out.println(resultInfo);
+                return;
+            }
+            changes = plan.changes();
+        }
+        else{
+            changes = computeChanges("sync", fileName, engine);
+            countBytesRead("sync", fileName);
+        }
+        log.info("Created lists with insertions, updates and deletions");
+        countRows(changes.total(), changes.insertList().size(), changes.updateList().size(), changes.deleteList().size());
+
+        String details;
+        double ratio = changeRatio(changes);
+        start = System.nanoTime();
+        if(ratio > reloadThreshold){
+            log.info("Strategy: reload, {}% of rows changed (threshold {}%)", Math.round(ratio * 100), Math.round(reloadThreshold * 100));
+            DBOperations.ReloadTimings timings = dbOperations.reloadDB(changes.insertList(), changes.updateList(), changes.deleteList());
+            metrics.recordPhase("sync", "reload_load", timings.loadNanos());
+            metrics.recordPhase("sync", "reload_index", timings.indexNanos());
+            metrics.recordPhase("sync", "reload_swap", timings.swapNanos());
+            details = "Table reloaded, " + timings;
+        }
+        else{
+            log.info("Strategy: row changes, {}% of rows changed", Math.round(ratio * 100));
+            BatchReport report = dbOperations.refreshDB(changes.insertList(), changes.updateList(), changes.deleteList());
+            for(BatchReport.Chunk chunk : report.getChunks()){
+                metrics.recordBatch(chunk.operation(), chunk.nanos());
+            }
+            details = report.getChunks().isEmpty() ? null : report.toString();
+        }
+        metrics.recordPhase("sync", "apply", System.nanoTime() - start);
 
-        Map<JobKey, Job> jobsFromFile = xmlParser.parse(fileName);
-        Map<JobKey, Job> jobsFromDB = dbOperations.getJobMap();
+        if(plan != null){
+            start = System.nanoTime();
+            incrementalSyncEngine.complete(plan);
+            metrics.recordPhase("sync", "snapshot", System.nanoTime() - start);
+        }
+
+        String resultInfo = String.format("Inserted: %d, updated: %d, deleted: %d, total: %d.", changes.insertList().size(), changes.updateList().size(), changes.deleteList().size(), changes.total());
+        if(details != null){
+            resultInfo += " " + details + ".";
+        }
+        log.info(resultInfo);
+        System.out.println(resultInfo);
+    }
+
+    /**
+     * Computes the changes of the synchronization with the XML file and writes them to a {@link SyncPlan} file
+     * together with the base state of the rows to be updated and deleted, without changing the table.
+     * The staging and incremental engines do not produce the changes in memory, so the hash engine is used instead of them.
+     * A brief summary of the plan is printed to the console.
+     *
+     * @param fileName The name of the XML file from which data will be synchronized.
+     * @param planFileName The name of the plan file to be written.
+     * @throws Exception If an error occurs during XML parsing or database operations,
+     * if duplicate natural keys are found in the XML file, or if the plan cannot be written.
+     */
+    public void plan(String fileName, String planFileName) throws Exception {
+        log.info("Start planning synchronization from file '{}'", fileName);
+        requireFile(fileName);
+
+        Engine planEngine = engine == Engine.MERGE || engine == Engine.COLUMNAR ? engine : Engine.HASH;
+        byte[] fileDigest = JobSnapshot.fingerprint(fileName);
+        Changes changes = computeChanges("plan", fileName, planEngine);
+        countBytesRead("plan", fileName);
+
+        // The base state is the state of the rows the changes were computed from: the jobs to be updated carry
+        // the description hashes of their rows, and the jobs to be deleted are the rows themselves
+        long start = System.nanoTime();
+        for(Job job : changes.deleteList()){
+            job.setDescriptionHash(JobHashes.descriptionHash(job));
+        }
+
+        long bytes = new SyncPlan(fileName, fileDigest, System.currentTimeMillis(), changes).save(Path.of(planFileName));
+        metrics.recordPhase("plan", "save", System.nanoTime() - start);
+        metrics.countBytes("plan", "written", bytes);
+
+        String resultInfo = String.format("Planned inserts: %d, updates: %d, deletes: %d, total: %d. Plan saved to file '%s' (%d bytes).",
+                changes.insertList().size(), changes.updateList().size(), changes.deleteList().size(), changes.total(), planFileName, bytes);
+        log.info(resultInfo);
+        System.out.println(resultInfo);
+    }
+
+    /**
+     * Applies a {@link SyncPlan} file written by {@link #plan(String, String)} in a single transaction.
+     * The plan is applied only if the rows it changes are still in the recorded base state and the jobs
+     * it inserts are still missing, see {@link DBOperations#applyPlan(SyncPlan)}; otherwise nothing is changed.
+     * A brief summary of the operation result is printed to the console.
+     *
+     * @param planFileName The name of the plan file.
+     * @throws Exception If the plan cannot be read, the table has left the base state of the plan,
+     * or a database error occurs.
+     */
+    public void apply(String planFileName) throws Exception {
+        log.info("Start applying plan from file '{}'", planFileName);
+        requireFile(planFileName);
+
+        long start = System.nanoTime();
+        SyncPlan plan = SyncPlan.load(Path.of(planFileName));
+        metrics.recordPhase("apply", "load", System.nanoTime() - start);
+        countBytesRead("apply", planFileName);
+        log.info("Plan of file '{}' computed at {}", plan.fileName(), Instant.ofEpochMilli(plan.createdMillis()));
+
+        start = System.nanoTime();
+        DBOperations.RefreshCounts counts = dbOperations.applyPlan(plan);
+        long nanos = System.nanoTime() - start;
+        metrics.recordPhase("apply", "apply", nanos);
+        metrics.countRows("apply", "inserted", counts.inserted());
+        metrics.countRows("apply", "updated", counts.updated());
+        metrics.countRows("apply", "deleted", counts.deleted());
+
+        String resultInfo = String.format("Inserted: %d, updated: %d, deleted: %d, total: %d. Plan applied in %d ms.",
+                counts.inserted(), counts.updated(), counts.deleted(), counts.total(), nanos / 1_000_000);
+        log.info(resultInfo);
+        System.out.println(resultInfo);
+    }
+
+    /**
+     * Computes the changes between the XML file and the table with the hash, merge or columnar engine.
+     *
+     * @param command The command whose phases are recorded, "sync" or "plan".
+     * @param fileName The name of the XML file.
+     * @param engine The {@link Engine} used to compute the changes, one of {@link Engine#HASH},
+     * {@link Engine#MERGE} and {@link Engine#COLUMNAR}.
+     * @return The {@link Changes} to be applied to the database.
+     * @throws Exception If an error occurs during XML parsing or database operations,
+     * or if duplicate natural keys are found in the XML file.
+     */
+    private Changes computeChanges(String command, String fileName, Engine engine) throws Exception {
+        Changes changes;
+        long start = System.nanoTime();
+        if(engine == Engine.MERGE){
+            changes = mergeSyncEngine.diff(fileName);
+            metrics.recordPhase(command, "diff", System.nanoTime() - start);
+        }
+        else if(engine == Engine.COLUMNAR){
+            Inputs<JobTable, JobTable> inputs = parseAndLoad(command, () -> xmlParser.parseTable(fileName), dbOperations::getJobTable);
+
+            start = System.nanoTime();
+            changes = diff(inputs.fromFile(), inputs.fromDB());
+            metrics.recordPhase(command, "diff", System.nanoTime() - start);
+        }
+        else{
+            Inputs<JobIndex, JobIndex> inputs = parseAndLoad(command, () -> xmlParser.parse(fileName), dbOperations::getJobMap);
+
+            start = System.nanoTime();
+            changes = diff(inputs.fromFile(), inputs.fromDB(), dbOperations.isDescriptionHashed());
+            metrics.recordPhase(command, "diff", System.nanoTime() - start);
+        }
+        return changes;
+    }
+
+    /**
+     * Parses the XML file and loads the table concurrently on two virtual threads.
+     * The parsing is bound by the CPU and the disk and the load by the database,
+     * so together they take about as long as the slower of them.
+     * If either fails, the other is cancelled: the parsing thread is interrupted and the query is cancelled
+     * on the server. The first error is thrown once both threads have stopped.
+     *
+     * @param command The command whose phases are recorded.
+     * @param parse The parsing of the XML file.
+     * @param load The load of the table, cancelled with the given {@link DBOperations.Cancellation}.
+     * @return The {@link Inputs} with the parsed and the loaded jobs.
+     * @throws Exception The first error of the parsing or the load.
+     */
+    private <F, D> Inputs<F, D> parseAndLoad(String command, Callable<F> parse, Function<DBOperations.Cancellation, D> load) throws Exception {
+        DBOperations.Cancellation cancellation = new DBOperations.Cancellation();
+        BlockingQueue<Future<?>> completed = new LinkedBlockingQueue<>();
+        FutureTask<F> parsing = track(() -> timed(command, "parse", parse), completed);
+        FutureTask<D> loading = track(() -> timed(command, "load", () -> load.apply(cancellation)), completed);
+
+        long start = System.nanoTime();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            executor.execute(parsing);
+            executor.execute(loading);
+            try{
+                for(int i = 0; i < 2; i++){
+                    Future<?> task = completed.take();
+                    if(task.state() == Future.State.FAILED){
+                        throw failure(task.exceptionNow());
+                    }
+                }
+            }
+            catch(Throwable e){
+                parsing.cancel(true);
+                cancellation.cancel();
+                throw e;
+            }
+        } // Waits for a cancelled task to stop
+        log.info("Parsed file and loaded table concurrently in {} ms", (System.nanoTime() - start) / 1_000_000);
+
+        return new Inputs<>(parsing.resultNow(), loading.resultNow());
+    }
+
+    /**
+     * Runs the task and records its duration as a phase of the command.
+     *
+     * @param command The command.
+     * @param phase The name of the phase.
+     * @param task The task.
+     * @return The result of the task.
+     * @throws Exception If the task fails.
+     */
+    private <T> T timed(String command, String phase, Callable<T> task) throws Exception {
+        long start = System.nanoTime();
+        T result = task.call();
+        metrics.recordPhase(command, phase, System.nanoTime() - start);
+        return result;
+    }
+
+    /**
+     * Wraps the task into a {@link FutureTask} that adds itself to the queue when it completes.
+     *
+     * @param task The task.
+     * @param completed The queue of the completed tasks.
+     * @return The {@link FutureTask} of the task.
+     */
+    private static <T> FutureTask<T> track(Callable<T> task, BlockingQueue<Future<?>> completed) {
+        return new FutureTask<>(task) {
+            @Override
+            protected void done() {
+                completed.add(this);
+            }
+        };
+    }
+
+    /**
+     * Returns the failure of a task as an exception to be thrown; errors are thrown right away.
+     *
+     * @param failure The failure of the task.
+     * @return The exception.
+     */
+    private static Exception failure(Throwable failure) {
+        if(failure instanceof Error error){
+            throw error;
+        }
+        return (Exception) failure;
+    }
+
+    /**
+     * Synchronizes the database table with the XML file on the database side.
+     * The jobs are streamed from the file into a staging table, so neither the file
+     * nor the table is loaded into memory.
+     *
+     * @param fileName The name of the XML file from which data will be synchronized.
+     * @throws Exception If an error occurs during XML parsing, database operations,
+     * or if duplicate natural keys are found in the XML file.
+     */
+    private void syncStaging(String fileName) throws Exception {
+        DBOperations.RefreshCounts counts;
+        long start = System.nanoTime();
+        try (JobReader reader = xmlParser.openReader(fileName)) {
+            counts = dbOperations.refreshFromStaging(reader);
+        }
+        metrics.recordPhase("sync", "refresh", System.nanoTime() - start);
+        countBytesRead("sync", fileName);
+        countRows(counts.total(), counts.inserted(), counts.updated(), counts.deleted());
+
+        String resultInfo = String.format("Inserted: %d, updated: %d, deleted: %d, total: %d.", counts.inserted(), counts.updated(), counts.deleted(), counts.total());
+        log.info(resultInfo);
+        System.out.println(resultInfo);
+    }
+
+    /**
+     * Checks that the file to be read exists, so that a missing file is reported clearly
+     * rather than by the bare path in the exception of the reader.
+     *
+     * @param fileName The name of the file.
+     * @throws FileNotFoundException If the file does not exist or is not a regular file.
+     */
+    private static void requireFile(String fileName) throws FileNotFoundException {
+        if(!Files.isRegularFile(Path.of(fileName))){
+            throw new FileNotFoundException("File '" + fileName + "' does not exist or is not a regular file.");
+        }
+    }
+
+    /**
+     * Counts the size of a file that has been read successfully. It is counted after the reading,
+     * so that a missing or unreadable file is reported by the reader.
+     *
+     * @param command The command that read the file.
+     * @param fileName The name of the file.
+     * @throws IOException If the size of the file cannot be read.
+     */
+    private void countBytesRead(String command, String fileName) throws IOException {
+        metrics.countBytes(command, "read", Files.size(Path.of(fileName)));
+    }
+
+    /**
+     * Counts the jobs of the file, the rows of the table compared with them and the changed rows.
+     *
+     * @param parsed The number of jobs in the XML file.
+     * @param inserted The number of inserted rows.
+     * @param updated The number of updated rows.
+     * @param deleted The number of deleted rows.
+     */
+    private void countRows(long parsed, long inserted, long updated, long deleted) {
+        metrics.countRows("sync", "parsed", parsed);
+        metrics.countRows("sync", "loaded", parsed - inserted + deleted); // The rows of the table before the synchronization
+        metrics.countRows("sync", "inserted", inserted);
+        metrics.countRows("sync", "updated", updated);
+        metrics.countRows("sync", "deleted", deleted);
+    }
+
+    /**
+     * Estimates the share of rows touched by the changes, relative to all rows of the table
+     * before and after the synchronization.
+     *
+     * @param changes The {@link Changes} to be applied to the database.
+     * @return The ratio of inserted, updated and deleted rows, from 0 to 1.
+     */
+    static double changeRatio(Changes changes) {
+        long changed = changes.insertList().size() + changes.updateList().size() + changes.deleteList().size();
+        long rows = changes.total() + changes.deleteList().size();
+        return rows == 0 ? 0 : (double) changed / rows;
+    }
+
+    /**
+     * Compares the jobs of the XML file with the jobs of the table by natural key.
+     * The matched entries of the table index are marked in a bit set, so the index is left unchanged,
+     * and the matched jobs of the file get the IDs of the corresponding table rows; the jobs to be updated also get
+     * the description hashes of the rows, the base state of the rows recorded by a {@link SyncPlan}.
+     *
+     * @param jobsFromFile The jobs parsed from the XML file.
+     * @param jobsFromDB The jobs loaded from the table.
+     * @param hashed Whether the jobs from the table carry the description hash instead of the description.
+     * @return The {@link Changes} to be applied to the database.
+     */
+    static Changes diff(JobIndex jobsFromFile, JobIndex jobsFromDB, boolean hashed) {
+        JobEvents.DiffEvent event = new JobEvents.DiffEvent();
+        event.begin();
 
         List<Job> insertList = new ArrayList<>();
         List<Job> updateList = new ArrayList<>();
-        for(var entry : jobsFromFile.entrySet()) {
-            Job toAdd = entry.getValue();
-            Job jobFromDB = jobsFromDB.get(entry.getKey());
+        BitSet matched = new BitSet(jobsFromDB.size());
+        for(int i = 0; i < jobsFromFile.size(); i++) {
+            Job toAdd = jobsFromFile.job(i);
+            int entry = jobsFromDB.find(toAdd.getDepCode(), toAdd.getDepJob());
 
-            if(jobFromDB != null){
-                if(!Objects.equals(toAdd.getDescription(), jobFromDB.getDescription())){
-                    toAdd.setId(jobsFromDB.get(entry.getKey()).getId());
+            if(entry >= 0){
+                matched.set(entry); // Unmatched entries of the table are to be deleted
+                toAdd.setId(jobsFromDB.id(entry));
+                if(!JobHashes.sameDescription(toAdd, jobsFromDB.job(entry), hashed)){
+                    toAdd.setDescriptionHash(JobHashes.descriptionHash(jobsFromDB.job(entry))); // The base state of the row
                     updateList.add(toAdd);
                 }
-                jobsFromDB.remove(entry.getKey()); // Remove from DB map if found in XML, remaining are to be deleted
             }
             else{
                 insertList.add(toAdd); // Job is new, add to insert list
             }
         }
 
-        List<Job> deleteList = new ArrayList<>(jobsFromDB.values()); // Remaining jobs in jobsFromDB are those not in XML
-        log.info("Created lists with insertions, updates and deletions");
+        List<Job> deleteList = new ArrayList<>(jobsFromDB.size() - matched.cardinality());
+        for(int entry = matched.nextClearBit(0); entry < jobsFromDB.size(); entry = matched.nextClearBit(entry + 1)){
+            deleteList.add(jobsFromDB.job(entry)); // Remaining jobs of the table are those not in XML
+        }
 
-        dbOperations.refreshDB(insertList, updateList, deleteList);
+        Changes changes = new Changes(insertList, updateList, deleteList, jobsFromFile.size());
+        event.end();
+        JobEvents.commitDiff(event, "hash", changes);
 
-        String resultInfo = String.format("Inserted: %d, updated: %d, deleted: %d, total: %d.", insertList.size(), updateList.size(), deleteList.size(), jobsFromFile.size());
-        log.info(resultInfo);
-        System.out.println(resultInfo);
+        return changes;
+    }
+
+    /**
+     * Compares the jobs of the XML file with the jobs of the table by natural key in the columnar form.
+     * The keys and the descriptions are compared in place, and {@link Job} objects are created
+     * only for the jobs to be inserted, updated and deleted; the jobs to be updated get the IDs and the description hashes of the table rows.
+     *
+     * @param jobsFromFile The jobs parsed from the XML file.
+     * @param jobsFromDB The jobs loaded from the table, with the descriptions or their hashes.
+     * @return The {@link Changes} to be applied to the database.
+     */
+    static Changes diff(JobTable jobsFromFile, JobTable jobsFromDB) {
+        JobEvents.DiffEvent event = new JobEvents.DiffEvent();
+        event.begin();
+
+        List<Job> insertList = new ArrayList<>();
+        List<Job> updateList = new ArrayList<>();
+        BitSet matched = new BitSet(jobsFromDB.size());
+        for(int row = 0; row < jobsFromFile.size(); row++) {
+            int entry = jobsFromDB.find(jobsFromFile, row);
+
+            if(entry >= 0){
+                matched.set(entry); // Unmatched rows of the table are to be deleted
+                if(!jobsFromFile.sameDescription(row, jobsFromDB, entry)){
+                    Job toUpdate = jobsFromFile.toJob(row);
+                    toUpdate.setId(jobsFromDB.id(entry));
+                    toUpdate.setDescriptionHash(JobHashes.descriptionHash(jobsFromDB.toJob(entry))); // The base state of the row
+                    updateList.add(toUpdate);
+                }
+            }
+            else{
+                insertList.add(jobsFromFile.toJob(row)); // Job is new, add to insert list
+            }
+        }
+
+        List<Job> deleteList = new ArrayList<>(jobsFromDB.size() - matched.cardinality());
+        for(int entry = matched.nextClearBit(0); entry < jobsFromDB.size(); entry = matched.nextClearBit(entry + 1)){
+            deleteList.add(jobsFromDB.toJob(entry)); // Remaining rows of the table are those not in XML
+        }
+
+        Changes changes = new Changes(insertList, updateList, deleteList, jobsFromFile.size());
+        event.end();
+        JobEvents.commitDiff(event, "columnar", changes);
+
+        return changes;
     }
-}
\ No newline at end of file
+}
@@ -11,35 +11,157 @@ import org.xml.sax.SAXException;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
-import java.io.File;
-import java.util.HashMap;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.List;
-import java.util.Map;
 
 /**
  * Utility class for parsing and creating XML documents related to {@link Job} objects.
- * It supports reading job data from an XML file into a map of {@link JobKey} to {@link Job}
+ * It supports reading job data from an XML file into a {@link JobIndex} by natural key
  * and saving a list of {@link Job} objects into an XML {@link Document} structure.
- * XML parsing is done using the DOM technology.
+ * XML parsing is done either with the DOM technology or with the streaming {@link JobXmlReader}
+ * or {@link MappedJobReader}, depending on the configured {@link Engine}. Files in the {@link JobFormat#BINARY} format
+ * are read with the streaming {@link JobBinaryReader} whatever the engine.
  */
 public class XmlParser {
     private static final Logger log = LoggerFactory.getLogger(XmlParser.class);
 
     /**
-     * Parses the specified XML file and extracts job data into a map.
+     * Parsing engines supported by {@link #parse(String)}.
+     */
+    public enum Engine {
+        /**
+         * Builds the whole DOM tree of the file before reading jobs from it.
+         */
+        DOM,
+        /**
+         * Reads jobs one at a time with StAX, memory depends only on the number of jobs kept in the result.
+         */
+        STAX,
+        /**
+         * Splits large files into segments parsed with StAX on several cores by {@link ParallelJobParser}.
+         */
+        PARALLEL,
+        /**
+         * Reads jobs one at a time with {@link MappedJobReader}, which scans the memory-mapped bytes of the file directly
+         * and falls back to StAX for content outside the fixed job schema.
+         */
+        MAPPED
+    }
+
+    private final Engine engine;
+    private final ParallelJobParser parallelJobParser;
+    private final JobFormat format;
+
+    /**
+     * Constructs a new XmlParser that uses the DOM engine.
+     */
+    public XmlParser() {
+        this(Engine.DOM, null);
+    }
+
+    /**
+     * Constructs a new XmlParser that uses the specified parsing engine.
+     *
+     * @param engine The {@link Engine} used by {@link #parse(String)}.
+     * @param parallelJobParser An instance of {@link ParallelJobParser}, required by the parallel engine.
+     */
+    public XmlParser(Engine engine, ParallelJobParser parallelJobParser) {
+        this(engine, parallelJobParser, null);
+    }
+
+    /**
+     * Constructs a new XmlParser that uses the specified parsing engine and file format.
+     *
+     * @param engine The {@link Engine} used by {@link #parse(String)} for XML files.
+     * @param parallelJobParser An instance of {@link ParallelJobParser}, required by the parallel engine.
+     * @param format The {@link JobFormat} of the parsed files, or {@code null} to choose it by the file name.
+     */
+    public XmlParser(Engine engine, ParallelJobParser parallelJobParser, JobFormat format) {
+        this.engine = engine;
+        this.parallelJobParser = parallelJobParser;
+        this.format = format;
+    }
+
+    /**
+     * Opens the specified job file for streaming reading in its {@link JobFormat}.
+     * XML files are read with {@link MappedJobReader} if the engine is {@link Engine#MAPPED}.
+     *
+     * @param fileName The path to the job file.
+     * @return A {@link JobReader} positioned at the first job of the file.
+     * @throws Exception If the file cannot be opened.
+     */
+    public JobReader openReader(String fileName) throws Exception {
+        JobFormat fileFormat = JobFormat.of(fileName, format);
+        if(fileFormat == JobFormat.XML && engine == Engine.MAPPED){
+            return MappedJobReader.open(fileName);
+        }
+        return fileFormat.openReader(fileName);
+    }
+
+    /**
+     * Parses the specified XML file and extracts job data into an index.
      * The method expects the XML to have a root element named "jobs" containing "job" elements.
      * Each "job" element should contain "depCode", "depJob", and optionally "description" elements.
      * It performs validation on the XML structure and data, including checking for duplicate natural keys.
      *
      * @param fileName The path to the XML file to be parsed.
-     * @return A {@link Map} where keys are {@link JobKey} (depCode, depJob) and values are {@link Job} objects.
+     * @return A {@link JobIndex} of the parsed jobs by their natural key (depCode, depJob).
+     * @throws Exception If an error occurs during XML parsing, if the file format is invalid,
+     * or if duplicate natural keys are found.
+     */
+    public JobIndex parse(String fileName) throws Exception {
+        JobEvents.ParseFileEvent event = new JobEvents.ParseFileEvent();
+        event.begin();
+
+        JobIndex jobs;
+        boolean binary = JobFormat.of(fileName, format) == JobFormat.BINARY;
+        if(binary || engine == Engine.STAX || engine == Engine.MAPPED){
+            jobs = parseStreaming(fileName);
+        }
+        else if(engine == Engine.PARALLEL){
+            jobs = parallelJobParser.parse(fileName, this::parseStreaming);
+        }
+        else{
+            jobs = parseDocument(fileName);
+        }
+
+        event.end();
+        if(event.shouldCommit()){
+            event.fileName = fileName;
+            event.engine = binary ? JobFormat.BINARY.name() : engine.name();
+            event.bytes = Files.size(Path.of(fileName));
+            event.rows = jobs.size();
+            event.commit();
+        }
+
+        return jobs;
+    }
+
+    /**
+     * Parses the specified XML file with the DOM technology, building the whole document tree first.
+     * The file is read through an {@link InterruptibleInputStream}, so the building of the tree stops
+     * when the thread is interrupted.
+     *
+     * @param fileName The path to the XML file to be parsed.
+     * @return A {@link JobIndex} of the parsed jobs by their natural key (depCode, depJob).
      * @throws Exception If an error occurs during XML parsing, if the file format is invalid,
      * or if duplicate natural keys are found.
      */
-    public Map<JobKey, Job> parse(String fileName) throws Exception {
+    private JobIndex parseDocument(String fileName) throws Exception {
         log.info("Start parsing.");
         DocumentBuilder builder = DocumentBuilderFactory.newInstance().newDocumentBuilder();
-        Document document = builder.parse(new File(fileName));
+        Document document;
+        try (InputStream in = new InterruptibleInputStream(FileStreams.openInput(fileName))) {
+            document = builder.parse(in);
+        }
+        catch(InterruptedIOException e){
+            throw (InterruptedException) new InterruptedException(e.getMessage()).initCause(e);
+        }
         document.getDocumentElement().normalize();
 
         log.info("Opened file '{}'", fileName);
@@ -52,9 +174,10 @@ public class XmlParser {
 
         NodeList nl = root.getChildNodes();
 
-        Map<JobKey, Job> jobs = new HashMap<>();
+        JobIndex jobs = new JobIndex();
 
         for (int i = 0; i < nl.getLength(); i++) {
+            checkInterrupted();
             Node node = nl.item(i);
             if(node.getNodeType() == Node.ELEMENT_NODE && node.getNodeName().equals("job")) {
                 NodeList children = node.getChildNodes();
@@ -62,15 +185,7 @@ public class XmlParser {
                 Job job = createJob(children);
                 checkJob(job); // Validate job fields based on database column constraints
 
-                JobKey jobKey = new JobKey(job.getDepCode(), job.getDepJob());
-
-                if(jobs.containsKey(jobKey)) {
-                    // Application must issue an error if there are two records with the same natural key in the XML file.
-                    throw new SAXException(String.format("Duplicate jobKey: depCode='%s', depJob='%s'.", job.getDepCode(), job.getDepJob()));
-                }
-                else{
-                    jobs.put(jobKey, job);
-                }
+                putUnique(jobs, job);
             }
             else if(node.getNodeType() == Node.ELEMENT_NODE){
                 throw new SAXException("Invalid format: element is not 'job' in 'jobs'.");
@@ -82,6 +197,147 @@ public class XmlParser {
         return jobs;
     }
 
+    /**
+     * Parses the specified job file with the streaming reader of {@link #openReader(String)}.
+     * Only the resulting index is kept in memory, the file is never loaded as a whole.
+     *
+     * @param fileName The path to the XML file to be parsed.
+     * @return A {@link JobIndex} of the parsed jobs by their natural key (depCode, depJob).
+     * @throws Exception If an error occurs during XML parsing, if the file format is invalid,
+     * or if duplicate natural keys are found.
+     */
+    private JobIndex parseStreaming(String fileName) throws Exception {
+        log.info("Start streaming parsing.");
+
+        JobIndex jobs = new JobIndex();
+
+        try (JobReader reader = openReader(fileName)) {
+            log.info("Opened file '{}'", fileName);
+
+            Job job;
+            while((job = reader.read()) != null){
+                checkInterrupted();
+                putUnique(jobs, job);
+            }
+        }
+
+        log.info("Parsed {} jobs from file '{}'", jobs.size(), fileName);
+
+        return jobs;
+    }
+
+    /**
+     * Parses the specified job file with the streaming reader of {@link #openReader(String)} into a columnar {@link JobTable}.
+     * A single {@link Job} object is reused for all elements, so no object is kept per job;
+     * the validation and the reported errors are the same as in {@link #parse(String)}.
+     *
+     * @param fileName The path to the XML file to be parsed.
+     * @return A {@link JobTable} of the parsed jobs by their natural key (depCode, depJob).
+     * @throws Exception If an error occurs during XML parsing, if the file format is invalid,
+     * or if duplicate natural keys are found.
+     */
+    public JobTable parseTable(String fileName) throws Exception {
+        JobEvents.ParseFileEvent event = new JobEvents.ParseFileEvent();
+        event.begin();
+
+        log.info("Start columnar parsing.");
+
+        JobTable jobs = new JobTable(false);
+
+        try (JobReader reader = openReader(fileName)) {
+            log.info("Opened file '{}'", fileName);
+
+            Job job = new Job();
+            while(reader.read(job)){
+                checkInterrupted();
+                if(!jobs.add(0, job.getDepCode(), job.getDepJob(), job.getDescription())){
+                    throw duplicateKey(job);
+                }
+            }
+        }
+
+        log.info("Parsed {} jobs from file '{}'", jobs.size(), fileName);
+
+        event.end();
+        if(event.shouldCommit()){
+            event.fileName = fileName;
+            event.engine = "COLUMNAR";
+            event.bytes = Files.size(Path.of(fileName));
+            event.rows = jobs.size();
+            event.commit();
+        }
+
+        return jobs;
+    }
+
+    /**
+     * Stops the parsing if the thread is interrupted, e.g. when the concurrent load of the table fails.
+     *
+     * @throws InterruptedException If the current thread is interrupted; the interrupted status is cleared.
+     */
+    private static void checkInterrupted() throws InterruptedException {
+        if(Thread.interrupted()){
+            throw new InterruptedException("Parsing is interrupted");
+        }
+    }
+
+    /**
+     * An input stream that stops the reading when the thread is interrupted, so that a parser
+     * reading the whole stream before it returns, such as the DOM parser, can be interrupted.
+     */
+    private static class InterruptibleInputStream extends FilterInputStream {
+        InterruptibleInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            checkInterruptedIO();
+            return super.read();
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            checkInterruptedIO();
+            return super.read(b, off, len);
+        }
+
+        /**
+         * Stops the reading if the thread is interrupted.
+         *
+         * @throws InterruptedIOException If the current thread is interrupted; the interrupted status is cleared.
+         */
+        private static void checkInterruptedIO() throws InterruptedIOException {
+            if(Thread.interrupted()){
+                throw new InterruptedIOException("Parsing is interrupted");
+            }
+        }
+    }
+
+    /**
+     * Adds the job to the index by its natural key.
+     *
+     * @param jobs The index of already parsed jobs.
+     * @param job The job to be added.
+     * @throws SAXException If a job with the same natural key is already present.
+     */
+    static void putUnique(JobIndex jobs, Job job) throws SAXException {
+        if(!jobs.add(job)) {
+            throw duplicateKey(job);
+        }
+    }
+
+    /**
+     * Creates the error reported for a job whose natural key is already present in the file.
+     *
+     * @param job The duplicate job.
+     * @return The {@link SAXException} to be thrown.
+     */
+    private static SAXException duplicateKey(Job job) {
+        // Application must issue an error if there are two records with the same natural key in the XML file.
+        return new SAXException(String.format("Duplicate jobKey: depCode='%s', depJob='%s'.", job.getDepCode(), job.getDepJob()));
+    }
+
     /**
      * Creates a {@link Job} object from a {@link NodeList} of child elements.
      * This method expects elements like "depCode", "depJob", and "description".
@@ -95,33 +351,47 @@ public class XmlParser {
 
         for (int j = 0; j < children.getLength(); j++) {
             Node current = children.item(j);
-            if (current.getNodeType() == Node.ELEMENT_NODE) {
-                if(current.getNodeName().equals("depCode") && job.getDepCode() == null) {
-                    job.setDepCode(current.getTextContent());
-                }
-                else if(current.getNodeName().equals("depJob") && job.getDepJob() == null) {
-                    job.setDepJob(current.getTextContent());
-                }
-                else if(current.getNodeName().equals("description") && job.getDescription() == null) {
-                    job.setDescription(current.getTextContent());
-                }
-                else{
-                    throw new SAXException("Duplicates or not supported fields are detected.");
-                }
+            if (current.getNodeType() == Node.ELEMENT_NODE && !setField(job, current.getNodeName(), current.getTextContent())) {
+                throw new SAXException("Duplicates or not supported fields are detected.");
             }
         }
 
         return job;
     }
 
+    /**
+     * Sets the job field that corresponds to the element name, if it is not set yet.
+     *
+     * @param job The {@link Job} being populated.
+     * @param name The name of the child element of a "job" node.
+     * @param text The text content of the element.
+     * @return {@code true} if the field was set; {@code false} if the field is duplicated or not supported.
+     */
+    static boolean setField(Job job, String name, String text) {
+        if(name.equals("depCode") && job.getDepCode() == null) {
+            job.setDepCode(text);
+        }
+        else if(name.equals("depJob") && job.getDepJob() == null) {
+            job.setDepJob(text);
+        }
+        else if(name.equals("description") && job.getDescription() == null) {
+            job.setDescription(text);
+        }
+        else{
+            return false;
+        }
+
+        return true;
+    }
+
     /**
      * Validates the fields of a {@link Job} object against predefined constraints.
      * Checks for null natural key fields and length constraints for `depCode`, `depJob`, and `description`.
      *
      * @param job The {@link Job} object to be validated.
-     * @throws Exception If any validation rule is violated (e.g., null natural key, excessive length).
+     * @throws SAXException If any validation rule is violated (e.g., null natural key, excessive length).
      */
-    private void checkJob(Job job) throws Exception{
+    static void checkJob(Job job) throws SAXException{
         if(job.getDepCode() == null || job.getDepJob() == null) {
             throw new SAXException("Invalid format: depCode='null' or depJob='null'.");
         }